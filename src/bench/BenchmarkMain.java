@@ -0,0 +1,28 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the gc profiler, so each result comes with its allocation rate
+ * (gc.alloc.rate.norm, bytes per operation).
+ *
+ * Usage: java bench.BenchmarkMain [regex of benchmarks to run]
+ */
+public class BenchmarkMain {
+    /**
+     * Run the benchmarks matching args[0], all of them if no argument is given.
+     * @param args optional regex of benchmark names
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "bench\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
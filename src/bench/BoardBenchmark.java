@@ -0,0 +1,69 @@
+package bench;
+
+import main.Board;
+import main.pieces.Piece;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of Board.getPieceAt and Board.setPieceAt.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    @Param({Fixtures.OPENING, Fixtures.MIDDLEGAME, Fixtures.ENDGAME})
+    public String position;
+
+    private Board board;
+    private Piece king;
+    private int fromR, fromC, toR, toC;
+
+    /**
+     * Build the position and pick a King step to make and take back.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = Fixtures.get(position, false).getBoard();
+        king = board.getKing('W');
+        fromR = king.getRow();
+        fromC = king.getCol();
+        toR = -1;
+        for (int r = fromR - 1; r <= fromR + 1; r++) {
+            for (int c = fromC - 1; c <= fromC + 1; c++) {
+                if (board.isValidLocation(r, c) && !board.hasPieceAt(r, c)) {
+                    toR = r;
+                    toC = c;
+                }
+            }
+        }
+        if (toR < 0) throw new IllegalStateException("King can't step in " + position);
+    }
+
+    /**
+     * Read every square of the board.
+     * @param bh sink for the pieces read
+     */
+    @Benchmark
+    public void getPieceAtEverySquare(Blackhole bh) {
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                bh.consume(board.getPieceAt(r, c));
+            }
+        }
+    }
+
+    /**
+     * Move the white King to an empty square and back.
+     * @return true if both moves were made.
+     */
+    @Benchmark
+    public boolean setPieceAtAndBack() {
+        return board.setPieceAt(king, toR, toC) & board.setPieceAt(king, fromR, fromC);
+    }
+}
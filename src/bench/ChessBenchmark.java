@@ -0,0 +1,105 @@
+package bench;
+
+import main.Board;
+import main.BoardRenderer;
+import main.Chess;
+import main.Move;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of Chess.checkCheckmate, Chess.getIntsFromStr, Chess.printBoard and the
+ * frames of BoardRenderer. System.out is replaced by a stream that drops its output, so
+ * printBoard measures the formatting and not the terminal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChessBenchmark {
+    @Param({Fixtures.OPENING, Fixtures.MIDDLEGAME, Fixtures.ENDGAME})
+    public String position;
+
+    private Chess game;
+    private char player;
+    private PrintStream out;
+    private final BoardRenderer full = new BoardRenderer(false), ansi = new BoardRenderer(true);
+    private int move;
+    private boolean moved;
+
+    /**
+     * Build the position and silence System.out.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        game = Fixtures.get(position, false);
+        // the player who just moved
+        player = game.getCurPlayer() == 'W' ? 'B' : 'W';
+        int[] moves = new int[Move.MAX_MOVES];
+        game.getBoard().generateLegalMoves(game.getBoard().getSideToMove(), moves);
+        move = moves[0];
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Restore System.out.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    /**
+     * Test whether the player who just moved has mated.
+     * @return true if the game is in checkmate.
+     */
+    @Benchmark
+    public boolean checkCheckmate() {
+        return game.checkCheckmate(player);
+    }
+
+    /**
+     * Parse a move as typed by a player.
+     * @return the parsed coordinates.
+     */
+    @Benchmark
+    public int[] getIntsFromStr() {
+        return Chess.getIntsFromStr("6 4 4 4");
+    }
+
+    /**
+     * Print the board.
+     */
+    @Benchmark
+    public void printBoard() {
+        game.printBoard();
+    }
+
+    /**
+     * Build a full frame of the board.
+     * @return the frame.
+     */
+    @Benchmark
+    public CharSequence renderFrame() {
+        return full.render(game.getBoard());
+    }
+
+    /**
+     * Make or take back a move and build the frame of the squares that changed.
+     * @return the frame.
+     */
+    @Benchmark
+    public CharSequence renderChanges() {
+        Board board = game.getBoard();
+        if (moved) board.unmakeMove();
+        else board.makeMove(move);
+        moved = !moved;
+        return ansi.render(board);
+    }
+}
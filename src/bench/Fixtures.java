@@ -0,0 +1,80 @@
+package bench;
+
+import main.Board;
+import main.Chess;
+import main.Move;
+import main.pieces.Piece;
+
+import java.util.Random;
+
+/**
+ * Positions shared by the benchmarks. Each game phase is reached by the same seeded
+ * sequence of legal moves, so every run measures the same positions.
+ */
+public final class Fixtures {
+    /** Names of the positions, for @Param. */
+    public static final String OPENING = "opening", MIDDLEGAME = "middlegame", ENDGAME = "endgame";
+
+    private Fixtures() {}
+
+    /**
+     * Return a game in the given phase.
+     * @param phase OPENING, MIDDLEGAME or ENDGAME
+     * @param custom true to start from the Tank and Soldier setup
+     * @return the game, with the player to move as its current player.
+     */
+    public static Chess get(String phase, boolean custom) {
+        Chess game = new Chess(true, true, 8, 8, "White", "Black", custom);
+        switch (phase) {
+            case OPENING:
+                play(game, 6);
+                break;
+            case MIDDLEGAME:
+                play(game, 30);
+                break;
+            case ENDGAME:
+                play(game, 30);
+                strip(game.getBoard());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown position " + phase);
+        }
+        return game;
+    }
+
+    /**
+     * Play up to plies seeded random legal moves.
+     * @param game the game
+     * @param plies number of moves
+     */
+    private static void play(Chess game, int plies) {
+        Random random = new Random(2020);
+        int[] moves = new int[Move.MAX_MOVES];
+        for (int i = 0; i < plies; i++) {
+            char player = game.getCurPlayer();
+            int n = game.getBoard().generateLegalMoves(player, moves);
+            if (n == 0) return;
+            int m = moves[random.nextInt(n)];
+            game.movePieceTo(player, game.getPieceAt(Move.getFromRow(m), Move.getFromCol(m)),
+                    Move.getToRow(m), Move.getToCol(m));
+            game.setCurPlayer(player == 'W' ? 'B' : 'W');
+        }
+    }
+
+    /**
+     * Leave the Pawns and one piece of every other type per player on the board,
+     * so every piece type can still be measured.
+     * @param board the board
+     */
+    private static void strip(Board board) {
+        boolean[][] kept = new boolean[2][Piece.NUM_TYPES];
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p == null || p.getTypeId() == Piece.PAWN) continue;
+                if (kept[p.getPlayerIndex()][p.getTypeId()]) board.removePieceAt(r, c);
+                kept[p.getPlayerIndex()][p.getTypeId()] = true;
+            }
+        }
+    }
+}
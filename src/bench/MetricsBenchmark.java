@@ -0,0 +1,60 @@
+package bench;
+
+import main.Chess;
+import main.metrics.LatencyHistogram;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the instrumentation: Chess.checkCheckmate with metrics off (the default) and on,
+ * and one LatencyHistogram.record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private Chess game;
+    private char player;
+    private long value;
+
+    /**
+     * Build the middlegame position.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        game = Fixtures.get(Fixtures.MIDDLEGAME, false);
+        player = game.getCurPlayer() == 'W' ? 'B' : 'W';
+    }
+
+    /**
+     * Test for checkmate without metrics.
+     * @return true if the game is in checkmate.
+     */
+    @Benchmark
+    public boolean checkCheckmate() {
+        return game.checkCheckmate(player);
+    }
+
+    /**
+     * Test for checkmate, timed into the metrics.
+     * @return true if the game is in checkmate.
+     */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dchess.metrics=true")
+    public boolean checkCheckmateMetered() {
+        return game.checkCheckmate(player);
+    }
+
+    /**
+     * Count one latency.
+     */
+    @Benchmark
+    public void record() {
+        histogram.record(value = (value * 31 + 7) & 0xFFFFF);
+    }
+}
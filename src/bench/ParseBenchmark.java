@@ -0,0 +1,79 @@
+package bench;
+
+import main.Board;
+import main.Chess;
+import main.notation.MoveParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of MoveParser on the opening position, for each form of move: read from a
+ * String as the batch runner and the console do, and from the line buffer of a connection
+ * as the game server does. Chess.getIntsFromStr is the old path, for comparison; System.out
+ * is replaced by a stream that drops the help it prints for the algebraic moves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"6 4 4 4", "e2e4", "Nf3"})
+    public String move;
+
+    private final MoveParser parser = new MoveParser();
+    private Board board;
+    private byte[] line;
+    private PrintStream out;
+
+    /**
+     * Build the position and the network line of the move, and silence System.out.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = new Chess().getBoard();
+        line = (move + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Restore System.out.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    /**
+     * Parse the move from a String.
+     * @return the packed move.
+     */
+    @Benchmark
+    public int parseBatch() {
+        return parser.parse(board, move);
+    }
+
+    /**
+     * Parse the move from the bytes of a network line, end of line included.
+     * @return the packed move.
+     */
+    @Benchmark
+    public int parseNetwork() {
+        return parser.parse(board, line, 0, line.length);
+    }
+
+    /**
+     * Parse the move the old way, four integers only.
+     * @return the parsed coordinates, null if the move isn't four integers.
+     */
+    @Benchmark
+    public int[] getIntsFromStr() {
+        return Chess.getIntsFromStr(move);
+    }
+}
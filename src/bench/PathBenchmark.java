@@ -0,0 +1,76 @@
+package bench;
+
+import main.Board;
+import main.pieces.Piece;
+import main.pieces.Queen;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of Piece.isStraightMove and Piece.isDiagonalMove, asked for every square
+ * of the board from the square of a Queen.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmark {
+    @Param({Fixtures.OPENING, Fixtures.MIDDLEGAME, Fixtures.ENDGAME})
+    public String position;
+
+    private Board board;
+    private Piece queen;
+
+    /**
+     * Build the position and find the white Queen.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = Fixtures.get(position, false).getBoard();
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p != null && p.getTypeId() == Piece.QUEEN && p.getPlayer() == 'W') queen = p;
+            }
+        }
+        if (queen == null) {
+            // the Queen has been captured: ask from the King's square instead
+            Piece king = board.getKing('W');
+            queen = new Queen('W');
+            queen.setLoc(king.getRow(), king.getCol());
+        }
+    }
+
+    /**
+     * Ask a Queen whether it can slide straight to every square.
+     * @return number of clear straight lines.
+     */
+    @Benchmark
+    public int isStraightMove() {
+        int count = 0;
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                if (queen.isStraightMove(r, c, board)) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Ask a Queen whether it can slide diagonally to every square.
+     * @return number of clear diagonals.
+     */
+    @Benchmark
+    public int isDiagonalMove() {
+        int count = 0;
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                if (queen.isDiagonalMove(r, c, board)) count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import main.Board;
+import main.pieces.Piece;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of each Piece.isValidMove implementation. Each call asks every piece of
+ * one type about every square of the board.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceBenchmark {
+    @Param({Fixtures.OPENING, Fixtures.MIDDLEGAME, Fixtures.ENDGAME})
+    public String position;
+
+    @Param({"Pawn", "Knight", "Bishop", "Rook", "Queen", "King", "Tank", "Soldier"})
+    public String type;
+
+    private Board board;
+    private Piece[] pieces;
+
+    /**
+     * Build the position, from the Tank and Soldier setup for those types, and collect the pieces of type.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean custom = type.equals("Tank") || type.equals("Soldier");
+        board = Fixtures.get(position, custom).getBoard();
+        ArrayList<Piece> found = new ArrayList<>();
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p != null && p.getType().equals(type)) found.add(p);
+            }
+        }
+        pieces = found.toArray(new Piece[0]);
+    }
+
+    /**
+     * Ask every piece of type whether it can move to every square.
+     * @return number of valid moves.
+     */
+    @Benchmark
+    public int isValidMove() {
+        int count = 0;
+        for (Piece p : pieces) {
+            for (int r = 0; r < board.getNumRows(); r++) {
+                for (int c = 0; c < board.getNumCols(); c++) {
+                    if (p.isValidMove(r, c, board)) count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import main.Board;
+import main.Chess;
+import main.Move;
+import main.Position;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handing a position to another thread: a Position snapshot and a child Position,
+ * against Board.copy and a copy followed by makeMove.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBenchmark {
+    @Param({Fixtures.OPENING, Fixtures.MIDDLEGAME, Fixtures.ENDGAME})
+    public String position;
+
+    private Chess game;
+    private Position snapshot;
+    private int move;
+
+    /**
+     * Build the position and pick its first legal move.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        game = Fixtures.get(position, false);
+        snapshot = game.snapshot();
+        int[] moves = new int[Move.MAX_MOVES];
+        if (game.getBoard().generateLegalMoves(game.getCurPlayer(), moves) == 0) {
+            throw new IllegalStateException("No legal move in " + position);
+        }
+        move = moves[0];
+    }
+
+    /**
+     * Snapshot the game.
+     * @return the snapshot.
+     */
+    @Benchmark
+    public Position snapshot() {
+        return game.snapshot();
+    }
+
+    /**
+     * Derive a child of the snapshot.
+     * @return the child.
+     */
+    @Benchmark
+    public Position after() {
+        return snapshot.after(move);
+    }
+
+    /**
+     * Copy the board of the game.
+     * @return the copy.
+     */
+    @Benchmark
+    public Board copy() {
+        return game.getBoard().copy();
+    }
+
+    /**
+     * Copy the board of the game and make the move on the copy.
+     * @return the copy.
+     */
+    @Benchmark
+    public Board copyAndMove() {
+        Board copy = game.getBoard().copy();
+        copy.makeMove(move);
+        return copy;
+    }
+}
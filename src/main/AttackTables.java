@@ -0,0 +1,184 @@
+package main;
+
+import main.pieces.Piece;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Precomputed attack tables for one board size, shared by every Board of that size.
+ * Squares are numbered r * numCols + c. Leaper pieces (Knight, King, Tank, Soldier)
+ * have a bit set of targets and a target list per square, so checking or generating
+ * their moves needs no arithmetic on the deltas.
+ */
+public final class AttackTables {
+    private static final HashMap<Integer, AttackTables> cache = new HashMap<>();
+
+    private final int numRows, numCols, numSquares, words;
+    private final long[][] leaperMasks = new long[Piece.NUM_TYPES][];
+    private final int[][][] leaperTargets = new int[Piece.NUM_TYPES][][];
+    private final long[] between;
+
+    /**
+     * Return the tables of a rxc board, building them on first use.
+     * @param r number of rows of the board.
+     * @param c number of columns of the board.
+     * @return the shared tables.
+     */
+    public static AttackTables get(int r, int c) {
+        synchronized (cache) {
+            AttackTables tables = cache.get(r << 16 | c);
+            if (tables == null) {
+                tables = new AttackTables(r, c);
+                cache.put(r << 16 | c, tables);
+            }
+            return tables;
+        }
+    }
+
+    /**
+     * Build the tables of a rxc board.
+     * @param r number of rows of the board.
+     * @param c number of columns of the board.
+     */
+    private AttackTables(int r, int c) {
+        numRows = r;
+        numCols = c;
+        numSquares = r * c;
+        words = (numSquares + 63) >>> 6;
+
+        buildLeaper(Piece.KNIGHT, new int[][]{{-2, -1}, {-2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}, {2, -1}, {2, 1}});
+        buildLeaper(Piece.KING, box(1, 1));
+        buildLeaper(Piece.SOLDIER, box(2, 2));
+        buildLeaper(Piece.TANK, box(1, numCols - 1));
+        between = numSquares <= 64 ? buildBetween() : null;
+    }
+
+    /**
+     * Return every (dr, dc) except (0, 0) with |dr| <= maxRow and |dc| <= maxCol.
+     * @param maxRow largest row distance
+     * @param maxCol largest column distance
+     * @return the deltas.
+     */
+    private static int[][] box(int maxRow, int maxCol) {
+        int[][] deltas = new int[(2 * maxRow + 1) * (2 * maxCol + 1) - 1][];
+        int n = 0;
+        for (int dr = -maxRow; dr <= maxRow; dr++) {
+            for (int dc = -maxCol; dc <= maxCol; dc++) {
+                if (dr != 0 || dc != 0) deltas[n++] = new int[]{dr, dc};
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Fill the mask and target tables of a leaper type from its deltas.
+     * @param typeId the type of the leaper
+     * @param deltas the (dr, dc) jumps of the leaper
+     */
+    private void buildLeaper(int typeId, int[][] deltas) {
+        long[] masks = new long[numSquares * words];
+        int[][] targets = new int[numSquares][];
+        int[] buffer = new int[deltas.length];
+        for (int from = 0; from < numSquares; from++) {
+            int r = from / numCols, c = from % numCols, n = 0;
+            for (int[] d : deltas) {
+                int r2 = r + d[0], c2 = c + d[1];
+                if (r2 < 0 || r2 >= numRows || c2 < 0 || c2 >= numCols) continue;
+                int to = r2 * numCols + c2;
+                masks[from * words + (to >>> 6)] |= 1L << to;
+                buffer[n++] = r2 << 8 | c2;
+            }
+            targets[from] = Arrays.copyOf(buffer, n);
+        }
+        leaperMasks[typeId] = masks;
+        leaperTargets[typeId] = targets;
+    }
+
+    /**
+     * Build the table of squares strictly between two aligned squares.
+     * @return table indexed by from * numSquares + to.
+     */
+    private long[] buildBetween() {
+        long[] table = new long[numSquares * numSquares];
+        for (int from = 0; from < numSquares; from++) {
+            int r1 = from / numCols, c1 = from % numCols;
+            for (int to = 0; to < numSquares; to++) {
+                int r2 = to / numCols, c2 = to % numCols;
+                int dr = r2 - r1, dc = c2 - c1;
+                if (dr != 0 && dc != 0 && Math.abs(dr) != Math.abs(dc)) continue;
+                dr = Integer.signum(dr);
+                dc = Integer.signum(dc);
+                long mask = 0;
+                for (int i = r1 + dr, j = c1 + dc; i != r2 || j != c2; i += dr, j += dc) {
+                    mask |= 1L << (i * numCols + j);
+                }
+                table[from * numSquares + to] = mask;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Return true if a leaper of type typeId on square from can jump to square to.
+     * @param typeId KNIGHT, KING, TANK or SOLDIER
+     * @param from the current square
+     * @param to the future square
+     * @return true if the jump is a valid movement.
+     */
+    public boolean canLeap(int typeId, int from, int to) {
+        return (leaperMasks[typeId][from * words + (to >>> 6)] & 1L << to) != 0;
+    }
+
+    /**
+     * Return the targets of a leaper of type typeId on square from, each packed as row << 8 | column.
+     * The returned array is shared and must not be modified.
+     * @param typeId KNIGHT, KING, TANK or SOLDIER
+     * @param from the current square
+     * @return the targets on the board.
+     */
+    public int[] getTargets(int typeId, int from) {
+        return leaperTargets[typeId][from];
+    }
+
+    /**
+     * Return the number of 64-bit words in a bit set with one bit per square of this board size.
+     * @return words per square set.
+     */
+    public int getWords() {
+        return words;
+    }
+
+    /**
+     * Or the target set of a leaper into a bit set of getWords() words.
+     * @param typeId KNIGHT, KING, TANK or SOLDIER
+     * @param from the current square
+     * @param dest the bit set
+     * @param offset index of the first word of the bit set in dest
+     */
+    public void addLeaperTargets(int typeId, int from, long[] dest, int offset) {
+        long[] masks = leaperMasks[typeId];
+        for (int i = 0; i < words; i++) dest[offset + i] |= masks[from * words + i];
+    }
+
+    /**
+     * Return the 64-bit target mask of a leaper. Only available if the board has at most 64 squares.
+     * @param typeId KNIGHT, KING, TANK or SOLDIER
+     * @param from the current square
+     * @return the target mask.
+     */
+    public long getLeaperMask(int typeId, int from) {
+        return leaperMasks[typeId][from];
+    }
+
+    /**
+     * Return the mask of squares strictly between two aligned squares, 0 if they are not aligned.
+     * Only available if the board has at most 64 squares.
+     * @param from the first square
+     * @param to the second square
+     * @return the mask of squares between them.
+     */
+    public long getBetween(int from, int to) {
+        return between[from * numSquares + to];
+    }
+}
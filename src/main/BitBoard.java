@@ -0,0 +1,130 @@
+package main;
+
+import main.pieces.Piece;
+
+/**
+ * Board that also keeps a 64-bit mask per piece type, alongside the Piece[][]
+ * and the player masks of Board.
+ * Square (r, c) is bit r * numCols + c, so the board may hold at most 64 squares.
+ * Occupancy and path queries are answered from the masks and the shared AttackTables
+ * without touching Piece objects.
+ */
+public class BitBoard extends Board {
+    private final long[] typeMasks = new long[Piece.NUM_TYPES];
+
+    /**
+     * Default constructor to create a 8x8 board.
+     */
+    public BitBoard() {
+        this(8, 8);
+    }
+
+    /**
+     * Parameterized constructor to create a rxc board.
+     * @param r number of rows of the board.
+     * @param c number of columns of the board.
+     */
+    public BitBoard(int r, int c) {
+        super(r, c);
+        if (r < 1 || c < 1 || r * c > 64) {
+            throw new IllegalArgumentException("BitBoard holds at most 64 squares, got " + r + "x" + c);
+        }
+    }
+
+    /**
+     * Return a copy of this board holding copies of its pieces, with the same player to move.
+     * @return the copy of this board.
+     */
+    @Override
+    public Board copy() {
+        return copyInto(new BitBoard(getNumRows(), getNumCols()));
+    }
+
+    /**
+     * Return the bit of (r, c) in the masks of this board.
+     * @param r row number
+     * @param c column number
+     * @return the bit of (r, c).
+     */
+    public long bitOf(int r, int c) {
+        return 1L << (r * getNumCols() + c);
+    }
+
+    /**
+     * Return the mask of squares holding player's pieces of the given type.
+     * @param typeId one of the type ids declared in Piece
+     * @param player 'W' or 'B'
+     * @return the mask of squares holding those pieces.
+     */
+    public long getPieces(int typeId, char player) {
+        return typeMasks[typeId] & getOccupancy(player);
+    }
+
+    /**
+     * Return true if there is a piece at (r, c).
+     * @param r row number
+     * @param c column number
+     * @return true if there is a piece at (r, c).
+     */
+    @Override
+    public boolean hasPieceAt(int r, int c) {
+        return isValidLocation(r, c) && (getOccupancy() & bitOf(r, c)) != 0;
+    }
+
+    /**
+     * Return true if no piece stands strictly between (r1, c1) and (r2, c2).
+     * The two locations must be on the same row, column or diagonal.
+     * @param r1 row number of the first location
+     * @param c1 column number of the first location
+     * @param r2 row number of the second location
+     * @param c2 column number of the second location
+     * @return true if the path between the two locations is empty.
+     */
+    @Override
+    public boolean isPathClear(int r1, int c1, int r2, int c2) {
+        if (!isValidLocation(r1, c1) || !isValidLocation(r2, c2)) return super.isPathClear(r1, c1, r2, c2);
+        int from = r1 * getNumCols() + c1, to = r2 * getNumCols() + c2;
+        return (getAttackTables().getBetween(from, to) & getOccupancy()) == 0;
+    }
+
+    /**
+     * Write all pseudo-legal moves of player's pieces into moves, packed by Move.encode.
+     * Only the squares set in the player's mask are visited.
+     * @param player 'W' or 'B'
+     * @param moves buffer of packed moves, getMoveBufferSize() is always enough
+     * @return number of moves written.
+     */
+    @Override
+    public int generateMoves(char player, int[] moves) {
+        int count = 0, cols = getNumCols();
+        for (long bits = getOccupancy(player); bits != 0; bits &= bits - 1) {
+            int sq = Long.numberOfTrailingZeros(bits);
+            count = getPieceAt(sq / cols, sq % cols).generateMoves(this, moves, count);
+        }
+        return count;
+    }
+
+    /**
+     * Clear p's bit from the type masks after it has been taken off (r, c).
+     * @param p the piece removed
+     * @param r the row number
+     * @param c the column number
+     */
+    @Override
+    protected void pieceRemoved(Piece p, int r, int c) {
+        super.pieceRemoved(p, r, c);
+        typeMasks[p.getTypeId()] &= ~bitOf(r, c);
+    }
+
+    /**
+     * Set p's bit in the type masks after it has been put on (r, c).
+     * @param p the piece placed
+     * @param r the row number
+     * @param c the column number
+     */
+    @Override
+    protected void piecePlaced(Piece p, int r, int c) {
+        super.piecePlaced(p, r, c);
+        typeMasks[p.getTypeId()] |= bitOf(r, c);
+    }
+}
@@ -1,13 +1,38 @@
 package main;
 
+import main.pieces.Pawn;
 import main.pieces.Piece;
 
+import java.util.Arrays;
+
 /**
  * The class controlling movements of pieces and their locations.
  */
 public class Board {
     private int numRows, numCols;
     private Piece[][] board;
+    private AttackTables tables;
+    private long occupied;
+    private long[] playerOccupancy = new long[2];
+
+    // attack maps, squares numbered r * numCols + c
+    private int words;
+    private long[] attacksFrom;     // per square, the bit set the piece standing there attacks
+    private long[] sliders;         // bit set of squares holding a Rook, Bishop or Queen
+    private int[][] attackCounts;   // per player and square, number of the player's pieces attacking it
+    private Piece[] kings = new Piece[2];
+    private LegalMoves legalMoves;
+
+    private Zobrist keys;
+    private long hash;
+    private char sideToMove = 'W';
+
+    // undo stack of makeMove, preallocated and grown by doubling
+    private static final int FIRST_MOVE = 1, BLACK_TO_MOVE = 2;
+    private int undoSize;
+    private int[] undoMoves = new int[256];
+    private byte[] undoFlags = new byte[256];
+    private Piece[] undoCaptured = new Piece[256];
 
     /**
      * Default constructor to create a 8x8 board.
@@ -16,6 +41,9 @@ public class Board {
         numRows = 8;
         numCols = 8;
         board = new Piece[numRows][numCols];
+        tables = AttackTables.get(numRows, numCols);
+        keys = Zobrist.get(numRows * numCols);
+        initAttackMaps();
     }
 
     /**
@@ -27,6 +55,9 @@ public class Board {
         numRows = r;
         numCols = c;
         board = new Piece[numRows][numCols];
+        tables = AttackTables.get(numRows, numCols);
+        keys = Zobrist.get(numRows * numCols);
+        initAttackMaps();
     }
 
     /**
@@ -45,6 +76,24 @@ public class Board {
         return numCols;
     }
 
+    /**
+     * Allocate empty attack maps. Only used by constructors.
+     */
+    private void initAttackMaps() {
+        words = tables.getWords();
+        attacksFrom = new long[numRows * numCols * words];
+        sliders = new long[words];
+        attackCounts = new int[2][numRows * numCols];
+    }
+
+    /**
+     * Return the precomputed attack tables shared by all boards of this size.
+     * @return the attack tables of this board.
+     */
+    public AttackTables getAttackTables() {
+        return tables;
+    }
+
     /**
      * Simple method to decide whether (x, y) is a valid location on this board.
      * @param x row number
@@ -65,6 +114,23 @@ public class Board {
         return isValidLocation(r, c) && board[r][c] != null;
     }
 
+    /**
+     * Return true if no piece stands strictly between (r1, c1) and (r2, c2).
+     * The two locations must be on the same row, column or diagonal.
+     * @param r1 row number of the first location
+     * @param c1 column number of the first location
+     * @param r2 row number of the second location
+     * @param c2 column number of the second location
+     * @return true if the path between the two locations is empty.
+     */
+    public boolean isPathClear(int r1, int c1, int r2, int c2) {
+        int dr = Integer.signum(r2 - r1), dc = Integer.signum(c2 - c1);
+        for (int r = r1 + dr, c = c1 + dc; r != r2 || c != c2; r += dr, c += dc) {
+            if (getPieceAt(r, c) != null) return false;
+        }
+        return true;
+    }
+
     /**
      * Return the piece at (i, j).
      * @param i row number
@@ -82,7 +148,11 @@ public class Board {
      * @param c the column number
      */
     public void removePieceAt(int r, int c) {
-        if (isValidLocation(r, c)) board[r][c] = null;
+        if (isValidLocation(r, c) && board[r][c] != null) {
+            Piece p = board[r][c];
+            board[r][c] = null;
+            pieceRemoved(p, r, c);
+        }
     }
 
     /**
@@ -101,6 +171,8 @@ public class Board {
                 if (temp.getPlayer() == p.getPlayer()) return false;
 
                 temp.setLoc(-1, -1);
+                board[r][c] = null;
+                pieceRemoved(temp, r, c);
             }
 
             // remove this piece at current location
@@ -109,9 +181,398 @@ public class Board {
             // put this piece at next location
             board[r][c] = p;
             p.setLoc(r, c);
+            piecePlaced(p, r, c);
 
             return true;
         }
         return false;
     }
+
+    /**
+     * Called after p has been taken off (r, c). Keeps the occupancy masks up to date;
+     * subclasses keeping more state about the position extend it.
+     * @param p the piece removed
+     * @param r the row number
+     * @param c the column number
+     */
+    protected void pieceRemoved(Piece p, int r, int c) {
+        int sq = r * numCols + c;
+        hash ^= keys.keyOf(p, sq);
+        if (hasOccupancyMasks()) {
+            long bit = 1L << sq;
+            occupied &= ~bit;
+            playerOccupancy[p.getPlayerIndex()] &= ~bit;
+        }
+        updateAttacks(p.getPlayerIndex(), sq, -1);
+        sliders[sq >>> 6] &= ~(1L << sq);
+        if (kings[p.getPlayerIndex()] == p) kings[p.getPlayerIndex()] = null;
+        refreshSlidersThrough(sq);
+    }
+
+    /**
+     * Called after p has been put on (r, c). Keeps the occupancy masks up to date;
+     * subclasses keeping more state about the position extend it.
+     * @param p the piece placed
+     * @param r the row number
+     * @param c the column number
+     */
+    protected void piecePlaced(Piece p, int r, int c) {
+        int sq = r * numCols + c;
+        hash ^= keys.keyOf(p, sq);
+        if (hasOccupancyMasks()) {
+            long bit = 1L << sq;
+            occupied |= bit;
+            playerOccupancy[p.getPlayerIndex()] |= bit;
+        }
+        refreshSlidersThrough(sq);
+        p.addAttacks(this, attacksFrom, sq * words);
+        updateAttacks(p.getPlayerIndex(), sq, 1);
+        if (p.isSlider()) sliders[sq >>> 6] |= 1L << sq;
+        if (p.getTypeId() == Piece.KING) kings[p.getPlayerIndex()] = p;
+    }
+
+    /**
+     * Make a move of the piece on its from square, capturing whatever stands on its to square,
+     * and give the move to the other player. The move isn't checked: it should come from
+     * generateLegalMoves or have passed isValidMove and isLegalMove.
+     * Everything needed to take it back is pushed on a preallocated stack, so making and
+     * unmaking a move allocates nothing.
+     * @param move the packed move
+     */
+    public void makeMove(int move) {
+        int r1 = Move.getFromRow(move), c1 = Move.getFromCol(move);
+        int r2 = Move.getToRow(move), c2 = Move.getToCol(move);
+        Piece p = board[r1][c1];
+        if (undoSize == undoMoves.length) {
+            undoMoves = Arrays.copyOf(undoMoves, undoSize * 2);
+            undoFlags = Arrays.copyOf(undoFlags, undoSize * 2);
+            undoCaptured = Arrays.copyOf(undoCaptured, undoSize * 2);
+        }
+        int flags = sideToMove == 'B' ? BLACK_TO_MOVE : 0;
+        if (p instanceof Pawn && ((Pawn) p).isFirstMove()) flags |= FIRST_MOVE;
+        undoMoves[undoSize] = move;
+        undoFlags[undoSize] = (byte) flags;
+        undoCaptured[undoSize++] = board[r2][c2];
+
+        setPieceAt(p, r2, c2);
+        setFirstMoveFalse(p);
+        setSideToMove(p.getPlayer() == 'W' ? 'B' : 'W');
+    }
+
+    /**
+     * Take back the last move made by makeMove, restoring the moved piece, the captured piece,
+     * the Pawn's first move, the player to move and the hash.
+     * @return the move taken back, 0 if there was none.
+     */
+    public int unmakeMove() {
+        if (undoSize == 0) return 0;
+        int move = undoMoves[--undoSize];
+        int flags = undoFlags[undoSize];
+        Piece captured = undoCaptured[undoSize];
+        undoCaptured[undoSize] = null;
+
+        int r1 = Move.getFromRow(move), c1 = Move.getFromCol(move);
+        int r2 = Move.getToRow(move), c2 = Move.getToCol(move);
+        Piece p = board[r2][c2];
+        setPieceAt(p, r1, c1);
+        if (captured != null) setPieceAt(captured, r2, c2);
+        if ((flags & FIRST_MOVE) != 0) setFirstMoveTrue((Pawn) p);
+        setSideToMove((flags & BLACK_TO_MOVE) != 0 ? 'B' : 'W');
+        return move;
+    }
+
+    /**
+     * Return the number of moves made by makeMove that can still be taken back.
+     * @return the number of moves on the undo stack.
+     */
+    public int getUndoSize() {
+        return undoSize;
+    }
+
+    /**
+     * Return a move made by makeMove that can still be taken back, oldest first.
+     * @param ply index of the move, from 0 to getUndoSize() - 1
+     * @return the packed move.
+     */
+    public int getMoveAt(int ply) {
+        if (ply < 0 || ply >= undoSize) throw new IndexOutOfBoundsException("No move at ply " + ply);
+        return undoMoves[ply];
+    }
+
+    /**
+     * Forget every move on the undo stack, e.g. when a new game starts on this board.
+     */
+    public void clearUndo() {
+        Arrays.fill(undoCaptured, 0, undoSize, null);
+        undoSize = 0;
+    }
+
+    /**
+     * Return the Zobrist hash of the position: pieces, unmoved Pawns and side to move.
+     * Kept up to date incrementally by setPieceAt, removePieceAt, setFirstMoveFalse and setSideToMove.
+     * @return the hash of the position.
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * Compute the Zobrist hash of the position from scratch. Equals hash() unless a
+     * Pawn on the board had setFirstMoveFalse() called directly instead of through this board.
+     * @return the hash of the position.
+     */
+    public long computeHash() {
+        long h = sideToMove == 'B' ? Zobrist.SIDE : 0;
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                if (board[r][c] != null) h ^= keys.keyOf(board[r][c], r * numCols + c);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Return the player to move in this position.
+     * @return 'W' or 'B'.
+     */
+    public char getSideToMove() {
+        return sideToMove;
+    }
+
+    /**
+     * Set the player to move in this position.
+     * @param player 'W' or 'B'
+     */
+    public void setSideToMove(char player) {
+        if (player != sideToMove) hash ^= Zobrist.SIDE;
+        sideToMove = player;
+    }
+
+    /**
+     * Call p.setFirstMoveFalse(), keeping the hash up to date if p is an unmoved Pawn on this board.
+     * @param p the piece that has moved
+     */
+    public void setFirstMoveFalse(Piece p) {
+        if (p instanceof Pawn && ((Pawn) p).isFirstMove() && getPieceAt(p.getRow(), p.getCol()) == p) {
+            hash ^= keys.firstMoveKey(p.getPlayerIndex(), p.getRow() * numCols + p.getCol());
+        }
+        p.setFirstMoveFalse();
+    }
+
+    /**
+     * Give Pawn p its first move back, keeping the hash up to date if p is on this board.
+     * Used when a Pawn's first move is taken back.
+     * @param p the Pawn
+     */
+    public void setFirstMoveTrue(Pawn p) {
+        if (!p.isFirstMove() && getPieceAt(p.getRow(), p.getCol()) == p) {
+            hash ^= keys.firstMoveKey(p.getPlayerIndex(), p.getRow() * numCols + p.getCol());
+        }
+        p.setFirstMoveTrue();
+    }
+
+    /**
+     * Return a copy of this board holding copies of its pieces, with the same player to move.
+     * Moves made on the copy don't affect this board.
+     * @return the copy of this board.
+     */
+    public Board copy() {
+        return copyInto(new Board(numRows, numCols));
+    }
+
+    /**
+     * Place copies of the pieces of this board on the empty board copy.
+     * @param copy an empty board of the same size
+     * @return copy.
+     */
+    protected Board copyInto(Board copy) {
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                if (board[r][c] != null) copy.setPieceAt(board[r][c].copy(), r, c);
+            }
+        }
+        copy.setSideToMove(sideToMove);
+        return copy;
+    }
+
+    /**
+     * Add delta to the attack count of every square attacked from sq.
+     * Removing (delta -1) also clears the attack set of sq.
+     * @param player index of the player owning the piece on sq
+     * @param sq the square of the piece
+     * @param delta 1 when the piece arrives, -1 when it leaves
+     */
+    private void updateAttacks(int player, int sq, int delta) {
+        int[] counts = attackCounts[player];
+        int base = sq * words;
+        for (int w = 0; w < words; w++) {
+            for (long bits = attacksFrom[base + w]; bits != 0; bits &= bits - 1) {
+                counts[(w << 6) + Long.numberOfTrailingZeros(bits)] += delta;
+            }
+            if (delta < 0) attacksFrom[base + w] = 0;
+        }
+    }
+
+    /**
+     * Recompute the attacks of every Rook, Bishop and Queen whose rays reach sq,
+     * after the occupancy of sq changed.
+     * @param sq the square that changed
+     */
+    private void refreshSlidersThrough(int sq) {
+        for (int w = 0; w < words; w++) {
+            for (long bits = sliders[w]; bits != 0; bits &= bits - 1) {
+                int from = (w << 6) + Long.numberOfTrailingZeros(bits);
+                if ((attacksFrom[from * words + (sq >>> 6)] & 1L << sq) == 0) continue;
+                Piece slider = board[from / numCols][from % numCols];
+                updateAttacks(slider.getPlayerIndex(), from, -1);
+                slider.addAttacks(this, attacksFrom, from * words);
+                updateAttacks(slider.getPlayerIndex(), from, 1);
+            }
+        }
+    }
+
+    /**
+     * Return the number of player's pieces attacking (r, c), not counting Pawn double steps.
+     * @param r the row number
+     * @param c the column number
+     * @param player 'W' or 'B'
+     * @return number of attackers.
+     */
+    public int countAttackers(int r, int c, char player) {
+        if (!isValidLocation(r, c)) return 0;
+        return attackCounts[player == 'W' ? 0 : 1][r * numCols + c];
+    }
+
+    /**
+     * Return the King of player on this board, null if there is none.
+     * @param player 'W' or 'B'
+     * @return the King of player.
+     */
+    public Piece getKing(char player) {
+        return kings[player == 'W' ? 0 : 1];
+    }
+
+    /**
+     * Write all legal moves of player into moves: the pseudo-legal moves that don't leave
+     * player's King attacked.
+     * @param player 'W' or 'B'
+     * @param moves buffer of packed moves, getMoveBufferSize() is always enough
+     * @return number of moves written.
+     */
+    public int generateLegalMoves(char player, int[] moves) {
+        return getLegalMoves().generate(player, moves);
+    }
+
+    /**
+     * Return true if player has at least one legal move.
+     * @param player 'W' or 'B'
+     * @return true if player can move.
+     */
+    public boolean hasLegalMove(char player) {
+        return getLegalMoves().hasLegalMove(player);
+    }
+
+    /**
+     * Return true if the pseudo-legal move doesn't leave player's King attacked.
+     * @param player 'W' or 'B'
+     * @param move the packed move, already accepted by isValidMove
+     * @return true if the move is legal.
+     */
+    public boolean isLegalMove(char player, int move) {
+        LegalMoves lm = getLegalMoves();
+        lm.analyze(player);
+        return lm.isLegal(move);
+    }
+
+    /**
+     * Return the legal move filter of this board, creating it on first use.
+     * @return the legal move filter.
+     */
+    private LegalMoves getLegalMoves() {
+        if (legalMoves == null) legalMoves = new LegalMoves(this);
+        return legalMoves;
+    }
+
+    /**
+     * Return true if one of player's pieces could move to (r, c) as far as its movement
+     * rules go, whatever stands on (r, c). Answered from attack maps kept up to date by
+     * setPieceAt and removePieceAt, so it costs a lookup instead of a board scan.
+     * @param r the row number
+     * @param c the column number
+     * @param player 'W' or 'B'
+     * @return true if (r, c) is attacked by player.
+     */
+    public boolean isSquareAttacked(int r, int c, char player) {
+        if (!isValidLocation(r, c)) return false;
+        if (attackCounts[player == 'W' ? 0 : 1][r * numCols + c] > 0) return true;
+
+        // the Pawn's double step depends on its first move, which the board doesn't see
+        for (int dr = -2; dr <= 2; dr += 4) {
+            Piece p = getPieceAt(r + dr, c);
+            if (p instanceof Pawn && p.getPlayer() == player && p.isValidMove(r, c, this)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the board has at most 64 squares, so that getOccupancy() is kept up to date.
+     * Square (r, c) is bit r * numCols + c of the masks.
+     * @return true if occupancy masks are kept.
+     */
+    public boolean hasOccupancyMasks() {
+        return numRows * numCols <= 64;
+    }
+
+    /**
+     * Return the mask of all occupied squares. Only kept if hasOccupancyMasks() is true.
+     * @return the mask of all occupied squares.
+     */
+    public long getOccupancy() {
+        return occupied;
+    }
+
+    /**
+     * Return the mask of squares occupied by player's pieces. Only kept if hasOccupancyMasks() is true.
+     * @param player 'W' or 'B'
+     * @return the mask of squares occupied by player's pieces.
+     */
+    public long getOccupancy(char player) {
+        return playerOccupancy[player == 'W' ? 0 : 1];
+    }
+
+    /**
+     * Write all pseudo-legal moves of player's pieces into moves, packed by Move.encode.
+     * @param player 'W' or 'B'
+     * @param moves buffer of packed moves, getMoveBufferSize() is always enough
+     * @return number of moves written.
+     */
+    public int generateMoves(char player, int[] moves) {
+        int count = 0;
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                Piece p = board[r][c];
+                if (p != null && p.getPlayer() == player) count = p.generateMoves(this, moves, count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return a move buffer size enough for generateMoves of either player, in this position
+     * and in every position reached from it: pieces are never added, and each one has at
+     * most one move per other square. A position read from a FEN can have far more moves
+     * than Move.MAX_MOVES, e.g. a side of sixteen Tanks.
+     * @return the buffer size, at least Move.MAX_MOVES.
+     */
+    public int getMoveBufferSize() {
+        int white = 0, black = 0;
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                if (board[r][c] == null) continue;
+                if (board[r][c].getPlayer() == 'W') white++;
+                else black++;
+            }
+        }
+        return Math.max(Move.MAX_MOVES, Math.max(white, black) * (numRows * numCols - 1));
+    }
 }
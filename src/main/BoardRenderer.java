@@ -0,0 +1,154 @@
+package main;
+
+import main.metrics.Metrics;
+import main.pieces.Piece;
+
+import java.io.PrintStream;
+
+/**
+ * Draws a Board as text, building each frame in a reusable buffer that is written to the
+ * terminal in one call. Rows are numbered from 1 at the top and columns are lettered from
+ * 'a', then "aa", "ab", ... past 26 columns; squares are separated by tabs.
+ *
+ * A renderer using ANSI escape codes clears the screen and draws its first frame at the
+ * top, then only moves the cursor to the squares that changed and rewrites them. Every
+ * frame leaves the cursor on the line below the board, with the rest of the screen cleared,
+ * so text printed since the previous frame is erased: draw a new frame only once the board
+ * has changed, not to show a message. If printed text may have scrolled the board away,
+ * call invalidate to have the next frame drawn in full.
+ */
+public class BoardRenderer {
+    /** Symbol of an empty square. */
+    public static final char EMPTY = '\u2022';
+
+    // control sequence introducer, and the distance between tab stops
+    private static final String CSI = "\u001B[";
+    private static final int TAB = 8;
+
+    private final boolean ansi;
+    private final StringBuilder frame = new StringBuilder(1024);
+    private final String newline = System.lineSeparator();
+    private char[] shown = new char[0];
+    private int shownRows = -1, shownCols = -1;
+
+    /**
+     * Create a renderer.
+     * @param ansi true to redraw only the changed squares with ANSI cursor addressing,
+     *             false to draw every frame in full as plain text
+     */
+    public BoardRenderer(boolean ansi) {
+        this.ansi = ansi;
+    }
+
+    /**
+     * Return true if frames after the first only redraw the changed squares.
+     * @return true if ANSI escape codes are used.
+     */
+    public boolean isAnsi() {
+        return ansi;
+    }
+
+    /**
+     * Have the next frame drawn in full.
+     */
+    public void invalidate() {
+        shownRows = shownCols = -1;
+    }
+
+    /**
+     * Write the frame of board to out in one call.
+     * @param board the board
+     * @param out the terminal
+     */
+    public void draw(Board board, PrintStream out) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        out.append(render(board));
+        out.flush();
+        if (Metrics.ENABLED) Metrics.record(Metrics.RENDER, start);
+    }
+
+    /**
+     * Build the frame of board. The returned buffer is reused by the next call.
+     * @param board the board
+     * @return the text of the frame.
+     */
+    public CharSequence render(Board board) {
+        int rows = board.getNumRows(), cols = board.getNumCols();
+        frame.setLength(0);
+        if (ansi && rows == shownRows && cols == shownCols) {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    char symbol = symbol(board, r, c);
+                    if (shown[r * cols + c] == symbol) continue;
+                    shown[r * cols + c] = symbol;
+                    moveTo(r + 1, 1 + TAB * (c + 1)).append(symbol);
+                }
+            }
+            moveTo(rows + 2, 1).append(CSI).append('J');
+            return frame;
+        }
+
+        if (ansi) frame.append(CSI).append('H').append(CSI).append("2J");
+        if (shown.length < rows * cols) shown = new char[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            frame.append(r + 1);
+            for (int c = 0; c < cols; c++) {
+                char symbol = symbol(board, r, c);
+                shown[r * cols + c] = symbol;
+                frame.append('\t').append(symbol);
+            }
+            frame.append(newline);
+        }
+        for (int c = 0; c < cols; c++) {
+            frame.append('\t');
+            appendColumnLabel(frame, c);
+        }
+        frame.append(newline);
+        shownRows = rows;
+        shownCols = cols;
+        return frame;
+    }
+
+    /**
+     * Return the symbol of a square.
+     * @param board the board
+     * @param r the row number
+     * @param c the column number
+     * @return the symbol of the piece there, EMPTY if there is none.
+     */
+    private static char symbol(Board board, int r, int c) {
+        Piece p = board.getPieceAt(r, c);
+        return p != null ? p.getSymbol() : EMPTY;
+    }
+
+    /**
+     * Append the sequence moving the cursor to a screen position.
+     * @param line the line, from 1
+     * @param column the column, from 1
+     * @return the frame.
+     */
+    private StringBuilder moveTo(int line, int column) {
+        return frame.append(CSI).append(line).append(';').append(column).append('H');
+    }
+
+    /**
+     * Return the label of a column: "a" to "z", then "aa", "ab", ...
+     * @param c the column number
+     * @return the label.
+     */
+    public static String columnLabel(int c) {
+        StringBuilder label = new StringBuilder(2);
+        appendColumnLabel(label, c);
+        return label.toString();
+    }
+
+    /**
+     * Append the label of a column.
+     * @param out where to append it
+     * @param c the column number
+     */
+    private static void appendColumnLabel(StringBuilder out, int c) {
+        if (c >= 26) appendColumnLabel(out, c / 26 - 1);
+        out.append((char) ('a' + c % 26));
+    }
+}
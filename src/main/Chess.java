@@ -1,21 +1,54 @@
 package main;
 
+import main.archive.GameArchive;
+import main.archive.GameArchiveWriter;
+import main.book.OpeningBook;
+import main.engine.Search;
+import main.engine.SearchLimits;
+import main.leaderboard.Leaderboard;
+import main.metrics.Metrics;
+import main.notation.Fen;
+import main.notation.MoveParser;
 import main.pieces.*;
+import main.tablebase.Tablebases;
 
+import javax.management.JMException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.Random;
 import java.util.Scanner;
-import java.util.Stack;
 
 /**
  * The main class to set board.
  */
 public class Chess {
+    /** Time the computer opponent thinks per move, in milliseconds. */
+    public static final long COMPUTER_MILLIS = 2000;
+    /** Results of play(). */
+    public static final int ILLEGAL_MOVE = -1, IN_PROGRESS = 0, CHECKMATE = 1, STALEMATE = 2;
+    /** File the console game appends finished games to. */
+    public static final String ARCHIVE_FILE = "chess-games.bin";
+    /** Opening book the computer opponent plays from, if the file exists. */
+    public static final String BOOK_FILE = "chess-book.bin";
+    /** Directory of the endgame tablebases the computer opponent plays from, if it exists. */
+    public static final String TABLEBASE_DIR = "tablebases";
+    /** Directory of the leaderboard console games are recorded in. */
+    public static final String LEADERBOARD_DIR = "leaderboard";
+
     private Board board;
     private char curPlayer = 'W';
     private String whiteName = "White", blackName = "Black";
     private Piece kingW, kingB;
     private HashMap<String, int[]> scores = new HashMap<>();
-    private Stack<Step> steps = new Stack<>();
+    private boolean useBitBoard = false;
+    private boolean WIsFirstPlayer = true, WIsLowerPlayer = true, useCustomPieces = false, fromSetup = true;
+    private GameArchiveWriter archive;
+    private Leaderboard leaderboard;
+    private BoardRenderer renderer = new BoardRenderer(false);
+    private final MoveParser parser = new MoveParser();
 
     /**
      * Default constructor creating a 8x8 board with 'W' as the first and lower player.
@@ -40,11 +73,54 @@ public class Chess {
      */
     public Chess(boolean WIsFirstPlayer, boolean WIsLowerPlayer,
                  int boardRows, int boardCols, String wk, String bk, boolean useCustomPieces) {
+        this(WIsFirstPlayer, WIsLowerPlayer, boardRows, boardCols, wk, bk, useCustomPieces, false);
+    }
+
+    /**
+     * Constructor to setup customized board and players on either board representation.
+     * @param WIsFirstPlayer true if 'W' should be the first player.
+     * @param WIsLowerPlayer true if 'W' should be the lower player.
+     * @param boardRows number of rows of the board.
+     * @param boardCols number of columns of the board.
+     * @param wk white king's name
+     * @param bk black king's name
+     * @param useCustomPieces will replace pawns by custom pieces if true
+     * @param useBitBoard will store the position in a BitBoard if true
+     */
+    public Chess(boolean WIsFirstPlayer, boolean WIsLowerPlayer, int boardRows, int boardCols,
+                 String wk, String bk, boolean useCustomPieces, boolean useBitBoard) {
+        this.useBitBoard = useBitBoard;
         setGame(WIsFirstPlayer, WIsLowerPlayer, boardRows, boardCols, wk, bk, useCustomPieces);
         scores.put(whiteName, new int[]{0, 0, 0});
         scores.put(blackName, new int[]{0, 0, 0});
     }
 
+    /**
+     * Constructor to continue a game from any position, e.g. one read by main.notation.Fen.
+     * @param board the position, with one King of each player
+     * @param curPlayer the player to move
+     * @param WIsLowerPlayer true if 'W' is the lower player, whose pawns move up
+     */
+    public Chess(Board board, char curPlayer, boolean WIsLowerPlayer) {
+        kingW = board.getKing('W');
+        kingB = board.getKing('B');
+        if (kingW == null || kingB == null) throw new IllegalArgumentException("Both players need a King");
+        this.board = board;
+        this.useBitBoard = board instanceof BitBoard;
+        this.WIsFirstPlayer = curPlayer == 'W';
+        this.WIsLowerPlayer = WIsLowerPlayer;
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p != null && p.getTypeId() >= Piece.TANK) useCustomPieces = true;
+            }
+        }
+        fromSetup = false;
+        setCurPlayer(curPlayer);
+        scores.put(whiteName, new int[]{0, 0, 0});
+        scores.put(blackName, new int[]{0, 0, 0});
+    }
+
     /**
      * Helper function to set game.
      * @param WIsFirstPlayer true if 'W' should be the first player.
@@ -57,10 +133,17 @@ public class Chess {
      */
     private void setGame(boolean WIsFirstPlayer, boolean WIsLowerPlayer, int boardRows, int boardCols,
                          String wk, String bk, boolean useCustomPieces) {
-        board = new Board(boardRows, boardCols);
-        if (!WIsFirstPlayer) { curPlayer = 'B'; }
+        board = useBitBoard ? new BitBoard(boardRows, boardCols) : new Board(boardRows, boardCols);
+        this.WIsFirstPlayer = WIsFirstPlayer;
+        this.WIsLowerPlayer = WIsLowerPlayer;
+        this.useCustomPieces = useCustomPieces;
+        fromSetup = true;
+        setCurPlayer(WIsFirstPlayer ? 'W' : 'B');
         whiteName = wk;
         blackName = bk;
+        // players typed in by resetGame start with no score
+        scores.putIfAbsent(whiteName, new int[]{0, 0, 0});
+        scores.putIfAbsent(blackName, new int[]{0, 0, 0});
 
         if (WIsLowerPlayer) {
             setup('W', true, useCustomPieces);
@@ -127,6 +210,85 @@ public class Chess {
         return board;
     }
 
+    /**
+     * Return an immutable snapshot of the current position, safe to analyse from other
+     * threads while this game goes on.
+     * @return the snapshot.
+     */
+    public Position snapshot() {
+        return Position.of(this);
+    }
+
+    /**
+     * Return true if 'W' moved first in the current game.
+     * @return true if 'W' is the first player.
+     */
+    public boolean isWFirstPlayer() {
+        return WIsFirstPlayer;
+    }
+
+    /**
+     * Return true if 'W' was placed at the lower side in the current game.
+     * @return true if 'W' is the lower player.
+     */
+    public boolean isWLowerPlayer() {
+        return WIsLowerPlayer;
+    }
+
+    /**
+     * Return true if some pawns were replaced by custom pieces in the current game.
+     * @return true if the game uses custom pieces.
+     */
+    public boolean usesCustomPieces() {
+        return useCustomPieces;
+    }
+
+    /**
+     * Return true if the current game started from the setup of the constructors rather
+     * than from a given position.
+     * @return true if the game started from the setup.
+     */
+    public boolean isFromSetup() {
+        return fromSetup;
+    }
+
+    /**
+     * Set how printBoard draws the board.
+     * @param renderer the renderer
+     */
+    public void setRenderer(BoardRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Set where games played on the console are saved when they end.
+     * @param archive the archive, null to save nothing
+     */
+    public void setArchive(GameArchiveWriter archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Set where the results of games played on the console are recorded.
+     * @param leaderboard the leaderboard, null to record nothing
+     */
+    public void setLeaderboard(Leaderboard leaderboard) {
+        this.leaderboard = leaderboard;
+    }
+
+    /**
+     * Save the current game to the archive, if there is one.
+     * @param result one of the results in GameArchive
+     */
+    private void archiveGame(int result) {
+        if (archive == null) return;
+        try {
+            archive.append(this, result);
+        } catch (IOException e) {
+            System.out.println("Sorry, the game could not be saved: " + e.getMessage());
+        }
+    }
+
     /**
      * Return current player of the player.
      * @return current player of the game.
@@ -141,11 +303,12 @@ public class Chess {
      */
     public void setCurPlayer(char player) {
         curPlayer = player;
+        board.setSideToMove(player);
     }
 
     /**
      * Similar to setPieceAt() in Board class, but intended to be used by players.
-     * Only moves if it's a valid movement for the player.
+     * Only moves if it's a valid movement for the player that doesn't leave the player's king attacked.
      * Should check game condition after using this method.
      * @param p Piece to be moved
      * @param r the row number
@@ -153,18 +316,55 @@ public class Chess {
      * @return true if piece is moved successfully.
      */
     public boolean movePieceTo(char player, Piece p, int r, int c) {
+        if (!Metrics.ENABLED) return move(player, p, r, c);
+        long start = System.nanoTime();
+        boolean moved = move(player, p, r, c);
+        Metrics.record(Metrics.MOVE, start);
+        return moved;
+    }
+
+    /**
+     * Move p to (r, c) if player owns it and the move is legal, see movePieceTo.
+     * @param player the player moving
+     * @param p Piece to be moved
+     * @param r the row number
+     * @param c the column number
+     * @return true if piece is moved successfully.
+     */
+    private boolean move(char player, Piece p, int r, int c) {
         if (p == null) return false;
         if (!p.differentLocation(r, c)) return false;
         if (p.getPlayer() != player) return false;
 
-        boolean ok = p.isValidMove(r, c, board) && board.setPieceAt(p, r, c);
+        Piece target = board.getPieceAt(r, c);
+        if (target != null && target.getPlayer() == player) return false;
+
+        int move = Move.encode(p.getRow(), p.getCol(), r, c);
+        boolean ok = isValidMove(p, r, c) && board.isLegalMove(player, move);
         if (ok) {
-            // set first move condition to false
-            p.setFirstMoveFalse();
+            // makeMove also clears the first move condition and keeps the move for undo
+            board.makeMove(move);
+            // the game switches players itself
+            board.setSideToMove(curPlayer);
         }
         return ok;
     }
 
+    /**
+     * Return true if p moves to (r, c) by its own rules, timed when metrics are enabled.
+     * @param p the piece
+     * @param r the row number
+     * @param c the column number
+     * @return p.isValidMove(r, c, board).
+     */
+    private boolean isValidMove(Piece p, int r, int c) {
+        if (!Metrics.ENABLED) return p.isValidMove(r, c, board);
+        long start = System.nanoTime();
+        boolean valid = p.isValidMove(r, c, board);
+        Metrics.record(Metrics.VALIDATE, start);
+        return valid;
+    }
+
     /**
      * Return the piece at (i, j). This method calls the board method.
      * @param i row number
@@ -187,50 +387,42 @@ public class Chess {
     }
 
     /**
-     * Return true if the game is in checkmate.
+     * Return true if player attacks the other player's king.
+     * @param player the active player
+     * @return true if the other player is in check.
+     */
+    public boolean checkCheck(char player) {
+        Piece inDangerKing = player == 'W' ? kingB : kingW;
+        return board.isSquareAttacked(inDangerKing.getRow(), inDangerKing.getCol(), player);
+    }
+
+    /**
+     * Return true if the game is in checkmate: the other player is in check and has no legal move.
      * @param player the active player
      * @return true if the game is in checkmate.
      */
     public boolean checkCheckmate(char player) {
-        Piece inDangerKing = player == 'W' ? kingB : kingW;
-        int kRow = inDangerKing.getRow(), kCol = inDangerKing.getCol();
+        if (!Metrics.ENABLED) return checkCheck(player) && !board.hasLegalMove(player == 'W' ? 'B' : 'W');
+        long start = System.nanoTime();
+        boolean mate = checkCheck(player) && !board.hasLegalMove(player == 'W' ? 'B' : 'W');
+        Metrics.record(Metrics.CHECKMATE, start);
+        return mate;
+    }
 
-        for (int r = 0; r < board.getNumRows(); r++) {
-            for (int c = 0; c < board.getNumCols(); c++) {
-                Piece p = board.getPieceAt(r, c);
-                if (p != null && p.getPlayer() == player) {
-                    if (p.isValidMove(kRow, kCol, board)) return true;
-                }
-            }
-        }
-        return false;
+    /**
+     * Return true if the game is in stalemate: the other player is not in check but has no legal move.
+     * @param player the active player
+     * @return true if the game is in stalemate.
+     */
+    public boolean checkStalemate(char player) {
+        return !checkCheck(player) && !board.hasLegalMove(player == 'W' ? 'B' : 'W');
     }
 
     /**
-     * Print board in terminal.
+     * Print board in terminal, in one write.
      */
     public void printBoard() {
-        int r = 1;
-        for (int j = 0; j < board.getNumRows(); j++) {
-            System.out.print(r);
-            r++;
-            for (int i = 0; i < board.getNumCols(); i++) {
-                System.out.print("\t");
-                Piece p = board.getPieceAt(j, i);
-                if (p != null) {
-                    p.print();
-                } else {
-                    System.out.print("\u2022");
-                }
-            }
-            System.out.println();
-        }
-
-        for (char a = 'a'; a < 'i'; a++) {
-            System.out.print("\t");
-            System.out.print(a);
-        }
-        System.out.println();
+        renderer.draw(board, System.out);
     }
 
     /**
@@ -282,6 +474,21 @@ public class Chess {
         return in.nextLine();
     }
 
+    /**
+     * Print question and get a player name short enough for the leaderboard.
+     * @param in Scanner to be used repeatedly
+     * @param question question to be printed
+     * @return user's input, at most Leaderboard.MAX_NAME bytes in UTF-8
+     */
+    public static String getNameInput(Scanner in, String question) {
+        String name = getStrInput(in, question);
+        while (name.getBytes(StandardCharsets.UTF_8).length > Leaderboard.MAX_NAME) {
+            printHelper(6);
+            name = in.nextLine();
+        }
+        return name;
+    }
+
     /**
      * Helper function to print repeatedly used strings.
      * @param mode flag for which string to print
@@ -293,7 +500,7 @@ public class Chess {
                 break;
             case 2:
                 System.out.println("Please give a valid input! (four integers in the same line, " +
-                        "separated by single space)!");
+                        "separated by spaces, or a move like e2e4 or Nf3)!");
                 break;
             case 3:
                 System.out.println("Your piece cannot move in such way!");
@@ -304,6 +511,9 @@ public class Chess {
             case 5:
                 System.out.println("There are no actions to be undo.");
                 break;
+            case 6:
+                System.out.println("Please give a shorter name (at most " + Leaderboard.MAX_NAME + " bytes)!");
+                break;
             default:
         }
     }
@@ -316,25 +526,19 @@ public class Chess {
      */
     public boolean readStr(String str, Scanner in) {
         if (str.equals("exit")) {
+            if (board.getUndoSize() > 0) archiveGame(GameArchive.UNFINISHED);
             return false;
         }
 
         if (str.equals("undo")) {
-            if (steps.empty()) {
-                printHelper(5);
-                return true;
-            }
-            Step step = steps.pop();
-            int[] loc = step.movement;
-            board.setPieceAt(step.activePiece, loc[0], loc[1]);
-            if (step.capturedPiece != null) board.setPieceAt(step.capturedPiece, loc[2], loc[3]);
-            curPlayer = curPlayer == 'W' ? 'B' : 'W';
+            if (!undo()) printHelper(5);
             return true;
         }
 
         if (str.equals("forfeit")) {
-            curPlayer = curPlayer == 'W' ? 'B' : 'W';
-            addScoreForPlayer();
+            setCurPlayer(curPlayer == 'W' ? 'B' : 'W');
+            addScoreForPlayer(curPlayer);
+            archiveGame(curPlayer == 'W' ? GameArchive.WHITE_WINS : GameArchive.BLACK_WINS);
             return resetGame(in);
         }
 
@@ -343,75 +547,132 @@ public class Chess {
             boolean ok = getBoolInput(in, getPrompt(anotherPlayer) + "Do you also want to restart?");
             boolean continueGame = true;
             if (ok) {
-                scores.get(whiteName)[1]++;
-                scores.get(blackName)[1]++;
+                addDrawForPlayers();
+                archiveGame(GameArchive.DRAW);
                 continueGame = resetGame(in);
             } else System.out.println("Sorry, one of the players doesn't want to restart.");
             return continueGame;
         }
 
-        int[] loc = getIntsFromStr(str);
-        if (loc == null) return true;
-        return movePieceByInts(in, loc);
+        if (str.equals("fen")) {
+            System.out.println(Fen.write(this));
+            return true;
+        }
+
+        // four integers, e.g. "6 4 4 4", or algebraic notation, e.g. "e2e4", "e4" or "Nf3"
+        int move = parser.parse(board, str);
+        if (move < 0) {
+            printHelper(2);
+            return true;
+        }
+        return playMove(in, move);
     }
 
     /**
-     * Move piece by int array.
-     * @param in  Scanner to be used repeatedly
-     * @param loc first two ints are current location and the next two are future location.
+     * Play a packed move for the current player, as if it had been typed in.
+     * @param in Scanner to be used repeatedly
+     * @param move the packed move
      * @return true if game should continue.
      */
-    private boolean movePieceByInts(Scanner in, int[] loc) {
-        Piece p = board.getPieceAt(loc[0], loc[1]);
-        Piece cp = board.getPieceAt(loc[2], loc[3]);
-        boolean ok = movePieceTo(curPlayer, p, loc[2], loc[3]);
-        if (!ok) {
+    public boolean playMove(Scanner in, int move) {
+        char mover = curPlayer;
+        int result = ILLEGAL_MOVE;
+        if (board.isValidLocation(Move.getFromRow(move), Move.getFromCol(move))
+                && board.isValidLocation(Move.getToRow(move), Move.getToCol(move))) {
+            result = play(move);
+        }
+        if (result == ILLEGAL_MOVE) {
             printHelper(3);
             return true;
         }
+        if (result == CHECKMATE) {
+            System.out.println("Checkmate!");
+            addScoreForPlayer(mover);
+            archiveGame(mover == 'W' ? GameArchive.WHITE_WINS : GameArchive.BLACK_WINS);
+            return resetGame(in);
+        }
+        if (result == STALEMATE) {
+            System.out.println("Stalemate!");
+            addDrawForPlayers();
+            archiveGame(GameArchive.DRAW);
+            return resetGame(in);
+        }
+        return true;
+    }
 
-        steps.push(new Step(p, cp, loc));
-
-        curPlayer = curPlayer == 'W' ? 'B' : 'W';
-        ok = checkCheckmate(curPlayer);
-        if (!ok) return true;
+    /**
+     * Play a packed move for the current player and pass the turn, without any console I/O.
+     * @param move the packed move
+     * @return ILLEGAL_MOVE if the move isn't allowed (nothing changes), CHECKMATE or STALEMATE
+     * if the game ended with this move, IN_PROGRESS otherwise.
+     */
+    public int play(int move) {
+        Piece p = board.getPieceAt(Move.getFromRow(move), Move.getFromCol(move));
+        if (!movePieceTo(curPlayer, p, Move.getToRow(move), Move.getToCol(move))) return ILLEGAL_MOVE;
+
+        char mover = curPlayer;
+        setCurPlayer(curPlayer == 'W' ? 'B' : 'W');
+        if (board.hasLegalMove(curPlayer)) return IN_PROGRESS;
+        return checkCheck(mover) ? CHECKMATE : STALEMATE;
+    }
 
-        addScoreForPlayer();
-        return resetGame(in);
+    /**
+     * Take back the last move, without any console I/O. The player who made it plays again.
+     * @return false if there is no move to take back.
+     */
+    public boolean undo() {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        if (board.unmakeMove() == 0) return false;
+        setCurPlayer(board.getSideToMove());
+        if (Metrics.ENABLED) Metrics.record(Metrics.UNDO, start);
+        return true;
     }
 
     /**
      * Add score as current game ends.
+     * @param winnerPlayer the player who won the game
      */
-    private void addScoreForPlayer() {
-        String winner = curPlayer == 'W' ? whiteName : blackName;
-        String loser = curPlayer == 'W' ? blackName : whiteName;
+    private void addScoreForPlayer(char winnerPlayer) {
+        String winner = winnerPlayer == 'W' ? whiteName : blackName;
+        String loser = winnerPlayer == 'W' ? blackName : whiteName;
+        if (leaderboard != null) {
+            try {
+                leaderboard.recordWin(winner, loser);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Sorry, the result could not be recorded: " + e.getMessage());
+            }
+        }
         scores.get(winner)[0]++;
         scores.get(loser)[2]++;
     }
 
+    /**
+     * Add score to both players as current game ends in a draw.
+     */
+    private void addDrawForPlayers() {
+        if (leaderboard != null) {
+            try {
+                leaderboard.recordDraw(whiteName, blackName);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Sorry, the result could not be recorded: " + e.getMessage());
+            }
+        }
+        scores.get(whiteName)[1]++;
+        scores.get(blackName)[1]++;
+    }
+
     /**
      * Parse string to a int array of length 4.
-     * @param str input string
-     * @return the int array parsed
+     * @param str input string, four integers separated by spaces
+     * @return the int array parsed, null if str isn't four integers.
      */
     public static int[] getIntsFromStr(String str) {
-        int spaceCount = 0;
-        int[] loc = new int[4];
-        int prev = 0;
-        for(int i = 0; i < str.length(); i++) {
-            char c = str.charAt(i);
-            if(c == ' ') {
-                loc[spaceCount] = Integer.parseInt(str.substring(prev, i));
-                spaceCount++;
-                prev = i+1;
-            }
-            if(c < '0' || c > '9') {
-                printHelper(2);
-                return null;
-            }
+        int move = Move.parse(str);
+        if (move < 0) {
+            printHelper(2);
+            return null;
         }
-        return loc;
+        return new int[]{Move.getFromRow(move), Move.getFromCol(move), Move.getToRow(move), Move.getToCol(move)};
     }
 
     /**
@@ -421,10 +682,10 @@ public class Chess {
      * @return unique name
      */
     public static String getUniqueName(String existedName, Scanner in) {
-        String bk = getStrInput(in, "Please type in black king's name.");
+        String bk = getNameInput(in, "Please type in black king's name.");
         if (bk.equals(existedName)) {
             printHelper(4);
-            bk = getStrInput(in, "Please type in black king's name.");
+            bk = getNameInput(in, "Please type in black king's name.");
         }
         return bk;
     }
@@ -447,15 +708,16 @@ public class Chess {
             bk = ok ? blackName : whiteName;
         } else {
             scores.clear();
-            wk = getStrInput(in, "Please type in white king's name.");
+            wk = getNameInput(in, "Please type in white king's name.");
             bk = getUniqueName(wk, in);
         }
-        steps.clear();
 
         boolean WIsFirst = getBoolInput(in, "White king, would you like to start first?");
         boolean WIsLower = getBoolInput(in, "White king, would you like to be placed at lower side?");
         boolean useCustomPieces = getBoolInput(in, "Do you want some pawns being replaced by custom pieces?");
         setGame(WIsFirst, WIsLower, 8, 8, wk, bk, useCustomPieces);
+        // the questions may have scrolled the board away
+        renderer.invalidate();
         return true;
     }
 
@@ -469,7 +731,7 @@ public class Chess {
             boolean WIsFirst = getBoolInput(in, "White king, would you like to start first?");
             boolean WIsLower = getBoolInput(in, "White king, would you like to be placed at lower side?");
 
-            String wk = getStrInput(in, "Please type in white king's name.");
+            String wk = getNameInput(in, "Please type in white king's name.");
             String bk = getUniqueName(wk, in);
 
             boolean useCustomPieces = getBoolInput(in, "Do you want some pawns being replaced by custom pieces?");
@@ -477,12 +739,84 @@ public class Chess {
             game = new Chess(WIsFirst, WIsLower, 8, 8, wk, bk, useCustomPieces);
         } else game = new Chess();
 
+        char computer = getBoolInput(in, "Would you like to play against the computer? It plays black.") ? 'B' : 'N';
+        Search engine = new Search();
+        OpeningBook book = null;
+        Random random = new Random();
+        try {
+            if (Files.exists(Paths.get(BOOK_FILE))) book = new OpeningBook(Paths.get(BOOK_FILE));
+        } catch (IOException e) {
+            System.out.println("Sorry, the opening book can't be used: " + e.getMessage());
+        }
+        try {
+            if (Files.isDirectory(Paths.get(TABLEBASE_DIR))) {
+                Tablebases tablebases = new Tablebases();
+                tablebases.load(Paths.get(TABLEBASE_DIR));
+                engine.setTablebases(tablebases);
+            }
+        } catch (IOException e) {
+            System.out.println("Sorry, the endgame tablebases can't be used: " + e.getMessage());
+        }
+        try {
+            game.setArchive(new GameArchiveWriter(Paths.get(ARCHIVE_FILE)));
+        } catch (IOException e) {
+            System.out.println("Sorry, games won't be saved: " + e.getMessage());
+        }
+        Leaderboard leaderboard = null;
+        try {
+            leaderboard = new Leaderboard(Paths.get(LEADERBOARD_DIR));
+            game.setLeaderboard(leaderboard);
+        } catch (IOException e) {
+            System.out.println("Sorry, results won't be recorded: " + e.getMessage());
+        }
+
+        if (Metrics.ENABLED) {
+            try {
+                Metrics.registerMBean();
+            } catch (JMException e) {
+                System.out.println("Sorry, the metrics can't be shown over JMX: " + e.getMessage());
+            }
+        }
+
+        // "ansi" redraws only the squares that changed, in place
+        if (args.length > 0 && args[0].equals("ansi")) game.setRenderer(new BoardRenderer(true));
         game.printBoard();
         boolean continueGame = true;
         while (continueGame) {
             game.printPrompt();
+            if (game.getCurPlayer() == computer) {
+                int move = book != null ? book.pick(game.getBoard(), random.nextLong()) : 0;
+                if (move == 0) move = engine.bestMove(game.getBoard(), SearchLimits.time(COMPUTER_MILLIS)).getBestMove();
+                System.out.println(Move.toString(move));
+                continueGame = game.playMove(in, move);
+                game.printBoard();
+                continue;
+            }
             str = in.nextLine();
+            if (computer != 'N' && str.equals("undo")) {
+                // take back the computer's reply too, so the human plays again instead of the computer
+                if (!game.undo()) printHelper(5);
+                else {
+                    if (game.getCurPlayer() == computer) game.undo();
+                    game.printBoard();
+                }
+                continue;
+            }
+            // an ANSI frame clears what the command printed, so only draw when the board changed
+            Board before = game.getBoard();
+            long hash = before.hash();
             continueGame = game.readStr(str, in);
+            if (continueGame && (game.getBoard() != before || game.getBoard().hash() != hash)) game.printBoard();
+        }
+        if (leaderboard != null) {
+            System.out.println("Leaderboard (wins/draws/losses):");
+            for (Leaderboard.Standing standing : leaderboard.top(10)) System.out.println(standing);
+            try {
+                leaderboard.close();
+            } catch (IOException e) {
+                System.out.println("Sorry, the leaderboard could not be saved: " + e.getMessage());
+            }
         }
+        if (Metrics.ENABLED) System.out.print(Metrics.report());
     }
 }
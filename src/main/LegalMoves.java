@@ -0,0 +1,242 @@
+package main;
+
+import main.pieces.Pawn;
+import main.pieces.Piece;
+
+/**
+ * Filters pseudo-legal moves down to legal ones for one Board.
+ * The position is analysed once: the pieces giving check and the line along which a
+ * check can be blocked (the check mask), and the pieces pinned to their King with the
+ * line they may still move along (the pin rays). After that each move is accepted or
+ * rejected with a little arithmetic, without making and undoing it.
+ */
+public class LegalMoves {
+    private static final int[][] DIRS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}, {-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+
+    private final Board board;
+    private final int[] scratch;
+
+    // analysis of the current position
+    private char player, enemy;
+    private Piece king;
+    private int kr, kc;
+    private int checkers;
+    private int checkR, checkC, checkDr, checkDc, checkDist;
+    private boolean checkBlockable;
+    private int numPins;
+    private final int[] pinR = new int[8], pinC = new int[8], pinDr = new int[8], pinDc = new int[8];
+    private final int[] pinDist = new int[8];
+    private int numForbidden;
+    private final int[] forbiddenR = new int[8], forbiddenC = new int[8];
+
+    /**
+     * Create the filter for board.
+     * @param board the board to filter moves on
+     */
+    public LegalMoves(Board board) {
+        this.board = board;
+        // one piece has at most one move per square
+        scratch = new int[Math.max(Move.MAX_MOVES, board.getNumRows() * board.getNumCols())];
+    }
+
+    /**
+     * Find checkers, the check mask and the pin rays for player's King.
+     * Must be called again whenever the position changes.
+     * @param player the player to move, 'W' or 'B'
+     */
+    public void analyze(char player) {
+        this.player = player;
+        enemy = player == 'W' ? 'B' : 'W';
+        king = board.getKing(player);
+        checkers = 0;
+        numPins = 0;
+        numForbidden = 0;
+        if (king == null) return;
+        kr = king.getRow();
+        kc = king.getCol();
+
+        int rayCheckers = 0;
+        for (int[] d : DIRS) {
+            int dr = d[0], dc = d[1];
+            int firstR = -1, firstC = -1, dist = 0;
+            for (int r = kr + dr, c = kc + dc; board.isValidLocation(r, c); r += dr, c += dc) {
+                dist++;
+                Piece q = board.getPieceAt(r, c);
+                if (q == null) continue;
+                if (firstR < 0) {
+                    if (q.getPlayer() == player) {
+                        // one of ours: look further for a piece pinning it
+                        firstR = r;
+                        firstC = c;
+                        continue;
+                    }
+                    if (attacksAlong(q, dr, dc, dist, true)) {
+                        checkers++;
+                        if (!(q instanceof Pawn) || dist == 1) rayCheckers++;
+                        checkR = r;
+                        checkC = c;
+                        checkDr = dr;
+                        checkDc = dc;
+                        checkDist = dist;
+                        checkBlockable = dist > 1;
+                        // the King can't step back along the line it is attacked on
+                        if (q.isSlider() || (dist == 1 && ((Pawn) q).isFirstMove())) forbid(kr - dr, kc - dc);
+                    }
+                } else if (q.getPlayer() != player && attacksAlong(q, dr, dc, dist, false)) {
+                    pinR[numPins] = firstR;
+                    pinC[numPins] = firstC;
+                    pinDr[numPins] = dr;
+                    pinDc[numPins] = dc;
+                    pinDist[numPins++] = dist;
+                }
+                break;
+            }
+        }
+
+        // whatever attacks the King and wasn't met on a line is a leaper
+        int leaperCheckers = board.countAttackers(kr, kc, enemy) - rayCheckers;
+        if (leaperCheckers > 0) {
+            checkers += leaperCheckers;
+            if (checkers == 1) findLeaperChecker();
+        }
+    }
+
+    /**
+     * Return true if enemy piece q, dist squares from the King in direction (dr, dc),
+     * attacks the King along that line once the squares in between are empty.
+     * @param q the enemy piece
+     * @param dr row step from the King towards q
+     * @param dc column step from the King towards q
+     * @param dist number of steps from the King to q
+     * @param open true if the squares in between are already empty
+     * @return true if q attacks along the line.
+     */
+    private boolean attacksAlong(Piece q, int dr, int dc, int dist, boolean open) {
+        int type = q.getTypeId();
+        boolean straight = dr == 0 || dc == 0;
+        if (type == Piece.QUEEN) return true;
+        if (type == Piece.ROOK) return straight;
+        if (type == Piece.BISHOP) return !straight;
+        if (type == Piece.PAWN && dc == 0) {
+            Pawn pawn = (Pawn) q;
+            if (pawn.isGoingDown() != (dr < 0)) return false;
+            if (dist == 1) return open;
+            return dist == 2 && pawn.isFirstMove();
+        }
+        return false;
+    }
+
+    /**
+     * Remember that the King may not move to (r, c).
+     * @param r the row number
+     * @param c the column number
+     */
+    private void forbid(int r, int c) {
+        forbiddenR[numForbidden] = r;
+        forbiddenC[numForbidden++] = c;
+    }
+
+    /**
+     * Locate the single checker when it is a Knight, King, Tank or Soldier.
+     */
+    private void findLeaperChecker() {
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece q = board.getPieceAt(r, c);
+                if (q != null && q.getPlayer() == enemy && !q.isSlider() && !(q instanceof Pawn)
+                        && q.isValidMove(kr, kc, board)) {
+                    checkR = r;
+                    checkC = c;
+                    checkBlockable = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if (r, c) is k steps from the King in direction (dr, dc), with 1 <= k <= maxDist.
+     * @param r the row number
+     * @param c the column number
+     * @param dr row step
+     * @param dc column step
+     * @param maxDist largest number of steps
+     * @return true if (r, c) lies on that part of the line.
+     */
+    private boolean onRay(int r, int c, int dr, int dc, int maxDist) {
+        int k = dr != 0 ? (r - kr) * dr : (c - kc) * dc;
+        return k >= 1 && k <= maxDist && r == kr + k * dr && c == kc + k * dc;
+    }
+
+    /**
+     * Return true if the King is attacked in the analysed position.
+     * @return true if the player to move is in check.
+     */
+    public boolean isInCheck() {
+        return checkers > 0;
+    }
+
+    /**
+     * Return true if a pseudo-legal move of the analysed player doesn't leave the King attacked.
+     * @param move the packed move
+     * @return true if the move is legal.
+     */
+    public boolean isLegal(int move) {
+        if (king == null) return true;
+        int r1 = Move.getFromRow(move), c1 = Move.getFromCol(move);
+        int r2 = Move.getToRow(move), c2 = Move.getToCol(move);
+
+        if (r1 == kr && c1 == kc) {
+            if (board.isSquareAttacked(r2, c2, enemy)) return false;
+            for (int i = 0; i < numForbidden; i++) {
+                if (forbiddenR[i] == r2 && forbiddenC[i] == c2) return false;
+            }
+            return true;
+        }
+
+        if (checkers > 1) return false;
+        if (checkers == 1 && !(r2 == checkR && c2 == checkC)
+                && !(checkBlockable && onRay(r2, c2, checkDr, checkDc, checkDist - 1))) {
+            return false;
+        }
+        for (int i = 0; i < numPins; i++) {
+            if (pinR[i] == r1 && pinC[i] == c1) return onRay(r2, c2, pinDr[i], pinDc[i], pinDist[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Write all legal moves of player into moves.
+     * @param player 'W' or 'B'
+     * @param moves buffer of packed moves
+     * @return number of moves written.
+     */
+    public int generate(char player, int[] moves) {
+        analyze(player);
+        int n = board.generateMoves(player, moves), count = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLegal(moves[i])) moves[count++] = moves[i];
+        }
+        return count;
+    }
+
+    /**
+     * Return true if player has at least one legal move, generating the moves piece by piece.
+     * @param player 'W' or 'B'
+     * @return true if player can move.
+     */
+    public boolean hasLegalMove(char player) {
+        analyze(player);
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p == null || p.getPlayer() != player) continue;
+                int n = p.generateMoves(board, scratch, 0);
+                for (int i = 0; i < n; i++) {
+                    if (isLegal(scratch[i])) return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,95 @@
+package main;
+
+/**
+ * Helpers for moves packed into a single int, one byte per coordinate:
+ * from row, from column, to row, to column (the same order as the int[4] of a Step).
+ */
+public final class Move {
+    /** Buffer size that holds every move of one side in the standard setups; see Board.getMoveBufferSize for any position. */
+    public static final int MAX_MOVES = 256;
+
+    private Move() {}
+
+    /**
+     * Pack a movement from (r1, c1) to (r2, c2) into an int.
+     * @param r1 current row number
+     * @param c1 current column number
+     * @param r2 future row number
+     * @param c2 future column number
+     * @return the packed move.
+     */
+    public static int encode(int r1, int c1, int r2, int c2) {
+        return r1 << 24 | c1 << 16 | r2 << 8 | c2;
+    }
+
+    /**
+     * Return the current row number of a packed move.
+     * @param move the packed move
+     * @return the current row number.
+     */
+    public static int getFromRow(int move) {
+        return move >>> 24;
+    }
+
+    /**
+     * Return the current column number of a packed move.
+     * @param move the packed move
+     * @return the current column number.
+     */
+    public static int getFromCol(int move) {
+        return move >>> 16 & 0xFF;
+    }
+
+    /**
+     * Return the future row number of a packed move.
+     * @param move the packed move
+     * @return the future row number.
+     */
+    public static int getToRow(int move) {
+        return move >>> 8 & 0xFF;
+    }
+
+    /**
+     * Return the future column number of a packed move.
+     * @param move the packed move
+     * @return the future column number.
+     */
+    public static int getToCol(int move) {
+        return move & 0xFF;
+    }
+
+    /**
+     * Return the move as four integers separated by single spaces, the input format of Chess.
+     * @param move the packed move
+     * @return string form of the move.
+     */
+    public static String toString(int move) {
+        return getFromRow(move) + " " + getFromCol(move) + " " + getToRow(move) + " " + getToCol(move);
+    }
+
+    /**
+     * Parse a move typed as four integers from 0 to 127 separated by spaces, the input
+     * format of Chess, without allocating. Spaces and tabs around the numbers are skipped.
+     * @param text the text
+     * @return the packed move, -1 if text isn't a move.
+     */
+    public static int parse(CharSequence text) {
+        int move = 0, count = 0, value = 0, digits = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char ch = i < text.length() ? text.charAt(i) : ' ';
+            if (ch >= '0' && ch <= '9') {
+                value = value * 10 + ch - '0';
+                if (++digits > 3 || value > 127) return -1;
+            } else if (ch == ' ' || ch == '\t') {
+                if (digits == 0) continue;
+                if (count == 4) return -1;
+                move = move << 8 | value;
+                count++;
+                value = digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        return count == 4 ? move : -1;
+    }
+}
@@ -0,0 +1,261 @@
+package main;
+
+import main.pieces.*;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of a position: one byte per square and the player to move, with the
+ * same Zobrist hash as the Board it was taken from. A snapshot holds no Piece, so any number
+ * of threads can read it, derive child positions with after() and build their own Board with
+ * toBoard() while the game it came from goes on.
+ *
+ * A square's byte is 0 when it's empty, else the type id of its piece plus one, with BLACK
+ * set for the pieces of 'B', DOWN for Pawns moving down and FIRST_MOVE for unmoved Pawns.
+ */
+public final class Position {
+    private static final int TYPE = 0x0F, BLACK = 0x10, DOWN = 0x20, FIRST_MOVE = 0x40;
+
+    private final int numRows, numCols;
+    private final byte[] squares;
+    private final char sideToMove;
+    private final long hash;
+    private final Zobrist keys;
+
+    /**
+     * Create a snapshot from its fields, taking ownership of squares.
+     * @param numRows number of rows of the board
+     * @param numCols number of columns of the board
+     * @param squares one byte per square, r * numCols + c
+     * @param sideToMove 'W' or 'B'
+     * @param hash the Zobrist hash of the position
+     * @param keys the Zobrist keys of boards of this size
+     */
+    private Position(int numRows, int numCols, byte[] squares, char sideToMove, long hash, Zobrist keys) {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.squares = squares;
+        this.sideToMove = sideToMove;
+        this.hash = hash;
+        this.keys = keys;
+    }
+
+    /**
+     * Return a snapshot of the current position of a game.
+     * @param game the game
+     * @return the snapshot, with the player to move of game.
+     */
+    public static Position of(Chess game) {
+        return of(game.getBoard(), game.getCurPlayer());
+    }
+
+    /**
+     * Return a snapshot of a board.
+     * @param board the board
+     * @return the snapshot, with the player to move of board.
+     */
+    public static Position of(Board board) {
+        return of(board, board.getSideToMove());
+    }
+
+    /**
+     * Return a snapshot of a board with a given player to move.
+     * @param board the board
+     * @param sideToMove 'W' or 'B'
+     * @return the snapshot.
+     */
+    private static Position of(Board board, char sideToMove) {
+        int rows = board.getNumRows(), cols = board.getNumCols();
+        byte[] squares = new byte[rows * cols];
+        long hash = board.hash();
+        if (sideToMove != board.getSideToMove()) hash ^= Zobrist.SIDE;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p != null) squares[r * cols + c] = (byte) encode(p);
+            }
+        }
+        return new Position(rows, cols, squares, sideToMove, hash, Zobrist.get(rows * cols));
+    }
+
+    /**
+     * Return the byte of a square holding p.
+     * @param p the piece
+     * @return the code of p.
+     */
+    private static int encode(Piece p) {
+        int code = p.getTypeId() + 1;
+        if (p.getPlayer() == 'B') code |= BLACK;
+        if (p instanceof Pawn) {
+            Pawn pawn = (Pawn) p;
+            if (pawn.isGoingDown()) code |= DOWN;
+            if (pawn.isFirstMove()) code |= FIRST_MOVE;
+        }
+        return code;
+    }
+
+    /**
+     * Return the Zobrist key of the piece a square's byte describes.
+     * @param code the byte of the square, not 0
+     * @param sq the square, r * numCols + c
+     * @return the key.
+     */
+    private long keyOf(int code, int sq) {
+        return keys.keyOf((code & TYPE) - 1, (code & BLACK) != 0 ? 1 : 0,
+                (code & DOWN) != 0, (code & FIRST_MOVE) != 0, sq);
+    }
+
+    /**
+     * Return the position after a move, leaving this one unchanged. Like Board.makeMove the
+     * move isn't checked: it should be legal here, e.g. from generateLegalMoves of toBoard().
+     * Costs one copy of the squares, and no Piece.
+     * @param move the packed move
+     * @return the child position.
+     */
+    public Position after(int move) {
+        int from = Move.getFromRow(move) * numCols + Move.getFromCol(move);
+        int to = Move.getToRow(move) * numCols + Move.getToCol(move);
+        int code = squares[from], captured = squares[to], moved = code & ~FIRST_MOVE;
+        long h = hash ^ Zobrist.SIDE ^ keyOf(code, from) ^ keyOf(moved, to);
+        if (captured != 0) h ^= keyOf(captured, to);
+
+        byte[] child = squares.clone();
+        child[from] = 0;
+        child[to] = (byte) moved;
+        return new Position(numRows, numCols, child, (code & BLACK) != 0 ? 'W' : 'B', h, keys);
+    }
+
+    /**
+     * Return a new board holding new pieces in this position, for one thread to search with
+     * makeMove and unmakeMove. Its hash() equals hash().
+     * @return the board.
+     */
+    public Board toBoard() {
+        Board board = new Board(numRows, numCols);
+        for (int sq = 0; sq < squares.length; sq++) {
+            int code = squares[sq];
+            if (code == 0) continue;
+            Piece p = newPiece(code);
+            if ((code & FIRST_MOVE) == 0) p.setFirstMoveFalse();
+            board.setPieceAt(p, sq / numCols, sq % numCols);
+        }
+        board.setSideToMove(sideToMove);
+        return board;
+    }
+
+    /**
+     * Create the piece a square's byte describes.
+     * @param code the byte of the square, not 0
+     * @return the piece, an unmoved one if it's a Pawn.
+     */
+    private static Piece newPiece(int code) {
+        char player = (code & BLACK) != 0 ? 'B' : 'W';
+        switch ((code & TYPE) - 1) {
+            case Piece.PAWN: return new Pawn(player, (code & DOWN) != 0);
+            case Piece.KNIGHT: return new Knight(player);
+            case Piece.BISHOP: return new Bishop(player);
+            case Piece.ROOK: return new Rook(player);
+            case Piece.QUEEN: return new Queen(player);
+            case Piece.KING: return new King(player);
+            case Piece.TANK: return new Tank(player);
+            default: return new Soldier(player);
+        }
+    }
+
+    /**
+     * Return number of rows of the board.
+     * @return number of rows of the board.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Return number of columns of the board.
+     * @return number of columns of the board.
+     */
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Return the player to move in this position.
+     * @return 'W' or 'B'.
+     */
+    public char getSideToMove() {
+        return sideToMove;
+    }
+
+    /**
+     * Return the Zobrist hash of the position, equal to Board.hash() of the same position.
+     * @return the hash of the position.
+     */
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * Return the type id of the piece at (r, c).
+     * @param r the row number
+     * @param c the column number
+     * @return the type id, e.g. Piece.PAWN, -1 if the square is empty.
+     */
+    public int getTypeId(int r, int c) {
+        return (squares[r * numCols + c] & TYPE) - 1;
+    }
+
+    /**
+     * Return the player of the piece at (r, c).
+     * @param r the row number
+     * @param c the column number
+     * @return 'W' or 'B', 'N' if the square is empty.
+     */
+    public char getPlayer(int r, int c) {
+        int code = squares[r * numCols + c];
+        if (code == 0) return 'N';
+        return (code & BLACK) != 0 ? 'B' : 'W';
+    }
+
+    /**
+     * Return true if the piece at (r, c) is a Pawn that hasn't moved yet.
+     * @param r the row number
+     * @param c the column number
+     * @return true if the piece at (r, c) is an unmoved Pawn.
+     */
+    public boolean isFirstMove(int r, int c) {
+        return (squares[r * numCols + c] & FIRST_MOVE) != 0;
+    }
+
+    /**
+     * Return true if the piece at (r, c) is a Pawn moving down.
+     * @param r the row number
+     * @param c the column number
+     * @return true if the piece at (r, c) is a Pawn moving down.
+     */
+    public boolean isGoingDown(int r, int c) {
+        return (squares[r * numCols + c] & DOWN) != 0;
+    }
+
+    /**
+     * Return true if o is the same position: same board size, squares and player to move.
+     * @param o the object to compare
+     * @return true if o is the same position.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Position)) return false;
+        Position other = (Position) o;
+        return hash == other.hash && sideToMove == other.sideToMove && numCols == other.numCols
+                && Arrays.equals(squares, other.squares);
+    }
+
+    /**
+     * Return a hash code consistent with equals, taken from the Zobrist hash.
+     * @return the hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+}
@@ -0,0 +1,157 @@
+package main;
+
+/**
+ * Magic-bitboard attack tables for Rook, Bishop and Queen on an 8x8 board.
+ * Square (r, c) is bit r * 8 + c. A slider's attacks for a given occupancy come from
+ * one mask, multiply, shift and table lookup. Boards of other sizes fall back to
+ * walking the rays, see Piece.isStraightMove and Piece.isDiagonalMove.
+ */
+public final class SlidingAttacks {
+    private static final int[][] ROOK_DIRS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+    private static final int[][] BISHOP_DIRS = {{-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+
+    private static final long[] rookMasks = new long[64], bishopMasks = new long[64];
+    // found once by random trial of sparse candidates against every blocker subset
+    private static final long[] rookMagics = {
+            0x9080004000802010L, 0x0040400020001000L, 0x1080082000801000L, 0x3080100008000480L,
+            0x0300021008010004L, 0x0100010004000208L, 0x0480010002000080L, 0x8100012A00409100L,
+            0x94018000400180A0L, 0x8001002100400081L, 0xC202801000802000L, 0x30C0801000800800L,
+            0x0002000886009020L, 0x9840800200800400L, 0x0404000241104804L, 0x0001000100004082L,
+            0x0180084000200041L, 0x0010004040002009L, 0x1000828010002002L, 0x0840808010000800L,
+            0x1478008004008008L, 0x0002008080020400L, 0x0000040001902208L, 0x4001B20000408401L,
+            0xE004842480004000L, 0xD140208500400101L, 0x0100200880100480L, 0x0010018180102800L,
+            0x4621000500380051L, 0x0006020080040080L, 0x0800100400980231L, 0x0080841A00008641L,
+            0x40E0004000808000L, 0x0310062004400040L, 0x6000481101002000L, 0x1000801000800802L,
+            0x1000080080800401L, 0x0404020080800400L, 0x2180421004000148L, 0x008441008A000044L,
+            0x0000400080008020L, 0x1000500020044004L, 0x0008204082020011L, 0x0214100008008080L,
+            0x110200A088120004L, 0x0000020004008080L, 0x4090100802040001L, 0x4003009401420029L,
+            0x8410882200410200L, 0x4051003080420200L, 0x2080110040200100L, 0x4008100048008180L,
+            0x0409000488009100L, 0x4000401004200801L, 0x4000010208500400L, 0x0408008400710200L,
+            0x0010442085020012L, 0x1000801304244202L, 0x0200420210082082L, 0xA09300A008247001L,
+            0x0002002108049002L, 0x0301000816040003L, 0x48E2004088210402L, 0x6001008100240042L
+    };
+    private static final long[] bishopMagics = {
+            0xC040100226002120L, 0x10120A0424089000L, 0x00220A104A000105L, 0x0611040485000010L,
+            0x880D104008000200L, 0x4000882008102100L, 0x0404040228440101L, 0x4110402401201040L,
+            0x000044480801042CL, 0x022C602202220420L, 0x08001020C0810028L, 0x0000240412805000L,
+            0x01400110400A4002L, 0x10480A0844240000L, 0x800404008C252002L, 0x2403828421080200L,
+            0xC012000820011401L, 0x0002001082020400L, 0x0A02001000244504L, 0x0018011082044410L,
+            0x0002018412020000L, 0x0001000480600201L, 0x00E4042100880408L, 0x1006082020840468L,
+            0x4004040010105000L, 0x0201201C05081200L, 0x0400280050009020L, 0x0902080004040408L,
+            0x1000404024010050L, 0x1021020090405008L, 0x0000840200820802L, 0x0008408002062100L,
+            0x0511246000102008L, 0x0008020820108104L, 0x0004004400285401L, 0x0002008020420200L,
+            0x8040008020820020L, 0x0882100100E20880L, 0x0804212400021080L, 0x8114088820008C00L,
+            0x0014046404204009L, 0x002400A804180802L, 0x2012140028042404L, 0x0220004204894800L,
+            0x000A04300C800400L, 0x40C0080887000122L, 0x0582041860820200L, 0x4408208082000480L,
+            0x0A0C009210108800L, 0x1412104202100010L, 0x0005090041100904L, 0x0080080042020813L,
+            0x14000010212A0082L, 0x0060C42024090484L, 0x4120200445504000L, 0x2009024400420009L,
+            0x5120210108014018L, 0x0448142218142400L, 0x0000610A00520800L, 0x0002218284208804L,
+            0x0500040021042400L, 0x0418009003104101L, 0x0182040908012400L, 0xE004040088120080L
+    };
+    private static final int[] rookShifts = new int[64], bishopShifts = new int[64];
+    private static final int[] rookOffsets = new int[64], bishopOffsets = new int[64];
+    private static final long[] rookTable, bishopTable;
+
+    static {
+        rookTable = build(ROOK_DIRS, rookMasks, rookMagics, rookShifts, rookOffsets);
+        bishopTable = build(BISHOP_DIRS, bishopMasks, bishopMagics, bishopShifts, bishopOffsets);
+    }
+
+    private SlidingAttacks() {}
+
+    /**
+     * Return true if the magic tables can be used for board.
+     * @param board current board
+     * @return true if board is 8x8.
+     */
+    public static boolean supports(Board board) {
+        return board.getNumRows() == 8 && board.getNumCols() == 8;
+    }
+
+    /**
+     * Return the squares a Rook on sq attacks, the first blocker of each ray included.
+     * @param sq the square of the Rook
+     * @param occupied mask of occupied squares
+     * @return the attacked squares.
+     */
+    public static long rookAttacks(int sq, long occupied) {
+        return rookTable[rookOffsets[sq]
+                + (int) (((occupied & rookMasks[sq]) * rookMagics[sq]) >>> rookShifts[sq])];
+    }
+
+    /**
+     * Return the squares a Bishop on sq attacks, the first blocker of each ray included.
+     * @param sq the square of the Bishop
+     * @param occupied mask of occupied squares
+     * @return the attacked squares.
+     */
+    public static long bishopAttacks(int sq, long occupied) {
+        return bishopTable[bishopOffsets[sq]
+                + (int) (((occupied & bishopMasks[sq]) * bishopMagics[sq]) >>> bishopShifts[sq])];
+    }
+
+    /**
+     * Return the squares a Queen on sq attacks, the first blocker of each ray included.
+     * @param sq the square of the Queen
+     * @param occupied mask of occupied squares
+     * @return the attacked squares.
+     */
+    public static long queenAttacks(int sq, long occupied) {
+        return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+    }
+
+    /**
+     * Walk the rays from sq one square at a time. Used to fill the tables.
+     * @param sq the square of the slider
+     * @param occupied mask of occupied squares
+     * @param dirs the directions of the slider
+     * @param edges true to leave out the last square of each ray (the relevant-occupancy mask)
+     * @return the attacked squares.
+     */
+    private static long slide(int sq, long occupied, int[][] dirs, boolean edges) {
+        long attacks = 0;
+        for (int[] d : dirs) {
+            int r = sq / 8 + d[0], c = sq % 8 + d[1];
+            while (r >= 0 && r < 8 && c >= 0 && c < 8) {
+                int nr = r + d[0], nc = c + d[1];
+                if (edges && (nr < 0 || nr >= 8 || nc < 0 || nc >= 8)) break;
+                attacks |= 1L << (r * 8 + c);
+                if ((occupied & 1L << (r * 8 + c)) != 0) break;
+                r = nr;
+                c = nc;
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Fill the attack table of a slider from its magic numbers.
+     * @param dirs the directions of the slider
+     * @param masks relevant-occupancy mask per square, filled here
+     * @param magics magic number per square
+     * @param shifts shift per square, filled here
+     * @param offsets start of each square's slice of the table, filled here
+     * @return the attack table.
+     */
+    private static long[] build(int[][] dirs, long[] masks, long[] magics, int[] shifts, int[] offsets) {
+        int size = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            masks[sq] = slide(sq, 0, dirs, true);
+            shifts[sq] = 64 - Long.bitCount(masks[sq]);
+            offsets[sq] = size;
+            size += 1 << Long.bitCount(masks[sq]);
+        }
+
+        long[] table = new long[size];
+        for (int sq = 0; sq < 64; sq++) {
+            // enumerate every subset of the mask
+            long subset = 0;
+            do {
+                int index = (int) ((subset * magics[sq]) >>> shifts[sq]);
+                table[offsets[sq] + index] = slide(sq, subset, dirs, false);
+                subset = (subset - masks[sq]) & masks[sq];
+            } while (subset != 0);
+        }
+        return table;
+    }
+}
@@ -3,7 +3,8 @@ package main;
 import main.pieces.Piece;
 
 /**
- * class to create a step for usage in undo method
+ * class to create a step for usage in undo method.
+ * Chess no longer uses it: moves are taken back with Board.makeMove and Board.unmakeMove.
  */
 public class Step {
     public Piece activePiece;
@@ -0,0 +1,105 @@
+package main;
+
+import main.pieces.Pawn;
+import main.pieces.Piece;
+
+import java.util.HashMap;
+
+/**
+ * Zobrist keys for hashing positions, shared by every Board with the same number of squares.
+ * A position hash is the XOR of the keys of its pieces, one more key per Pawn that hasn't
+ * moved yet, and SIDE when 'B' is to move. Keys are derived from their index with SplitMix64,
+ * so the hash of a position is the same in every run.
+ */
+public final class Zobrist {
+    /** Key XORed in when 'B' is to move. */
+    public static final long SIDE = mix(0x5EEDL);
+
+    // Pawns moving down and up hash differently, so pawn kinds take one extra slot
+    private static final int KINDS = Piece.NUM_TYPES + 1;
+    private static final HashMap<Integer, Zobrist> cache = new HashMap<>();
+
+    private final int numSquares;
+    private final long[] pieceKeys;
+    private final long[] firstMoveKeys;
+
+    /**
+     * Return the keys for boards of numSquares squares, building them on first use.
+     * @param numSquares number of squares of the board
+     * @return the shared keys.
+     */
+    public static Zobrist get(int numSquares) {
+        synchronized (cache) {
+            Zobrist keys = cache.get(numSquares);
+            if (keys == null) {
+                keys = new Zobrist(numSquares);
+                cache.put(numSquares, keys);
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Build the keys for boards of numSquares squares.
+     * @param numSquares number of squares of the board
+     */
+    private Zobrist(int numSquares) {
+        this.numSquares = numSquares;
+        pieceKeys = new long[2 * KINDS * numSquares];
+        firstMoveKeys = new long[2 * numSquares];
+        for (int i = 0; i < pieceKeys.length; i++) pieceKeys[i] = mix(i + 1);
+        for (int i = 0; i < firstMoveKeys.length; i++) firstMoveKeys[i] = mix(-(i + 1));
+    }
+
+    /**
+     * SplitMix64 finaliser, spreading the bits of x over the whole long.
+     * @param x the value to mix
+     * @return the mixed value.
+     */
+    public static long mix(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    /**
+     * Return the key of p standing on square sq, including its first-move key if p is an unmoved Pawn.
+     * @param p the piece
+     * @param sq the square, r * numCols + c
+     * @return the key.
+     */
+    public long keyOf(Piece p, int sq) {
+        int type = p.getTypeId(), player = p.getPlayerIndex();
+        if (type != Piece.PAWN) return pieceKeys[(player * KINDS + type) * numSquares + sq];
+
+        Pawn pawn = (Pawn) p;
+        return keyOf(type, player, pawn.isGoingDown(), pawn.isFirstMove(), sq);
+    }
+
+    /**
+     * Return the key of a piece given by its fields, equal to keyOf(p, sq) for the piece p they describe.
+     * @param type the type id of the piece, e.g. Piece.PAWN
+     * @param player index of the player, 0 for 'W' and 1 for 'B'
+     * @param goingDown true if the piece is a Pawn moving down
+     * @param firstMove true if the piece is a Pawn that hasn't moved yet
+     * @param sq the square, r * numCols + c
+     * @return the key.
+     */
+    public long keyOf(int type, int player, boolean goingDown, boolean firstMove, int sq) {
+        if (type == Piece.PAWN && goingDown) type = Piece.NUM_TYPES;
+        long key = pieceKeys[(player * KINDS + type) * numSquares + sq];
+        if (firstMove) key ^= firstMoveKeys[player * numSquares + sq];
+        return key;
+    }
+
+    /**
+     * Return the key toggled when the Pawn of player on square sq makes its first move.
+     * @param player index of the player, 0 for 'W' and 1 for 'B'
+     * @param sq the square, r * numCols + c
+     * @return the key.
+     */
+    public long firstMoveKey(int player, int sq) {
+        return firstMoveKeys[player * numSquares + sq];
+    }
+}
@@ -0,0 +1,59 @@
+package main.archive;
+
+import main.Move;
+
+/**
+ * Layout of the binary game archive written by GameArchiveWriter and read by
+ * GameArchiveReader. All numbers are big-endian.
+ *
+ * The file starts with MAGIC and VERSION (4 bytes each), followed by the games one after
+ * another. A game is an 8-byte header and then its moves:
+ *   byte  flags       WHITE_FIRST, WHITE_LOWER and CUSTOM_PIECES, the setup of Chess.setGame
+ *   byte  rows        rows of the board
+ *   byte  cols        columns of the board
+ *   byte  result      UNFINISHED, WHITE_WINS, BLACK_WINS or DRAW
+ *   int   count       number of moves
+ *   short[count]      the moves, from square in the high byte and to square in the low byte,
+ *                     a square being row * cols + col
+ * so boards of up to 256 squares can be archived, and a game of 80 moves takes 168 bytes.
+ * The file is only ever appended to; a game cut short by a crash is ignored by the reader.
+ */
+public final class GameArchive {
+    /** "CHGA", the first four bytes of an archive. */
+    public static final int MAGIC = 0x43484741;
+    /** Version of the layout. */
+    public static final int VERSION = 1;
+    /** Bytes of the file header and of a game header. */
+    public static final int FILE_HEADER = 8, GAME_HEADER = 8;
+    /** Bits of the flags byte. */
+    public static final int WHITE_FIRST = 1, WHITE_LOWER = 2, CUSTOM_PIECES = 4;
+    /** Results of a game. */
+    public static final int UNFINISHED = 0, WHITE_WINS = 1, BLACK_WINS = 2, DRAW = 3;
+    /** Largest number of squares a move can address. */
+    public static final int MAX_SQUARES = 256;
+
+    private GameArchive() {}
+
+    /**
+     * Pack a move into 16 bits.
+     * @param move the packed move, see Move
+     * @param cols columns of the board
+     * @return the move as an unsigned short.
+     */
+    public static int encode(int move, int cols) {
+        int from = Move.getFromRow(move) * cols + Move.getFromCol(move);
+        int to = Move.getToRow(move) * cols + Move.getToCol(move);
+        return from << 8 | to;
+    }
+
+    /**
+     * Unpack a move packed by encode.
+     * @param packed the move as an unsigned short
+     * @param cols columns of the board
+     * @return the packed move, see Move.
+     */
+    public static int decode(int packed, int cols) {
+        int from = packed >>> 8 & 0xFF, to = packed & 0xFF;
+        return Move.encode(from / cols, from % cols, to / cols, to % cols);
+    }
+}
@@ -0,0 +1,230 @@
+package main.archive;
+
+import main.Board;
+import main.Chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a game archive through a read-only memory mapping. The reader is a cursor: next
+ * moves it to the following game, whose setup and moves are then read straight from the
+ * mapping, so scanning or replaying any number of games parses no text and allocates
+ * nothing per move. Archives are mapped whole and so must be smaller than 2GB.
+ * Not safe for use by several threads; open one reader per thread instead.
+ *
+ * Usage: java main.archive.GameArchiveReader archive [replay] prints the number of games,
+ * moves and results, and how fast the archive was scanned or replayed.
+ */
+public class GameArchiveReader implements Closeable {
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private int next = GameArchive.FILE_HEADER;
+    private int moves, flags, rows, cols, result, count;
+
+    /**
+     * Map an archive.
+     * @param path the archive file
+     * @throws IOException if the file can't be read or isn't a game archive
+     */
+    public GameArchiveReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Archive larger than 2GB: " + path);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < GameArchive.FILE_HEADER || map.getInt(0) != GameArchive.MAGIC) {
+                throw new IOException("Not a game archive: " + path);
+            }
+            if (map.getInt(4) != GameArchive.VERSION) {
+                throw new IOException("Unsupported archive version " + map.getInt(4) + ": " + path);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Move to the next game.
+     * @return false if there are no more complete games.
+     */
+    public boolean next() {
+        int start = next;
+        if (map.limit() - start < GameArchive.GAME_HEADER) return false;
+        int n = map.getInt(start + 4);
+        if (n < 0 || (map.limit() - start - GameArchive.GAME_HEADER) / 2 < n) return false;
+        flags = map.get(start);
+        rows = map.get(start + 1) & 0xFF;
+        cols = map.get(start + 2) & 0xFF;
+        result = map.get(start + 3);
+        count = n;
+        moves = start + GameArchive.GAME_HEADER;
+        next = moves + 2 * n;
+        return true;
+    }
+
+    /**
+     * Go back to before the first game.
+     */
+    public void rewind() {
+        next = GameArchive.FILE_HEADER;
+        count = 0;
+    }
+
+    /**
+     * Return the offset just after the last game read, where the next one starts.
+     * @return the offset in the file.
+     */
+    public long getEnd() {
+        return next;
+    }
+
+    /**
+     * Return true if 'W' moved first in the current game.
+     * @return true if 'W' is the first player.
+     */
+    public boolean isWFirstPlayer() {
+        return (flags & GameArchive.WHITE_FIRST) != 0;
+    }
+
+    /**
+     * Return true if 'W' was placed at the lower side in the current game.
+     * @return true if 'W' is the lower player.
+     */
+    public boolean isWLowerPlayer() {
+        return (flags & GameArchive.WHITE_LOWER) != 0;
+    }
+
+    /**
+     * Return true if the current game was played with the Tank and Soldier setup.
+     * @return true if some pawns were replaced by custom pieces.
+     */
+    public boolean usesCustomPieces() {
+        return (flags & GameArchive.CUSTOM_PIECES) != 0;
+    }
+
+    /**
+     * Return the number of rows of the board of the current game.
+     * @return number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Return the number of columns of the board of the current game.
+     * @return number of columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Return the result of the current game.
+     * @return one of the results in GameArchive.
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Return the number of moves of the current game.
+     * @return number of moves.
+     */
+    public int getMoveCount() {
+        return count;
+    }
+
+    /**
+     * Return a move of the current game.
+     * @param ply index of the move, from 0 to getMoveCount() - 1
+     * @return the packed move, see main.Move.
+     */
+    public int getMove(int ply) {
+        if (ply < 0 || ply >= count) throw new IndexOutOfBoundsException("No move at ply " + ply);
+        return GameArchive.decode(map.getShort(moves + 2 * ply) & 0xFFFF, cols);
+    }
+
+    /**
+     * Create the game the current game started from.
+     * @return a new game with the archived setup.
+     */
+    public Chess newGame() {
+        return new Chess(isWFirstPlayer(), isWLowerPlayer(), rows, cols, "White", "Black", usesCustomPieces());
+    }
+
+    /**
+     * Play every move of the current game on game, which should be in its starting position.
+     * @param game the game, e.g. from newGame()
+     * @return number of moves played.
+     */
+    public int replay(Chess game) {
+        return replay(game, count);
+    }
+
+    /**
+     * Play the first moves of the current game on game, which should be in its starting
+     * position. The moves were legal when archived and aren't checked again.
+     * @param game the game, e.g. from newGame()
+     * @param plies number of moves to play
+     * @return number of moves played.
+     */
+    public int replay(Chess game, int plies) {
+        Board board = game.getBoard();
+        int n = Math.min(plies, count);
+        for (int i = 0; i < n; i++) board.makeMove(getMove(i));
+        if (n > 0) game.setCurPlayer(board.getSideToMove());
+        return n;
+    }
+
+    /**
+     * Close the file. The mapping itself is released when the reader is garbage collected.
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Scan an archive, or replay every game of it, and print what it holds.
+     * @param args the archive, then "replay" to replay the games on a board
+     * @throws IOException if the archive can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java main.archive.GameArchiveReader archive [replay]");
+            return;
+        }
+        boolean replay = args.length > 1 && args[1].equals("replay");
+        long games = 0, moves = 0, checksum = 0;
+        long[] results = new long[4];
+        long start = System.nanoTime();
+        try (GameArchiveReader reader = new GameArchiveReader(Paths.get(args[0]))) {
+            while (reader.next()) {
+                games++;
+                results[reader.getResult() & 3]++;
+                if (replay) {
+                    Chess game = reader.newGame();
+                    moves += reader.replay(game);
+                    checksum ^= game.getBoard().hash();
+                } else {
+                    for (int i = 0; i < reader.getMoveCount(); i++) checksum += reader.getMove(i);
+                    moves += reader.getMoveCount();
+                }
+            }
+        }
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games, %d moves (checksum %x)%n", games, moves, checksum);
+        System.out.printf("unfinished %d, white wins %d, black wins %d, draws %d%n",
+                results[GameArchive.UNFINISHED], results[GameArchive.WHITE_WINS],
+                results[GameArchive.BLACK_WINS], results[GameArchive.DRAW]);
+        System.out.printf("%s in %.3f s: %.0f games/s, %.0f moves/s%n", replay ? "Replayed" : "Scanned",
+                seconds, games / seconds, moves / seconds);
+    }
+}
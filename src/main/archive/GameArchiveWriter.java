@@ -0,0 +1,151 @@
+package main.archive;
+
+import main.Board;
+import main.Chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends games to a game archive, creating the file if needed. Each game is written with
+ * a single write at the end of the file, so a crash can only cut the last game short; such
+ * a game is dropped when the archive is opened again. Safe for use by several threads.
+ *
+ * An archive has a single writer: while it is open, the file "archive.lock" next to the
+ * archive is locked, and another writer on the same archive, in this process or another
+ * one, fails to open instead of overwriting its games. The archive itself isn't locked,
+ * because closing any channel on a file, such as a reader's, drops the locks of the process.
+ */
+public class GameArchiveWriter implements Closeable {
+    private final FileChannel channel, lockChannel;
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private long games;
+
+    /**
+     * Open an archive for appending.
+     * @param path the archive file, created if missing
+     * @throws IOException if the file can't be written, isn't a game archive or has another writer
+     */
+    public GameArchiveWriter(Path path) throws IOException {
+        lockChannel = lock(path.resolveSibling(path.getFileName() + ".lock"));
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        try {
+            if (channel.size() == 0) {
+                buffer.putInt(GameArchive.MAGIC).putInt(GameArchive.VERSION).flip();
+                write();
+            } else {
+                long end;
+                try (GameArchiveReader reader = new GameArchiveReader(path)) {
+                    while (reader.next()) games++;
+                    end = reader.getEnd();
+                }
+                if (end < channel.size()) channel.truncate(end);
+            }
+            channel.position(channel.size());
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open and lock the lock file of an archive.
+     * @param lockPath the lock file, created if missing
+     * @return the channel holding the lock, released when it is closed.
+     * @throws IOException if the lock file can't be opened or another writer holds it
+     */
+    private static FileChannel lock(Path lockPath) throws IOException {
+        FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Game archive is in use by another writer: " + lockPath);
+        }
+        return lockChannel;
+    }
+
+    /**
+     * Return the number of games in the archive.
+     * @return number of games.
+     */
+    public synchronized long getGameCount() {
+        return games;
+    }
+
+    /**
+     * Append the moves game has made so far, from the setup it started with.
+     * @param game the game, started from the setup (see Chess.isFromSetup)
+     * @param result one of the results in GameArchive
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void append(Chess game, int result) throws IOException {
+        if (!game.isFromSetup()) throw new IllegalArgumentException("Only games played from the setup can be archived");
+        Board board = game.getBoard();
+        int rows = board.getNumRows(), cols = board.getNumCols(), count = board.getUndoSize();
+        if (rows * cols > GameArchive.MAX_SQUARES) {
+            throw new IllegalArgumentException("Archives hold boards of at most "
+                    + GameArchive.MAX_SQUARES + " squares, got " + rows + "x" + cols);
+        }
+        int size = GameArchive.GAME_HEADER + 2 * count;
+        if (buffer.capacity() < size) buffer = ByteBuffer.allocate(Math.max(size, 2 * buffer.capacity()));
+
+        int flags = (game.isWFirstPlayer() ? GameArchive.WHITE_FIRST : 0)
+                | (game.isWLowerPlayer() ? GameArchive.WHITE_LOWER : 0)
+                | (game.usesCustomPieces() ? GameArchive.CUSTOM_PIECES : 0);
+        buffer.put((byte) flags).put((byte) rows).put((byte) cols).put((byte) result).putInt(count);
+        for (int i = 0; i < count; i++) buffer.putShort((short) GameArchive.encode(board.getMoveAt(i), cols));
+        buffer.flip();
+        long start = channel.position();
+        try {
+            write();
+        } catch (IOException e) {
+            // don't leave half a game for the next one to be appended after
+            channel.truncate(start);
+            throw e;
+        }
+        games++;
+    }
+
+    /**
+     * Write the buffer out and clear it.
+     * @throws IOException if the file can't be written
+     */
+    private void write() throws IOException {
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Close the file and release the lock.
+     * @throws IOException if the file can't be closed
+     */
+    public synchronized void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            lockChannel.close();
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package main.batch;
+
+import main.Board;
+import main.Chess;
+import main.Move;
+import main.archive.GameArchive;
+import main.archive.GameArchiveWriter;
+import main.notation.Fen;
+import main.notation.MoveParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+
+/**
+ * Plays scripts of commands against any number of games without a terminal. Nothing is
+ * ever asked: a game that ends, by checkmate, stalemate, forfeit or restart, is recorded
+ * and started again from the same setup, so a script runs at the speed of the moves.
+ *
+ * A script has one command per line; blank lines and lines starting with '#' are skipped.
+ *   game ID [standard|custom|fen FEN]   play the following commands in game ID, created
+ *                                       from the given setup (standard by default) if new
+ *   r c r c, e2e4, Nf3, ...             a move of the player to move, as four integers
+ *                                       or in algebraic notation, see MoveParser
+ *   undo                                take back the last move
+ *   forfeit                             the player to move loses
+ *   restart                             the game is drawn and starts again
+ *   fen                                 report the position
+ * Commands before the first "game" go to game "1".
+ *
+ * Every command is answered by one JSON object per line, e.g.
+ *   {"script":"a.txt","line":3,"game":"1","command":"e4","status":"ok","ply":1}
+ * where status is "ok", "checkmate", "stalemate", "forfeit" (with the "winner"),
+ * "restart" or "error" (with the "error"); "fen" adds the position. A last object sums up
+ * the run.
+ *
+ * Usage: java main.batch.BatchRunner [-a archive] [script ...] reads the scripts, or the
+ * standard input if there are none, and writes to the standard output.
+ */
+public class BatchRunner {
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(256);
+    private final MoveParser parser = new MoveParser();
+    private final HashMap<String, Game> games = new HashMap<>();
+    private GameArchiveWriter archive;
+    private Game current;
+    private String script = "-";
+    private long lineNumber, commands, errors, whiteWins, blackWins, draws;
+
+    /**
+     * Create a runner.
+     * @param out where the results are written, best buffered
+     */
+    public BatchRunner(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Set where ended games are saved.
+     * @param archive the archive, null to save nothing
+     */
+    public void setArchive(GameArchiveWriter archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Run every command of a script.
+     * @param name name of the script in the results
+     * @param in the script
+     * @throws IOException if the script can't be read or the results written
+     */
+    public void run(String name, BufferedReader in) throws IOException {
+        script = name;
+        lineNumber = 0;
+        String command;
+        while ((command = in.readLine()) != null) {
+            lineNumber++;
+            execute(command.trim());
+        }
+    }
+
+    /**
+     * Run one command.
+     * @param command the command, without surrounding white space
+     * @throws IOException if the result can't be written
+     */
+    public void execute(String command) throws IOException {
+        if (command.isEmpty() || command.charAt(0) == '#') return;
+        commands++;
+        if (command.startsWith("game ") || command.equals("game")) {
+            selectGame(command);
+            return;
+        }
+        if (current == null) current = newGame("1", "standard");
+        Chess chess = current.chess;
+        Board board = chess.getBoard();
+
+        if (command.equals("undo")) {
+            if (!chess.undo()) {
+                error(command, "no move to take back");
+                return;
+            }
+            result(command, "ok").append(",\"ply\":").append(board.getUndoSize());
+        } else if (command.equals("forfeit")) {
+            char winner = chess.getCurPlayer() == 'W' ? 'B' : 'W';
+            end(winner == 'W' ? GameArchive.WHITE_WINS : GameArchive.BLACK_WINS);
+            result(command, "forfeit").append(",\"winner\":\"").append(winner).append('"');
+        } else if (command.equals("restart")) {
+            end(GameArchive.DRAW);
+            result(command, "restart");
+        } else if (command.equals("fen")) {
+            appendString(result(command, "ok").append(",\"fen\":"), Fen.write(chess));
+        } else {
+            move(command, chess, board);
+            return;
+        }
+        send();
+    }
+
+    /**
+     * Play a move of the player to move.
+     * @param command the move
+     * @param chess the current game
+     * @param board its board
+     * @throws IOException if the result can't be written
+     */
+    private void move(String command, Chess chess, Board board) throws IOException {
+        int move = parser.parse(board, command);
+        if (move < 0) {
+            error(command, "unknown command or illegal move");
+            return;
+        }
+        int result = board.isValidLocation(Move.getFromRow(move), Move.getFromCol(move))
+                && board.isValidLocation(Move.getToRow(move), Move.getToCol(move)) ? chess.play(move) : Chess.ILLEGAL_MOVE;
+        if (result == Chess.ILLEGAL_MOVE) {
+            error(command, "illegal move");
+            return;
+        }
+        if (result == Chess.IN_PROGRESS) {
+            result(command, "ok").append(",\"ply\":").append(board.getUndoSize());
+        } else if (result == Chess.CHECKMATE) {
+            char winner = chess.getCurPlayer() == 'W' ? 'B' : 'W';
+            result(command, "checkmate").append(",\"ply\":").append(board.getUndoSize())
+                    .append(",\"winner\":\"").append(winner).append('"');
+            end(winner == 'W' ? GameArchive.WHITE_WINS : GameArchive.BLACK_WINS);
+        } else {
+            result(command, "stalemate").append(",\"ply\":").append(board.getUndoSize());
+            end(GameArchive.DRAW);
+        }
+        send();
+    }
+
+    /**
+     * Switch to a game, creating it if it is new.
+     * @param command "game ID [standard|custom|fen FEN]"
+     * @throws IOException if the result can't be written
+     */
+    private void selectGame(String command) throws IOException {
+        int idEnd = command.indexOf(' ', 5);
+        String id = (idEnd < 0 ? command.substring(Math.min(5, command.length())) : command.substring(5, idEnd)).trim();
+        String setup = idEnd < 0 ? "standard" : command.substring(idEnd + 1).trim();
+        if (id.isEmpty()) {
+            error(command, "missing game id");
+            return;
+        }
+        Game game = games.get(id);
+        if (game == null) {
+            try {
+                game = newGame(id, setup);
+            } catch (IllegalArgumentException e) {
+                error(command, e.getMessage());
+                return;
+            }
+        }
+        current = game;
+        send(result(command, "ok"));
+    }
+
+    /**
+     * Create a game and remember it.
+     * @param id the game id
+     * @param setup "standard", "custom" or "fen" followed by a FEN
+     * @return the game.
+     * @throws IllegalArgumentException if the setup isn't one of those
+     */
+    private Game newGame(String id, String setup) {
+        Game game = new Game(id, setup);
+        games.put(id, game);
+        return game;
+    }
+
+    /**
+     * Record the end of the current game and start it again from its setup.
+     * @param result the result, see GameArchive
+     * @throws IOException if the game can't be archived
+     */
+    private void end(int result) throws IOException {
+        if (result == GameArchive.WHITE_WINS) whiteWins++;
+        else if (result == GameArchive.BLACK_WINS) blackWins++;
+        else draws++;
+        if (archive != null && current.chess.isFromSetup()) archive.append(current.chess, result);
+        current.chess = current.start();
+    }
+
+    /**
+     * Start the result line of a command.
+     * @param command the command
+     * @param status its status
+     * @return the line, to add fields to.
+     */
+    private StringBuilder result(String command, String status) {
+        line.setLength(0);
+        appendString(line.append("{\"script\":"), script);
+        line.append(",\"line\":").append(lineNumber);
+        if (current != null) appendString(line.append(",\"game\":"), current.id);
+        appendString(line.append(",\"command\":"), command);
+        return line.append(",\"status\":\"").append(status).append('"');
+    }
+
+    /**
+     * Write the result line of a command that failed.
+     * @param command the command
+     * @param message what went wrong
+     * @throws IOException if the line can't be written
+     */
+    private void error(String command, String message) throws IOException {
+        errors++;
+        appendString(result(command, "error").append(",\"error\":"), message);
+        send();
+    }
+
+    /**
+     * Finish and write the result line.
+     * @throws IOException if the line can't be written
+     */
+    private void send() throws IOException {
+        send(line);
+    }
+
+    /**
+     * Finish and write a result line.
+     * @param text the line without its closing brace
+     * @throws IOException if the line can't be written
+     */
+    private void send(StringBuilder text) throws IOException {
+        text.append("}\n");
+        out.append(text);
+    }
+
+    /**
+     * Write the line summing up the run and flush the output.
+     * @param seconds time the run took
+     * @throws IOException if the line can't be written
+     */
+    public void finish(double seconds) throws IOException {
+        line.setLength(0);
+        line.append("{\"summary\":true,\"commands\":").append(commands).append(",\"errors\":").append(errors)
+                .append(",\"games\":").append(games.size()).append(",\"whiteWins\":").append(whiteWins)
+                .append(",\"blackWins\":").append(blackWins).append(",\"draws\":").append(draws)
+                .append(",\"seconds\":").append(seconds);
+        send();
+        out.flush();
+    }
+
+    /**
+     * Return the number of commands run, comments and blank lines excluded.
+     * @return number of commands.
+     */
+    public long getCommands() {
+        return commands;
+    }
+
+    /**
+     * Return the number of commands that failed.
+     * @return number of errors.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Append text as a JSON string.
+     * @param out where to append it
+     * @param text the text
+     */
+    static void appendString(StringBuilder out, String text) {
+        out.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '"' || ch == '\\') out.append('\\').append(ch);
+            else if (ch < ' ') out.append(String.format("\\u%04x", (int) ch));
+            else out.append(ch);
+        }
+        out.append('"');
+    }
+
+    /**
+     * A game of a script and the setup it starts again from.
+     */
+    private static final class Game {
+        final String id, setup;
+        Chess chess;
+
+        /**
+         * Create a game.
+         * @param id the game id
+         * @param setup "standard", "custom" or "fen" followed by a FEN
+         * @throws IllegalArgumentException if the setup isn't one of those
+         */
+        Game(String id, String setup) {
+            this.id = id;
+            this.setup = setup;
+            chess = start();
+        }
+
+        /**
+         * Return a new game from the setup.
+         * @return the game.
+         */
+        Chess start() {
+            if (setup.equals("standard")) return new Chess();
+            if (setup.equals("custom")) return new Chess(true, true, 8, 8, "White", "Black", true);
+            if (setup.startsWith("fen ")) return Fen.read(setup.substring(4).trim());
+            throw new IllegalArgumentException("Unknown setup " + setup);
+        }
+    }
+
+    /**
+     * Run scripts and write the results to the standard output.
+     * @param args optionally "-a" and an archive to save ended games to, then the scripts;
+     *             the standard input if there are none
+     * @throws IOException if a script can't be read or the archive written
+     */
+    public static void main(String[] args) throws IOException {
+        int first = 0;
+        GameArchiveWriter archive = null;
+        if (args.length >= 2 && args[0].equals("-a")) {
+            archive = new GameArchiveWriter(Paths.get(args[1]));
+            first = 2;
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        BatchRunner runner = new BatchRunner(out);
+        runner.setArchive(archive);
+        long start = System.nanoTime();
+        try {
+            if (first == args.length) {
+                runner.run("-", new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16));
+            }
+            for (int i = first; i < args.length; i++) {
+                try (BufferedReader in = Files.newBufferedReader(Paths.get(args[i]), StandardCharsets.UTF_8)) {
+                    runner.run(args[i], in);
+                }
+            }
+            runner.finish((System.nanoTime() - start) / 1e9);
+        } finally {
+            if (archive != null) archive.close();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package main.book;
+
+import main.Board;
+import main.Chess;
+import main.Zobrist;
+import main.archive.GameArchive;
+import main.archive.GameArchiveReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds an OpeningBook from a game archive. Every decided game is replayed up to
+ * maxPlies, and each position and move it passes through is counted as a win, draw or
+ * loss of the player making the move. Unfinished games are skipped.
+ *
+ * The work is split over threads twice. First each thread replays every threads-th game
+ * on its own reader and counts into its own tables, one per SHARDS range of keys. Then
+ * each shard is merged over the threads, sorted and written on its own, the ranges
+ * being in key order, so no step of the build is single threaded but the final write.
+ *
+ * Usage: java main.book.BookBuilder archive book [maxPlies] [minGames] [threads]
+ */
+public class BookBuilder {
+    /** Number of key ranges the entries are split into. */
+    public static final int SHARDS = 64;
+
+    private final int maxPlies, minGames, threads;
+
+    /**
+     * Create a builder.
+     * @param maxPlies moves of each game counted
+     * @param minGames fewest games a move must be played in to be kept
+     * @param threads number of threads
+     */
+    public BookBuilder(int maxPlies, int minGames, int threads) {
+        this.maxPlies = maxPlies;
+        this.minGames = Math.max(1, minGames);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Build a book from the games of an archive.
+     * @param archive the game archive
+     * @param book the book file, replaced if it exists
+     * @return number of entries written.
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public long build(Path archive, Path book) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Counts[]>> counted = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                counted.add(pool.submit(() -> count(archive, first)));
+            }
+            Counts[][] perThread = new Counts[threads][];
+            for (int t = 0; t < threads; t++) perThread[t] = get(counted.get(t));
+
+            List<Future<Counts>> merged = new ArrayList<>();
+            for (int s = 0; s < SHARDS; s++) {
+                int shard = s;
+                merged.add(pool.submit(() -> merge(perThread, shard)));
+            }
+
+            long entries = 0;
+            try (FileChannel out = FileChannel.open(book, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.ENTRY * 4096);
+                buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION);
+                for (int s = 0; s < SHARDS; s++) {
+                    Counts shard = get(merged.get(s));
+                    merged.set(s, null);
+                    for (int i = 0; i < shard.size; i++) {
+                        if (buffer.remaining() < OpeningBook.ENTRY) write(out, buffer);
+                        buffer.putLong(shard.keys[i]).putInt(shard.moves[i]).putInt(shard.wins[i])
+                                .putInt(shard.draws[i]).putInt(shard.losses[i]);
+                    }
+                    entries += shard.size;
+                }
+                write(out, buffer);
+            }
+            return entries;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Count the games first, first + threads, ... of an archive, one table per shard.
+     * @param archive the game archive
+     * @param first index of the first game
+     * @return the tables.
+     * @throws IOException if the archive can't be read
+     */
+    private Counts[] count(Path archive, int first) throws IOException {
+        Counts[] counts = new Counts[SHARDS];
+        for (int s = 0; s < SHARDS; s++) counts[s] = new Counts(64);
+        try (GameArchiveReader reader = new GameArchiveReader(archive)) {
+            for (long game = 0; reader.next(); game++) {
+                int result = reader.getResult();
+                if (game % threads != first || result == GameArchive.UNFINISHED) continue;
+                Chess chess = reader.newGame();
+                Board board = chess.getBoard();
+                int plies = Math.min(maxPlies, reader.getMoveCount());
+                for (int ply = 0; ply < plies; ply++) {
+                    int move = reader.getMove(ply);
+                    long key = board.hash();
+                    boolean white = board.getSideToMove() == 'W';
+                    int w = 0, d = 0, l = 0;
+                    if (result == GameArchive.DRAW) d = 1;
+                    else if ((result == GameArchive.WHITE_WINS) == white) w = 1;
+                    else l = 1;
+                    counts[shard(key)].add(key, move, w, d, l);
+                    board.makeMove(move);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Merge the tables of a shard over the threads, drop rare moves and sort the rest.
+     * @param perThread the tables of each thread
+     * @param shard the shard
+     * @return the entries of the shard, sorted by key then move.
+     */
+    private Counts merge(Counts[][] perThread, int shard) {
+        Counts merged = perThread[0][shard];
+        for (int t = 1; t < perThread.length; t++) {
+            Counts other = perThread[t][shard];
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.moves[i] != 0) {
+                    merged.add(other.keys[i], other.moves[i], other.wins[i], other.draws[i], other.losses[i]);
+                }
+            }
+            perThread[t][shard] = null;
+        }
+        return merged.sorted(minGames);
+    }
+
+    /**
+     * Return the shard of a key. Shards are ranges of keys in signed order.
+     * @param key the key
+     * @return the shard, from 0 to SHARDS - 1.
+     */
+    static int shard(long key) {
+        return (int) ((key ^ Long.MIN_VALUE) >>> 58);
+    }
+
+    /**
+     * Wait for a task and rethrow its failure.
+     * @param future the task
+     * @param <T> its result type
+     * @return its result.
+     * @throws IOException if the task failed with one
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Write out a buffer and clear it.
+     * @param out the file
+     * @param buffer the buffer, in write mode
+     * @throws IOException if the file can't be written
+     */
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) out.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Win, draw and loss counts of position and move pairs: an open addressing hash table
+     * of parallel arrays while counting, and the sorted entries afterwards.
+     */
+    private static final class Counts {
+        long[] keys;
+        int[] moves, wins, draws, losses;
+        int size;
+
+        /**
+         * Create an empty table.
+         * @param capacity number of slots, a power of two
+         */
+        Counts(int capacity) {
+            keys = new long[capacity];
+            moves = new int[capacity];
+            wins = new int[capacity];
+            draws = new int[capacity];
+            losses = new int[capacity];
+        }
+
+        /**
+         * Add games to the counts of a position and move. Move 0 marks an empty slot.
+         * @param key the position hash
+         * @param move the packed move
+         * @param w games won
+         * @param d games drawn
+         * @param l games lost
+         */
+        void add(long key, int move, int w, int d, int l) {
+            if (2 * (size + 1) > keys.length) grow();
+            int mask = keys.length - 1;
+            int i = (int) (Zobrist.mix(key ^ move) & mask);
+            while (moves[i] != 0 && (keys[i] != key || moves[i] != move)) i = (i + 1) & mask;
+            if (moves[i] == 0) {
+                keys[i] = key;
+                moves[i] = move;
+                size++;
+            }
+            wins[i] += w;
+            draws[i] += d;
+            losses[i] += l;
+        }
+
+        /**
+         * Double the number of slots.
+         */
+        private void grow() {
+            Counts bigger = new Counts(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (moves[i] != 0) bigger.add(keys[i], moves[i], wins[i], draws[i], losses[i]);
+            }
+            keys = bigger.keys;
+            moves = bigger.moves;
+            wins = bigger.wins;
+            draws = bigger.draws;
+            losses = bigger.losses;
+        }
+
+        /**
+         * Return the entries played in at least minGames games, sorted by key then move.
+         * @param minGames fewest games of an entry
+         * @return a table whose first size slots are the sorted entries.
+         */
+        Counts sorted(int minGames) {
+            int n = 0;
+            int[] order = new int[size];
+            for (int i = 0; i < keys.length; i++) {
+                if (moves[i] != 0 && wins[i] + draws[i] + losses[i] >= minGames) order[n++] = i;
+            }
+            int[] scratch = new int[n];
+            sort(order, scratch, 0, n);
+            Counts out = new Counts(Math.max(1, n));
+            for (int j = 0; j < n; j++) {
+                int i = order[j];
+                out.keys[j] = keys[i];
+                out.moves[j] = moves[i];
+                out.wins[j] = wins[i];
+                out.draws[j] = draws[i];
+                out.losses[j] = losses[i];
+            }
+            out.size = n;
+            return out;
+        }
+
+        /**
+         * Merge sort slot indexes from lo (inclusive) to hi (exclusive) by key then move.
+         * @param order the slot indexes
+         * @param scratch space of the same length
+         * @param lo first index
+         * @param hi index after the last
+         */
+        private void sort(int[] order, int[] scratch, int lo, int hi) {
+            if (hi - lo < 2) return;
+            int mid = (lo + hi) >>> 1;
+            sort(order, scratch, lo, mid);
+            sort(order, scratch, mid, hi);
+            System.arraycopy(order, lo, scratch, lo, hi - lo);
+            for (int k = lo, a = lo, b = mid; k < hi; k++) {
+                if (b >= hi || a < mid && !less(scratch[b], scratch[a])) order[k] = scratch[a++];
+                else order[k] = scratch[b++];
+            }
+        }
+
+        /**
+         * Return true if slot i sorts before slot j.
+         * @param i a slot
+         * @param j another slot
+         * @return true if i comes first.
+         */
+        private boolean less(int i, int j) {
+            if (keys[i] != keys[j]) return keys[i] < keys[j];
+            return moves[i] < moves[j];
+        }
+    }
+
+    /**
+     * Build a book and print how long it took.
+     * @param args the game archive, the book, then optionally the moves counted per game
+     *             (default 16), the fewest games a move needs (default 2) and the number of
+     *             threads (default the number of cores)
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: java main.book.BookBuilder archive book [maxPlies] [minGames] [threads]");
+            return;
+        }
+        int maxPlies = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int minGames = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        long entries = new BookBuilder(maxPlies, minGames, threads).build(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.printf("%d entries written to %s in %.3f s on %d threads%n", entries, args[1],
+                (System.nanoTime() - start) / 1e9, threads);
+    }
+}
@@ -0,0 +1,241 @@
+package main.book;
+
+import main.Board;
+import main.Chess;
+import main.Move;
+import main.notation.Fen;
+import main.notation.San;
+import main.pieces.Piece;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Opening book built by BookBuilder, read through a read-only memory mapping.
+ * All numbers are big-endian. The file starts with MAGIC and VERSION (4 bytes each),
+ * followed by ENTRY-byte entries sorted by position hash, then by move:
+ *   long  key      Board.hash() of the position before the move
+ *   int   move     the packed move, see Move
+ *   int   wins     games the player making the move went on to win
+ *   int   draws    games drawn
+ *   int   losses   games lost
+ * the wins, draws and losses of Chess.scores, counted from the point of view of the mover.
+ *
+ * Probes binary search the mapping and allocate nothing. Entries are read by index, so a
+ * probe returns the index of the first entry of a position, followed by its other moves.
+ * Not safe for use by several threads; open one book per thread instead.
+ *
+ * Usage: java main.book.OpeningBook book [fen] prints the book moves of a position, the
+ * start position by default, and how long a probe takes.
+ */
+public class OpeningBook implements Closeable {
+    /** "CHBK", the first four bytes of a book. */
+    public static final int MAGIC = 0x4348424B;
+    /** Version of the layout. */
+    public static final int VERSION = 1;
+    /** Bytes of the file header and of an entry. */
+    public static final int HEADER = 8, ENTRY = 24;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int size;
+
+    /**
+     * Map a book.
+     * @param path the book file
+     * @throws IOException if the file can't be read or isn't a book
+     */
+    public OpeningBook(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long bytes = channel.size();
+            if (bytes > Integer.MAX_VALUE) throw new IOException("Book larger than 2GB: " + path);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            if (bytes < HEADER || map.getInt(0) != MAGIC || (bytes - HEADER) % ENTRY != 0) {
+                throw new IOException("Not an opening book: " + path);
+            }
+            if (map.getInt(4) != VERSION) throw new IOException("Unsupported book version " + map.getInt(4) + ": " + path);
+            size = (int) ((bytes - HEADER) / ENTRY);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the number of entries.
+     * @return number of position and move pairs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the index of the first entry of a position.
+     * @param key Board.hash() of the position
+     * @return the index, -1 if the position isn't in the book.
+     */
+    public int find(long key) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getKey(mid) < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo < size && getKey(lo) == key ? lo : -1;
+    }
+
+    /**
+     * Return the position hash of an entry.
+     * @param index the entry, from 0 to size() - 1
+     * @return the key.
+     */
+    public long getKey(int index) {
+        return map.getLong(HEADER + index * ENTRY);
+    }
+
+    /**
+     * Return the move of an entry.
+     * @param index the entry
+     * @return the packed move.
+     */
+    public int getMove(int index) {
+        return map.getInt(HEADER + index * ENTRY + 8);
+    }
+
+    /**
+     * Return the games won by the player making the move of an entry.
+     * @param index the entry
+     * @return number of wins.
+     */
+    public int getWins(int index) {
+        return map.getInt(HEADER + index * ENTRY + 12);
+    }
+
+    /**
+     * Return the games drawn after the move of an entry.
+     * @param index the entry
+     * @return number of draws.
+     */
+    public int getDraws(int index) {
+        return map.getInt(HEADER + index * ENTRY + 16);
+    }
+
+    /**
+     * Return the games lost by the player making the move of an entry.
+     * @param index the entry
+     * @return number of losses.
+     */
+    public int getLosses(int index) {
+        return map.getInt(HEADER + index * ENTRY + 20);
+    }
+
+    /**
+     * Return the weight of the move of an entry: two per win and one per draw, as points.
+     * @param index the entry
+     * @return the weight.
+     */
+    public long getWeight(int index) {
+        return 2L * getWins(index) + getDraws(index);
+    }
+
+    /**
+     * Choose a book move for board.getSideToMove(), at random in proportion to the weights.
+     * Moves that aren't playable on board, after a hash collision, are never chosen.
+     * @param board the position
+     * @param random a random number, e.g. from Random.nextLong(); 0 always picks the first
+     *               move with a weight
+     * @return the packed move, 0 if the position isn't in the book or has no weighted move.
+     */
+    public int pick(Board board, long random) {
+        long key = board.hash();
+        int first = find(key);
+        if (first < 0) return 0;
+        long total = 0;
+        for (int i = first; i < size && getKey(i) == key; i++) {
+            if (isPlayable(board, getMove(i))) total += getWeight(i);
+        }
+        if (total == 0) return 0;
+        long target = Long.remainderUnsigned(random, total);
+        for (int i = first; ; i++) {
+            if (!isPlayable(board, getMove(i))) continue;
+            target -= getWeight(i);
+            if (target < 0) return getMove(i);
+        }
+    }
+
+    /**
+     * Return the book move with the highest weight for board.getSideToMove().
+     * @param board the position
+     * @return the packed move, 0 if the position isn't in the book or has no weighted move.
+     */
+    public int best(Board board) {
+        long key = board.hash();
+        int first = find(key), best = 0;
+        if (first < 0) return 0;
+        long bestWeight = 0;
+        for (int i = first; i < size && getKey(i) == key; i++) {
+            if (getWeight(i) > bestWeight && isPlayable(board, getMove(i))) {
+                best = getMove(i);
+                bestWeight = getWeight(i);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return true if move is a legal move of board.getSideToMove().
+     * @param board the position
+     * @param move the packed move
+     * @return true if the move can be played.
+     */
+    private static boolean isPlayable(Board board, int move) {
+        int r1 = Move.getFromRow(move), c1 = Move.getFromCol(move);
+        int r2 = Move.getToRow(move), c2 = Move.getToCol(move);
+        if (!board.isValidLocation(r1, c1) || !board.isValidLocation(r2, c2)) return false;
+        char player = board.getSideToMove();
+        Piece p = board.getPieceAt(r1, c1), target = board.getPieceAt(r2, c2);
+        return p != null && p.getPlayer() == player && (target == null || target.getPlayer() != player)
+                && p.isValidMove(r2, c2, board) && board.isLegalMove(player, move);
+    }
+
+    /**
+     * Close the file. The mapping itself is released when the book is garbage collected.
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Print the book moves of a position and time a million probes.
+     * @param args the book, then optionally a FEN
+     * @throws IOException if the book can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java main.book.OpeningBook book [fen]");
+            return;
+        }
+        try (OpeningBook book = new OpeningBook(Paths.get(args[0]))) {
+            Chess game = args.length > 1 ? Fen.read(args[1]) : new Chess();
+            Board board = game.getBoard();
+            System.out.println(book.size() + " entries; " + Fen.write(game));
+            long key = board.hash();
+            for (int i = book.find(key); i >= 0 && i < book.size() && book.getKey(i) == key; i++) {
+                System.out.printf("%-6s weight %d: +%d =%d -%d%n", San.toSan(board, book.getMove(i)),
+                        book.getWeight(i), book.getWins(i), book.getDraws(i), book.getLosses(i));
+            }
+            int probes = 1000000;
+            long found = 0, start = System.nanoTime();
+            for (int i = 0; i < probes; i++) found += book.find(key ^ (i & 1) * (long) i);
+            long nanos = System.nanoTime() - start;
+            System.out.printf("%.0f ns per probe (%d)%n", (double) nanos / probes, found);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package main.engine;
+
+import main.Board;
+import main.pieces.Pawn;
+import main.pieces.Piece;
+
+/**
+ * Static evaluation of a position: material, plus small bonuses for pieces near the
+ * centre and Pawns that have advanced. Works for any board size and for the Tank and Soldier.
+ */
+public final class Evaluation {
+    /**
+     * Value of each piece type in centipawns, indexed by Piece.getTypeId(). The Tank reaches
+     * any square of three rows and the Soldier any square within two steps, so both are
+     * worth more than a Knight; the King is never captured and counts nothing.
+     */
+    public static final int[] VALUES = {100, 320, 330, 500, 900, 0, 650, 550};
+
+    private Evaluation() {}
+
+    /**
+     * Return the score of the position for the player to move, in centipawns.
+     * @param board the position, board.getSideToMove() to move
+     * @return the score, positive if the player to move is better.
+     */
+    public static int evaluate(Board board) {
+        int rows = board.getNumRows(), cols = board.getNumCols();
+        int score = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p == null) continue;
+                int type = p.getTypeId();
+                int value = VALUES[type];
+                if (type == Piece.PAWN) {
+                    // rows advanced from the pawn row of its side
+                    int advanced = ((Pawn) p).isGoingDown() ? r - 1 : rows - 2 - r;
+                    value += 4 * advanced;
+                } else if (type != Piece.KING) {
+                    // distance from the centre, in half squares
+                    int distance = Math.abs(2 * r - rows + 1) + Math.abs(2 * c - cols + 1);
+                    value += 12 - distance;
+                }
+                score += p.getPlayer() == 'W' ? value : -value;
+            }
+        }
+        return board.getSideToMove() == 'W' ? score : -score;
+    }
+
+    /**
+     * Return true if player has a piece other than Pawns and the King. Without one,
+     * passing the move (null-move pruning) may be the only way to lose, so it isn't tried.
+     * @param board the position
+     * @param player 'W' or 'B'
+     * @return true if player has a piece other than Pawns and the King.
+     */
+    public static boolean hasPieces(Board board, char player) {
+        for (int r = 0; r < board.getNumRows(); r++) {
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p != null && p.getPlayer() == player && p.getTypeId() != Piece.PAWN
+                        && p.getTypeId() != Piece.KING) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
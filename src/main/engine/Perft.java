@@ -0,0 +1,214 @@
+package main.engine;
+
+import main.Board;
+import main.Chess;
+import main.Move;
+import main.Zobrist;
+import main.notation.Fen;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the legal move tree to a fixed depth, to check move generation
+ * against known counts and to measure its speed. Root moves can be split over a
+ * fork-join pool ("divide"), each on its own copy of the board, and subtree counts can
+ * be shared between positions reached by different move orders through a hash table.
+ *
+ * Usage: java main.engine.Perft depth [custom|fen FEN] [threads] [hashMb]
+ */
+public class Perft {
+    // one key per remaining depth, so the same position at two depths caches apart
+    private static final long[] DEPTH_KEYS = new long[64];
+
+    static {
+        for (int d = 0; d < DEPTH_KEYS.length; d++) DEPTH_KEYS[d] = Zobrist.mix(0xDE9L + d);
+    }
+
+    private final int threads;
+    // pairs of (key ^ count, count), read and written without locks like TranspositionTable
+    private final long[] cache;
+    private final int mask;
+
+    /**
+     * Create a perft counter.
+     * @param threads number of threads splitting the root moves, 1 to count in the calling thread
+     * @param hashMb megabytes of subtree cache, 0 for none, at most TranspositionTable.MAX_SIZE_MB
+     * @throws IllegalArgumentException if hashMb is above TranspositionTable.MAX_SIZE_MB
+     */
+    public Perft(int threads, int hashMb) {
+        this.threads = Math.max(1, threads);
+        if (hashMb > 0) {
+            int entries = TranspositionTable.entries(hashMb);
+            cache = new long[entries * 2];
+            mask = entries - 1;
+        } else {
+            cache = null;
+            mask = 0;
+        }
+    }
+
+    /**
+     * Return the number of leaf nodes depth moves below the position, board.getSideToMove() to move.
+     * The board is left as it was.
+     * @param board the position
+     * @param depth number of moves
+     * @return the number of leaf nodes.
+     */
+    public long count(Board board, int depth) {
+        int size = board.getMoveBufferSize();
+        return divide(board, depth, new int[size], new long[size]);
+    }
+
+    /**
+     * Count the leaf nodes below each root move.
+     * @param board the position, left as it was
+     * @param moves filled with the legal root moves, at least board.getMoveBufferSize() long
+     * @param moves filled with the legal root moves, board.getMoveBufferSize() long at least
+     * @param counts filled with the leaf nodes below each root move, as long as moves
+     * @return the total number of leaf nodes.
+     */
+    public long divide(Board board, int depth, int[] moves, long[] counts) {
+        if (depth < 1) return 1;
+        int n = board.generateLegalMoves(board.getSideToMove(), moves);
+        if (threads == 1) {
+            int[][] buffers = new int[depth][board.getMoveBufferSize()];
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                counts[i] = countAfter(board, moves[i], depth - 1, buffers);
+                total += counts[i];
+            }
+            return total;
+        }
+
+        RootTask[] tasks = new RootTask[n];
+        for (int i = 0; i < n; i++) tasks[i] = new RootTask(board.copy(), moves[i], depth - 1);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long total = 0;
+            for (RootTask task : tasks) pool.execute(task);
+            for (int i = 0; i < n; i++) {
+                counts[i] = tasks[i].join();
+                total += counts[i];
+            }
+            return total;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Root move counted on its own board copy.
+     */
+    private class RootTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final int move, depth;
+
+        /**
+         * Create the task for one root move.
+         * @param board a copy of the root position, owned by this task
+         * @param move the root move
+         * @param depth remaining depth after the move
+         */
+        RootTask(Board board, int move, int depth) {
+            this.board = board;
+            this.move = move;
+            this.depth = depth;
+        }
+
+        /**
+         * Return the leaf nodes below the root move.
+         * @return the number of leaf nodes.
+         */
+        protected Long compute() {
+            return countAfter(board, move, depth, new int[Math.max(depth, 1)][board.getMoveBufferSize()]);
+        }
+    }
+
+    /**
+     * Make move, count the leaf nodes depth moves below, and take the move back.
+     * @param board the position
+     * @param move the legal move to make
+     * @param depth remaining depth after the move
+     * @param buffers one move buffer per remaining depth
+     * @return the number of leaf nodes.
+     */
+    private long countAfter(Board board, int move, int depth, int[][] buffers) {
+        board.makeMove(move);
+        long nodes = count(board, depth, buffers);
+        board.unmakeMove();
+        return nodes;
+    }
+
+    /**
+     * Return the leaf nodes depth moves below the position, looking it up in the cache first.
+     * @param board the position
+     * @param depth number of moves
+     * @param buffers one move buffer per remaining depth
+     * @return the number of leaf nodes.
+     */
+    private long count(Board board, int depth, int[][] buffers) {
+        if (depth == 0) return 1;
+        int[] moves = buffers[depth - 1];
+        // the last ply is counted, not made
+        if (depth == 1) return board.generateLegalMoves(board.getSideToMove(), moves);
+
+        long key = board.hash() ^ DEPTH_KEYS[depth];
+        int at = ((int) key & mask) << 1;
+        if (cache != null) {
+            long nodes = cache[at + 1];
+            if ((cache[at] ^ nodes) == key) return nodes;
+        }
+
+        int n = board.generateLegalMoves(board.getSideToMove(), moves);
+        long nodes = 0;
+        for (int i = 0; i < n; i++) nodes += countAfter(board, moves[i], depth - 1, buffers);
+
+        if (cache != null) {
+            cache[at] = key ^ nodes;
+            cache[at + 1] = nodes;
+        }
+        return nodes;
+    }
+
+    /**
+     * Print the divide of a position and the speed of the count.
+     * @param args depth, then optionally "custom" for the Tank and Soldier setup or "fen"
+     *             and a position, the number of threads and the megabytes of cache
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java main.engine.Perft depth [custom|fen FEN] [threads] [hashMb]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        int next = 1;
+        Board board;
+        if (args.length > next + 1 && args[next].equals("fen")) {
+            board = Fen.read(args[next + 1]).getBoard();
+            next += 2;
+        } else {
+            boolean custom = args.length > next && args[next].equals("custom");
+            if (custom) next++;
+            board = new Chess(true, true, 8, 8, "White", "Black", custom, true).getBoard();
+        }
+        int threads = args.length > next ? Integer.parseInt(args[next++]) : Runtime.getRuntime().availableProcessors();
+        int hashMb = args.length > next ? Integer.parseInt(args[next]) : 0;
+
+        int[] moves = new int[board.getMoveBufferSize()];
+        long[] counts = new long[moves.length];
+        long start = System.nanoTime();
+        long total = new Perft(threads, hashMb).divide(board, depth, moves, counts);
+        long nanos = Math.max(1, System.nanoTime() - start);
+
+        int n = board.generateLegalMoves(board.getSideToMove(), new int[moves.length]);
+        for (int i = 0; i < n; i++) {
+            System.out.println(Move.toString(moves[i]) + ": " + counts[i]);
+        }
+        System.out.println("Nodes: " + total);
+        System.out.println("Time: " + nanos / 1000000 + " ms");
+        System.out.println("Nodes per second: " + (long) (total / (nanos / 1e9)));
+    }
+}
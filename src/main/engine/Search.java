@@ -0,0 +1,442 @@
+package main.engine;
+
+import main.Board;
+import main.Move;
+import main.pieces.Piece;
+import main.tablebase.Tablebases;
+
+import java.util.Arrays;
+
+/**
+ * Negamax alpha-beta search with iterative deepening, aspiration windows, principal
+ * variation search, null-move pruning, late-move reductions and a capture-only
+ * quiescence search. Moves are ordered by the hash move, then captures by most
+ * valuable victim, then killer moves and the history heuristic.
+ *
+ * A Search keeps its own killers and history and is used by one thread at a time.
+ * The transposition table may be shared with other searches. With tablebases set,
+ * positions they cover are scored exactly instead of being searched.
+ */
+public class Search {
+    /** Score of being mated now; a mate in n plies scores MATE - n. */
+    public static final int MATE = 30000;
+
+    private static final int MAX_PLY = 128;
+    private static final int INFINITY = 32000;
+    private static final int MATE_BOUND = MATE - MAX_PLY;
+    private static final int ASPIRATION = 40;
+
+    private final TranspositionTable table;
+    private int[][] moves = new int[MAX_PLY][Move.MAX_MOVES];
+    private int[][] orderScores = new int[MAX_PLY][Move.MAX_MOVES];
+    private final int[][] killers = new int[MAX_PLY][2];
+    private int[] history = new int[0];
+
+    private Board board;
+    private int numCols;
+    private long nodes;
+    private long deadline;
+    private boolean checkTime;
+    private volatile boolean stopped;
+    private int rootBest;
+    private Tablebases tablebases;
+
+    /**
+     * Create a search with its own 16 megabyte transposition table.
+     */
+    public Search() {
+        this(new TranspositionTable(16, TranspositionTable.Replacement.TWO_BUCKET_AGING));
+    }
+
+    /**
+     * Create a search using table, which may be shared with other searches.
+     * @param table the transposition table
+     */
+    public Search(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Return the transposition table of this search.
+     * @return the transposition table.
+     */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Use tablebases to score the positions they cover, and to play the root move when
+     * they cover the root. They must not be used by another thread at the same time.
+     * @param tablebases the tablebases, null for none
+     */
+    public void setTablebases(Tablebases tablebases) {
+        this.tablebases = tablebases;
+    }
+
+    /**
+     * Make a running bestMove return as soon as possible. May be called from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Return the number of positions visited by the current or last search.
+     * @return the number of nodes.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Find the best move for board.getSideToMove() within limits. The board is searched in
+     * place and left as it was.
+     * @param position the position
+     * @param limits when to stop
+     * @return the best move of the deepest completed iteration.
+     */
+    public SearchResult bestMove(Board position, SearchLimits limits) {
+        stopped = false;
+        table.newSearch();
+        return run(position, limits, 1);
+    }
+
+    /**
+     * Clear a stop request left from an earlier search, before run is called.
+     */
+    void prepare() {
+        stopped = false;
+    }
+
+    /**
+     * Search like bestMove, starting iterative deepening at firstDepth and keeping a stop
+     * request made before the call. Used by the threads of SmpSearch.
+     * @param position the position
+     * @param limits when to stop
+     * @param firstDepth depth of the first iteration
+     * @return the best move of the deepest completed iteration.
+     */
+    SearchResult run(Board position, SearchLimits limits, int firstDepth) {
+        long start = System.nanoTime();
+        board = position;
+        numCols = board.getNumCols();
+        int squares = board.getNumRows() * numCols;
+        if (history.length != squares * squares) history = new int[squares * squares];
+        else Arrays.fill(history, 0);
+        int size = board.getMoveBufferSize();
+        if (moves[0].length < size) {
+            moves = new int[MAX_PLY][size];
+            orderScores = new int[MAX_PLY][size];
+        }
+        for (int[] k : killers) k[0] = k[1] = 0;
+        nodes = 0;
+        checkTime = false;
+        deadline = limits.getTimeMillis() > 0 ? start + limits.getTimeMillis() * 1000000L : Long.MAX_VALUE;
+
+        int n = board.generateLegalMoves(board.getSideToMove(), moves[0]);
+        if (n == 0) {
+            int score = isInCheck(board.getSideToMove()) ? -MATE : 0;
+            return new SearchResult(0, score, 0, 0, System.nanoTime() - start);
+        }
+        if (tablebases != null) {
+            int move = tablebases.bestMove(board);
+            if (move != 0) return new SearchResult(move, tablebases.probe(board), 0, 0, System.nanoTime() - start);
+        }
+        int bestMove = moves[0][0], bestScore = 0, completed = 0;
+
+        for (int depth = Math.min(firstDepth, limits.getDepth()); depth <= limits.getDepth(); depth++) {
+            int score;
+            if (depth < 4 || Math.abs(bestScore) >= MATE_BOUND) {
+                score = search(depth, -INFINITY, INFINITY, 0, false);
+            } else {
+                // search a window around the last score, widening it until the score falls inside
+                int delta = ASPIRATION;
+                int alpha = bestScore - delta, beta = bestScore + delta;
+                while (true) {
+                    score = search(depth, alpha, beta, 0, false);
+                    if (stopped) break;
+                    if (score <= alpha) alpha = Math.max(-INFINITY, alpha - delta);
+                    else if (score >= beta) beta = Math.min(INFINITY, beta + delta);
+                    else break;
+                    delta *= 2;
+                }
+            }
+            if (stopped) break;
+            bestMove = rootBest;
+            bestScore = score;
+            completed = depth;
+            // from now on an iteration may be cut short
+            checkTime = true;
+            if (System.nanoTime() > deadline || Math.abs(score) >= MATE_BOUND) break;
+        }
+        return new SearchResult(bestMove, bestScore, completed, nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * Return the score of the position for the player to move, searched depth moves deep.
+     * @param depth remaining depth
+     * @param alpha lower bound of the window
+     * @param beta upper bound of the window
+     * @param ply distance from the root
+     * @param afterNull true if the last move was a null move
+     * @return the score.
+     */
+    private int search(int depth, int alpha, int beta, int ply, boolean afterNull) {
+        char side = board.getSideToMove();
+        boolean inCheck = isInCheck(side);
+        // never stop in check: look one move further
+        if (inCheck && ply < MAX_PLY / 2) depth++;
+        if (depth <= 0) return quiesce(alpha, beta, ply);
+        if ((++nodes & 1023) == 0) poll();
+        if (stopped) return 0;
+        if (ply >= MAX_PLY - 1) return Evaluation.evaluate(board);
+        if (tablebases != null && ply > 0) {
+            // a mate the table counts from here is ply plies further from the root
+            int score = tablebases.probe(board);
+            if (score != Tablebases.UNKNOWN) return score > 0 ? score - ply : score < 0 ? score + ply : 0;
+        }
+
+        boolean pvNode = beta - alpha > 1;
+        long key = board.hash();
+        long entry = table.probe(key);
+        int hashMove = 0;
+        if (entry != 0) {
+            hashMove = TranspositionTable.getMove(entry);
+            if (!pvNode && ply > 0 && TranspositionTable.getDepth(entry) >= depth) {
+                int score = fromTable(TranspositionTable.getScore(entry), ply);
+                int bound = TranspositionTable.getBound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && score >= beta)
+                        || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        // null move: if passing still beats beta, a real move will too
+        char enemy = side == 'W' ? 'B' : 'W';
+        if (!pvNode && !inCheck && !afterNull && depth >= 3 && ply > 0
+                && Evaluation.hasPieces(board, side) && Evaluation.evaluate(board) >= beta) {
+            int reduction = depth >= 6 ? 3 : 2;
+            board.setSideToMove(enemy);
+            int score = -search(depth - 1 - reduction, -beta, -beta + 1, ply + 1, true);
+            board.setSideToMove(side);
+            if (stopped) return 0;
+            if (score >= beta) return score >= MATE_BOUND ? beta : score;
+        }
+
+        int[] list = moves[ply];
+        int n = board.generateLegalMoves(side, list);
+        if (n == 0) return inCheck ? -MATE + ply : 0;
+        scoreMoves(list, orderScores[ply], n, hashMove, ply);
+
+        int bestScore = -INFINITY, bestMove = 0, startAlpha = alpha;
+        for (int i = 0; i < n; i++) {
+            int move = pickNext(list, orderScores[ply], i, n);
+            boolean quiet = !board.hasPieceAt(Move.getToRow(move), Move.getToCol(move));
+            board.makeMove(move);
+            int score;
+            if (i == 0) {
+                score = -search(depth - 1, -beta, -alpha, ply + 1, false);
+            } else {
+                // late quiet moves are searched less deep first
+                int reduction = 0;
+                if (depth >= 3 && i >= 3 && quiet && !inCheck && !isKiller(move, ply)) {
+                    reduction = i >= 8 ? 2 : 1;
+                }
+                score = -search(depth - 1 - reduction, -alpha - 1, -alpha, ply + 1, false);
+                if (score > alpha && reduction > 0) {
+                    score = -search(depth - 1, -alpha - 1, -alpha, ply + 1, false);
+                }
+                if (score > alpha && score < beta) {
+                    score = -search(depth - 1, -beta, -alpha, ply + 1, false);
+                }
+            }
+            board.unmakeMove();
+            if (stopped) return 0;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+                if (ply == 0) rootBest = move;
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) {
+                if (quiet) rememberCutoff(move, depth, ply);
+                break;
+            }
+        }
+
+        int bound = bestScore >= beta ? TranspositionTable.LOWER
+                : bestScore > startAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+        table.store(key, bestMove, toTable(bestScore, ply), depth, bound);
+        return bestScore;
+    }
+
+    /**
+     * Return the score of the position once no capture is left to make, or the score of
+     * standing still if that is better. In check every legal move is tried.
+     * @param alpha lower bound of the window
+     * @param beta upper bound of the window
+     * @param ply distance from the root
+     * @return the score.
+     */
+    private int quiesce(int alpha, int beta, int ply) {
+        if ((++nodes & 1023) == 0) poll();
+        if (stopped) return 0;
+        char side = board.getSideToMove();
+        boolean inCheck = isInCheck(side);
+        if (ply >= MAX_PLY - 1) return Evaluation.evaluate(board);
+
+        int bestScore = -INFINITY;
+        if (!inCheck) {
+            bestScore = Evaluation.evaluate(board);
+            if (bestScore >= beta) return bestScore;
+            if (bestScore > alpha) alpha = bestScore;
+        }
+
+        int[] list = moves[ply];
+        int n = board.generateLegalMoves(side, list);
+        if (n == 0) return inCheck ? -MATE + ply : 0;
+        scoreMoves(list, orderScores[ply], n, 0, ply);
+        for (int i = 0; i < n; i++) {
+            int move = pickNext(list, orderScores[ply], i, n);
+            if (!inCheck && !board.hasPieceAt(Move.getToRow(move), Move.getToCol(move))) break;
+            board.makeMove(move);
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            board.unmakeMove();
+            if (stopped) return 0;
+            if (score > bestScore) bestScore = score;
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) break;
+        }
+        return bestScore;
+    }
+
+    /**
+     * Give every move an ordering score: hash move, captures by victim then attacker,
+     * killers, then history. Captures always come before quiet moves.
+     * @param list the moves
+     * @param scores filled with the ordering scores
+     * @param n number of moves
+     * @param hashMove the move stored in the transposition table, 0 if none
+     * @param ply distance from the root
+     */
+    private void scoreMoves(int[] list, int[] scores, int n, int hashMove, int ply) {
+        for (int i = 0; i < n; i++) {
+            int move = list[i];
+            Piece victim = board.getPieceAt(Move.getToRow(move), Move.getToCol(move));
+            if (move == hashMove) {
+                scores[i] = Integer.MAX_VALUE;
+            } else if (victim != null) {
+                Piece attacker = board.getPieceAt(Move.getFromRow(move), Move.getFromCol(move));
+                scores[i] = 1 << 30 | Evaluation.VALUES[victim.getTypeId()] << 4
+                        | (15 - Evaluation.VALUES[attacker.getTypeId()] / 100);
+            } else if (move == killers[ply][0]) {
+                scores[i] = 1 << 29;
+            } else if (move == killers[ply][1]) {
+                scores[i] = (1 << 29) - 1;
+            } else {
+                scores[i] = history[historyIndex(move)];
+            }
+        }
+    }
+
+    /**
+     * Move the best scored of the moves from i on to position i and return it.
+     * @param list the moves
+     * @param scores their ordering scores
+     * @param i the first move not tried yet
+     * @param n number of moves
+     * @return the move to try next.
+     */
+    private static int pickNext(int[] list, int[] scores, int i, int n) {
+        int best = i;
+        for (int j = i + 1; j < n; j++) {
+            if (scores[j] > scores[best]) best = j;
+        }
+        int move = list[best], score = scores[best];
+        list[best] = list[i];
+        scores[best] = scores[i];
+        list[i] = move;
+        scores[i] = score;
+        return move;
+    }
+
+    /**
+     * Remember a quiet move that caused a cutoff, as a killer of its ply and in the history.
+     * @param move the move
+     * @param depth remaining depth where it was tried
+     * @param ply distance from the root
+     */
+    private void rememberCutoff(int move, int depth, int ply) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        int index = historyIndex(move);
+        history[index] = Math.min(history[index] + depth * depth, 1 << 28);
+    }
+
+    /**
+     * Return true if move is a killer of ply.
+     * @param move the move
+     * @param ply distance from the root
+     * @return true if move is a killer.
+     */
+    private boolean isKiller(int move, int ply) {
+        return killers[ply][0] == move || killers[ply][1] == move;
+    }
+
+    /**
+     * Return the history slot of move: from square times number of squares plus to square.
+     * @param move the move
+     * @return the index in the history table.
+     */
+    private int historyIndex(int move) {
+        int from = Move.getFromRow(move) * numCols + Move.getFromCol(move);
+        int to = Move.getToRow(move) * numCols + Move.getToCol(move);
+        return from * (board.getNumRows() * numCols) + to;
+    }
+
+    /**
+     * Return true if player's King is attacked.
+     * @param player 'W' or 'B'
+     * @return true if player is in check.
+     */
+    private boolean isInCheck(char player) {
+        Piece king = board.getKing(player);
+        return king != null && board.isSquareAttacked(king.getRow(), king.getCol(), player == 'W' ? 'B' : 'W');
+    }
+
+    /**
+     * Stop the search if its time is up.
+     */
+    private void poll() {
+        if (checkTime && System.nanoTime() > deadline) stopped = true;
+    }
+
+    /**
+     * Convert a score to be stored: mate scores count from the node, not from the root.
+     * @param score the score
+     * @param ply distance from the root
+     * @return the score to store.
+     */
+    private static int toTable(int score, int ply) {
+        if (score >= MATE_BOUND) return score + ply;
+        if (score <= -MATE_BOUND) return score - ply;
+        return score;
+    }
+
+    /**
+     * Convert a stored score back to a score counted from the root.
+     * @param score the stored score
+     * @param ply distance from the root
+     * @return the score.
+     */
+    private static int fromTable(int score, int ply) {
+        if (score >= MATE_BOUND) return score - ply;
+        if (score <= -MATE_BOUND) return score + ply;
+        return score;
+    }
+}
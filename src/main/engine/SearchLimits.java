@@ -0,0 +1,56 @@
+package main.engine;
+
+/**
+ * How long a search may run: a maximum depth, a time budget, or both.
+ */
+public class SearchLimits {
+    /** Deepest search ever started. */
+    public static final int MAX_DEPTH = 64;
+
+    private final int depth;
+    private final long timeMillis;
+
+    /**
+     * Create limits.
+     * @param depth maximum depth in moves, 0 for MAX_DEPTH
+     * @param timeMillis time budget in milliseconds, 0 for no time limit
+     */
+    public SearchLimits(int depth, long timeMillis) {
+        this.depth = depth <= 0 ? MAX_DEPTH : Math.min(depth, MAX_DEPTH);
+        this.timeMillis = Math.max(0, timeMillis);
+    }
+
+    /**
+     * Return limits stopping after the given depth.
+     * @param depth maximum depth in moves
+     * @return the limits.
+     */
+    public static SearchLimits depth(int depth) {
+        return new SearchLimits(depth, 0);
+    }
+
+    /**
+     * Return limits stopping after the given time.
+     * @param timeMillis time budget in milliseconds
+     * @return the limits.
+     */
+    public static SearchLimits time(long timeMillis) {
+        return new SearchLimits(0, timeMillis);
+    }
+
+    /**
+     * Return the maximum depth.
+     * @return the maximum depth in moves.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Return the time budget.
+     * @return the time budget in milliseconds, 0 for no time limit.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+}
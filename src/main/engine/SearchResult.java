@@ -0,0 +1,84 @@
+package main.engine;
+
+import main.Move;
+
+/**
+ * Outcome of a search: the best move found and what it took to find it.
+ */
+public class SearchResult {
+    private final int bestMove, score, depth;
+    private final long nodes, nanos;
+
+    /**
+     * Create a result.
+     * @param bestMove the best move, packed by Move.encode, 0 if there is no legal move
+     * @param score the score of the best move for the player to move, in centipawns
+     * @param depth the deepest completed iteration
+     * @param nodes number of positions visited
+     * @param nanos time spent
+     */
+    public SearchResult(int bestMove, int score, int depth, long nodes, long nanos) {
+        this.bestMove = bestMove;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.nanos = nanos;
+    }
+
+    /**
+     * Return the best move.
+     * @return the packed move, 0 if there is no legal move.
+     */
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Return the score of the best move, Search.MATE minus the distance for a forced mate.
+     * @return the score in centipawns.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Return the deepest completed iteration.
+     * @return the depth in moves.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Return the number of positions visited.
+     * @return the number of nodes.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Return the time spent.
+     * @return the time in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Return the number of positions visited per second.
+     * @return the nodes per second.
+     */
+    public long getNodesPerSecond() {
+        return nodes * 1000000000L / Math.max(1, nanos);
+    }
+
+    /**
+     * Return the result in one line.
+     * @return the string form of the result.
+     */
+    public String toString() {
+        return "bestmove " + Move.toString(bestMove) + " score " + score + " depth " + depth
+                + " nodes " + nodes + " nps " + getNodesPerSecond();
+    }
+}
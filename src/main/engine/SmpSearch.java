@@ -0,0 +1,120 @@
+package main.engine;
+
+import main.Board;
+import main.Chess;
+import main.tablebase.Tablebases;
+
+/**
+ * Parallel best-move search in the Lazy SMP style: helper threads search the same
+ * position, each on its own copy of the board and with its own killers and history,
+ * and share what they find only through one lock-free TranspositionTable. Helpers on odd
+ * indices start one iteration deeper, so the threads spread over different depths.
+ * The calling thread's result is returned; the helpers are stopped as soon as it is done.
+ * With one thread the search is the plain Search and its result is reproducible.
+ *
+ * Usage: java main.engine.SmpSearch [depth] [maxThreads] prints how nodes per second
+ * and time to depth scale with the number of threads.
+ */
+public class SmpSearch {
+    private final TranspositionTable table;
+    private final Search[] searches;
+
+    /**
+     * Create a parallel search.
+     * @param threads number of threads, the calling thread included
+     * @param hashMb megabytes of the shared transposition table
+     */
+    public SmpSearch(int threads, int hashMb) {
+        table = new TranspositionTable(hashMb, TranspositionTable.Replacement.TWO_BUCKET_AGING);
+        searches = new Search[Math.max(1, threads)];
+        for (int i = 0; i < searches.length; i++) searches[i] = new Search(table);
+    }
+
+    /**
+     * Return the shared transposition table.
+     * @return the transposition table.
+     */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Use tablebases in every thread: the calling thread probes these, each helper its own
+     * share() of them.
+     * @param tablebases the tablebases, null for none
+     */
+    public void setTablebases(Tablebases tablebases) {
+        searches[0].setTablebases(tablebases);
+        for (int i = 1; i < searches.length; i++) searches[i].setTablebases(tablebases != null ? tablebases.share() : null);
+    }
+
+    /**
+     * Return the number of threads searching, the calling thread included.
+     * @return the number of threads.
+     */
+    public int getThreads() {
+        return searches.length;
+    }
+
+    /**
+     * Find the best move for board.getSideToMove() within limits, using every thread.
+     * The board is searched in place by the calling thread and left as it was.
+     * @param position the position
+     * @param limits when to stop
+     * @return the calling thread's result, with the nodes of all threads.
+     */
+    public SearchResult bestMove(Board position, SearchLimits limits) {
+        table.newSearch();
+        for (Search search : searches) search.prepare();
+
+        Thread[] helpers = new Thread[searches.length - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            Search helper = searches[i + 1];
+            Board copy = position.copy();
+            int firstDepth = 1 + (i + 1) % 2;
+            helpers[i] = new Thread(() -> helper.run(copy, limits, firstDepth), "smp-helper-" + (i + 1));
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+
+        SearchResult main;
+        try {
+            main = searches[0].run(position, limits, 1);
+        } finally {
+            for (int i = 1; i < searches.length; i++) searches[i].stop();
+        }
+        long nodes = main.getNodes();
+        for (int i = 0; i < helpers.length; i++) {
+            try {
+                helpers[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            nodes += searches[i + 1].getNodes();
+        }
+        return new SearchResult(main.getBestMove(), main.getScore(), main.getDepth(), nodes, main.getNanos());
+    }
+
+    /**
+     * Search the start position to a fixed depth with 1, 2, 4, ... threads and print the
+     * nodes per second and the time to reach the depth.
+     * @param args optional depth (default 9) and largest number of threads (default 32)
+     */
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        System.out.println("Cores: " + Runtime.getRuntime().availableProcessors());
+        // let the JIT compile the search before anything is timed
+        new SmpSearch(1, 64).bestMove(new Chess().getBoard(), SearchLimits.depth(depth));
+        System.out.println("threads\tnodes\tnps\ttime to depth " + depth + " (ms)\tspeedup");
+        long baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            Board board = new Chess().getBoard();
+            SearchResult result = new SmpSearch(threads, 64).bestMove(board, SearchLimits.depth(depth));
+            long millis = Math.max(1, result.getNanos() / 1000000);
+            if (threads == 1) baseline = millis;
+            System.out.printf("%d\t%d\t%d\t%d\t%.2f%n", threads, result.getNodes(),
+                    result.getNodesPerSecond(), millis, (double) baseline / millis);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package main.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size hash table of search results keyed by Board.hash(), shared by any number of
+ * threads without locks. Each entry is two longs in one primitive array: the key XORed
+ * with the data, then the data. A reader accepts an entry only if the two XOR back to
+ * its key, so an entry torn by a concurrent writer reads as a miss instead of as garbage.
+ *
+ * Data layout, low bit first: best move (32 bits, packed by Move.encode), score (16),
+ * depth (8), bound (2), age (6).
+ */
+public class TranspositionTable {
+    /** Bounds stored with a score. 0 is never stored, so a data word of 0 means a miss. */
+    public static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /**
+     * How to choose the entry to overwrite when storing.
+     */
+    public enum Replacement {
+        /** One entry per slot, kept unless the new result is at least as deep or the old one is from an earlier search. */
+        DEPTH_PREFERRED,
+        /** One entry per slot, always overwritten. */
+        ALWAYS_REPLACE,
+        /** Two entries per bucket; the shallower or older one is overwritten. */
+        TWO_BUCKET_AGING
+    }
+
+    private final long[] table;
+    private final int mask;
+    private final Replacement policy;
+    private volatile int age;
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private final LongAdder collisions = new LongAdder(), stores = new LongAdder();
+
+    /** Largest memory budget: 2^29 entries of 16 bytes, the most a long[] can hold in pairs. */
+    public static final int MAX_SIZE_MB = 8192;
+
+    /**
+     * Create a table using about sizeMb megabytes, rounded down to a power of two entries.
+     * @param sizeMb memory budget in megabytes, at most MAX_SIZE_MB
+     * @param policy the replacement policy
+     * @throws IllegalArgumentException if sizeMb is above MAX_SIZE_MB
+     */
+    public TranspositionTable(int sizeMb, Replacement policy) {
+        int entries = entries(sizeMb);
+        table = new long[entries * 2];
+        mask = entries - 1;
+        this.policy = policy;
+    }
+
+    /**
+     * Return the number of two-long entries of a table of about sizeMb megabytes.
+     * Also sizes the subtree cache of Perft.
+     * @param sizeMb memory budget in megabytes, at most MAX_SIZE_MB
+     * @return a power of two, at least 2.
+     * @throws IllegalArgumentException if sizeMb is above MAX_SIZE_MB
+     */
+    static int entries(int sizeMb) {
+        if (sizeMb > MAX_SIZE_MB) {
+            throw new IllegalArgumentException("Hash tables are at most " + MAX_SIZE_MB + " MB, got " + sizeMb);
+        }
+        return (int) Long.highestOneBit(Math.max(2L, ((long) sizeMb << 20) / 16));
+    }
+
+    /**
+     * Return the number of entries in the table.
+     * @return the number of entries.
+     */
+    public int size() {
+        return mask + 1;
+    }
+
+    /**
+     * Return the replacement policy of the table.
+     * @return the replacement policy.
+     */
+    public Replacement getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Start a new search: entries stored from now on are younger than the ones before.
+     */
+    public void newSearch() {
+        age = (age + 1) & 0x3F;
+    }
+
+    /**
+     * Remove every entry and reset the counters. Not safe while other threads use the table.
+     */
+    public void clear() {
+        Arrays.fill(table, 0);
+        hits.reset();
+        misses.reset();
+        collisions.reset();
+        stores.reset();
+    }
+
+    /**
+     * Return the first entry index the key may be stored at.
+     * @param key the position hash
+     * @return the entry index.
+     */
+    private int indexOf(long key) {
+        int index = (int) key & mask;
+        return policy == Replacement.TWO_BUCKET_AGING ? index & ~1 : index;
+    }
+
+    /**
+     * Look up the data stored for key.
+     * @param key the position hash
+     * @return the data word, 0 if nothing is stored for key.
+     */
+    public long probe(long key) {
+        int index = indexOf(key);
+        int slots = policy == Replacement.TWO_BUCKET_AGING ? 2 : 1;
+        boolean occupied = false;
+        for (int i = 0; i < slots; i++) {
+            int at = (index + i) << 1;
+            long data = table[at + 1];
+            long check = table[at];
+            if ((check ^ data) == key && data != 0) {
+                hits.increment();
+                return data;
+            }
+            occupied |= data != 0;
+        }
+        misses.increment();
+        if (occupied) collisions.increment();
+        return 0;
+    }
+
+    /**
+     * Store a search result for key, subject to the replacement policy.
+     * @param key the position hash
+     * @param move the best move found, 0 if none
+     * @param score the score, between -32768 and 32767
+     * @param depth the depth searched, between 0 and 255
+     * @param bound EXACT, LOWER or UPPER
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        long data = pack(move, score, depth, bound, age);
+        int index = indexOf(key);
+        switch (policy) {
+            case ALWAYS_REPLACE:
+                break;
+            case DEPTH_PREFERRED: {
+                long old = table[(index << 1) + 1];
+                boolean sameKey = (table[index << 1] ^ old) == key;
+                if (old != 0 && !sameKey && getAge(old) == age && getDepth(old) > depth) return;
+                break;
+            }
+            default: {
+                int victim = index;
+                int victimPriority = Integer.MAX_VALUE;
+                for (int i = 0; i < 2; i++) {
+                    int at = (index + i) << 1;
+                    long old = table[at + 1];
+                    if (old == 0 || (table[at] ^ old) == key) {
+                        victim = index + i;
+                        break;
+                    }
+                    // older searches count as much shallower
+                    int priority = getDepth(old) - 8 * ((age - getAge(old)) & 0x3F);
+                    if (priority < victimPriority) {
+                        victimPriority = priority;
+                        victim = index + i;
+                    }
+                }
+                index = victim;
+            }
+        }
+        table[index << 1] = key ^ data;
+        table[(index << 1) + 1] = data;
+        stores.increment();
+    }
+
+    /**
+     * Pack a result into a data word.
+     * @param move the best move
+     * @param score the score
+     * @param depth the depth searched
+     * @param bound EXACT, LOWER or UPPER
+     * @param age the search generation
+     * @return the data word.
+     */
+    private static long pack(int move, int score, int depth, int bound, int age) {
+        return (move & 0xFFFFFFFFL) | (long) (score & 0xFFFF) << 32 | (long) (depth & 0xFF) << 48
+                | (long) bound << 56 | (long) age << 58;
+    }
+
+    /**
+     * Return the best move of a data word.
+     * @param data the data word returned by probe
+     * @return the packed move, 0 if none.
+     */
+    public static int getMove(long data) {
+        return (int) data;
+    }
+
+    /**
+     * Return the score of a data word.
+     * @param data the data word returned by probe
+     * @return the score.
+     */
+    public static int getScore(long data) {
+        return (short) (data >>> 32);
+    }
+
+    /**
+     * Return the depth of a data word.
+     * @param data the data word returned by probe
+     * @return the depth searched.
+     */
+    public static int getDepth(long data) {
+        return (int) (data >>> 48) & 0xFF;
+    }
+
+    /**
+     * Return the bound of a data word.
+     * @param data the data word returned by probe
+     * @return EXACT, LOWER or UPPER.
+     */
+    public static int getBound(long data) {
+        return (int) (data >>> 56) & 3;
+    }
+
+    /**
+     * Return the search generation of a data word.
+     * @param data the data word returned by probe
+     * @return the age.
+     */
+    private static int getAge(long data) {
+        return (int) (data >>> 58);
+    }
+
+    /**
+     * Return the number of probes that found their key.
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of probes that didn't find their key.
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the number of misses where the slot held another position.
+     * @return the number of collisions.
+     */
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    /**
+     * Return the number of entries written.
+     * @return the number of stores.
+     */
+    public long getStores() {
+        return stores.sum();
+    }
+
+    /**
+     * Return how many of the first 1000 entries are in use, in permille.
+     * @return the fill rate of the table.
+     */
+    public int hashfull() {
+        int used = 0, n = Math.min(1000, size());
+        for (int i = 0; i < n; i++) {
+            if (table[(i << 1) + 1] != 0) used++;
+        }
+        return used * 1000 / n;
+    }
+}
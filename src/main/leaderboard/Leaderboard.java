@@ -0,0 +1,686 @@
+package main.leaderboard;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Wins, draws and losses of every player, kept in a directory of append-only logs and
+ * ranked in memory. Players are ranked by points, 2 for a win and 1 for a draw, then by
+ * wins, then by name.
+ *
+ * The directory holds segments named "scores-NNNNNNNN.log", numbered from 1. Results are
+ * appended to the newest one, each game in a single write, so a crash can only cut the
+ * last game short; such a game is dropped when the leaderboard is opened again. When the
+ * segments grow larger than the last compaction, the newest one is closed and a thread
+ * folds it and every older one into a single compacted segment of one total per player,
+ * written to a temporary file and renamed over the closed one. Opening reads the newest
+ * compacted segment and every segment after it, and deletes the older ones.
+ *
+ * All numbers are big-endian. A segment starts with a HEADER-byte header:
+ *   int   MAGIC, int VERSION
+ *   byte  COMPACTED if the segment holds the totals of every older one, otherwise 0
+ *   three zero bytes
+ * followed by records:
+ *   byte  WIN, DRAW, LOSS or TOTAL
+ *   byte  length of the name, then the name in UTF-8
+ *   int   wins, draws, losses (TOTAL only)
+ *
+ * Safe for use by several threads of one process. The directory has a single owner: while
+ * a Leaderboard is open it holds a lock on LOCK_FILE, and opening the directory again, from
+ * this process or another one, fails instead of appending to the same segment.
+ */
+public class Leaderboard implements Closeable {
+    /** "CHLB", the first four bytes of a segment. */
+    public static final int MAGIC = 0x43484C42;
+    /** Version of the layout. */
+    public static final int VERSION = 1;
+    /** Bytes of the segment header. */
+    public static final int HEADER = 12;
+    /** Header flag of a compacted segment. */
+    public static final int COMPACTED = 1;
+    /** Record kinds. */
+    public static final int WIN = 0, DRAW = 1, LOSS = 2, TOTAL = 3;
+    /** Longest name, in UTF-8 bytes. */
+    public static final int MAX_NAME = 255;
+    /** Segments are compacted once they hold more than this many bytes after the last compaction. */
+    public static final long MIN_COMPACTION = 1 << 20;
+    /** File of the directory locked by its owner. */
+    public static final String LOCK_FILE = "leaderboard.lock";
+
+    private static final String PREFIX = "scores-", SUFFIX = ".log";
+
+    private final Path dir;
+    private final FileChannel lockChannel;
+    private final HashMap<String, Player> players = new HashMap<>();
+    // players by points: a few thousand buckets at most, whatever the number of players
+    private final TreeMap<Long, Bucket> ranking = new TreeMap<>();
+    private FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(2 * (2 + MAX_NAME));
+    private int segment;
+    private long compactedBytes, logBytes;
+    private Thread compactor;
+    private IOException compactionError;
+
+    /**
+     * Open the leaderboard of a directory, creating it if needed, and read every result.
+     * @param dir the directory
+     * @throws IOException if the directory can't be read or written, holds a damaged segment
+     *                     or is open in another Leaderboard
+     */
+    public Leaderboard(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        lockChannel = lock(dir.resolve(LOCK_FILE));
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open and lock the lock file of the directory.
+     * @param lockPath the lock file, created if missing
+     * @return the channel holding the lock, released when it is closed.
+     * @throws IOException if the lock file can't be opened or another Leaderboard holds it
+     */
+    private static FileChannel lock(Path lockPath) throws IOException {
+        FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Leaderboard is in use by another process: " + lockPath.getParent());
+        }
+        return lockChannel;
+    }
+
+    /**
+     * Read every result of the directory and open the newest segment for appending.
+     * @throws IOException if the directory can't be read or written, or holds a damaged segment
+     */
+    private void load() throws IOException {
+        // an interrupted compaction leaves its temporary file behind, and one cut short
+        // while starting a segment leaves it without a complete header
+        Files.deleteIfExists(dir.resolve(PREFIX + "compacting" + SUFFIX));
+        int[] segments = segments();
+        if (segments.length > 0 && Files.size(path(segments[segments.length - 1])) < HEADER) {
+            Files.delete(path(segments[segments.length - 1]));
+            segments = segments();
+        }
+        int first = 0;
+        for (int i = segments.length - 1; i >= 0 && first == 0; i--) {
+            if (isCompacted(segments[i])) first = i;
+        }
+        for (int i = 0; i < first; i++) Files.delete(path(segments[i]));
+
+        for (int i = first; i < segments.length; i++) {
+            long end = read(path(segments[i]), this::apply);
+            if (i == first && isCompacted(segments[i])) compactedBytes = end;
+            else logBytes += end - HEADER;
+            if (i == segments.length - 1 && end < Files.size(path(segments[i]))) {
+                try (FileChannel last = FileChannel.open(path(segments[i]), StandardOpenOption.WRITE)) {
+                    last.truncate(end);
+                }
+            }
+        }
+        segment = segments.length == 0 ? 1 : segments[segments.length - 1];
+        channel = open(segment, segments.length == 0);
+    }
+
+    /**
+     * Return the numbers of the segments of the directory, oldest first.
+     * @return the segment numbers.
+     * @throws IOException if the directory can't be read
+     */
+    private int[] segments() throws IOException {
+        ArrayList<Integer> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "[0-9]*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                found.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(found);
+        int[] segments = new int[found.size()];
+        for (int i = 0; i < segments.length; i++) segments[i] = found.get(i);
+        return segments;
+    }
+
+    /**
+     * Return the file of a segment.
+     * @param segment the segment number
+     * @return the path.
+     */
+    private Path path(int segment) {
+        return dir.resolve(String.format("%s%08d%s", PREFIX, segment, SUFFIX));
+    }
+
+    /**
+     * Return true if a segment holds the totals of every older one.
+     * @param segment the segment number
+     * @return true if the segment is compacted.
+     * @throws IOException if the segment can't be read or isn't a leaderboard segment
+     */
+    private boolean isCompacted(int segment) throws IOException {
+        try (FileChannel in = FileChannel.open(path(segment), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            fill(in, header);
+            return (checkHeader(header, path(segment)) & COMPACTED) != 0;
+        }
+    }
+
+    /**
+     * Read from a file until a buffer is full or the file ends, and flip the buffer.
+     * @param in the file
+     * @param data the buffer
+     * @return false if the file has ended.
+     * @throws IOException if the file can't be read
+     */
+    private static boolean fill(FileChannel in, ByteBuffer data) throws IOException {
+        boolean more = true;
+        while (more && data.hasRemaining()) more = in.read(data) >= 0;
+        data.flip();
+        return more;
+    }
+
+    /**
+     * Check the header at the start of a buffer.
+     * @param data the first bytes of the segment
+     * @param path its file, for error messages
+     * @return the flags.
+     * @throws IOException if the segment isn't a leaderboard segment
+     */
+    private static int checkHeader(ByteBuffer data, Path path) throws IOException {
+        if (data.limit() < HEADER || data.getInt(0) != MAGIC) throw new IOException("Not a leaderboard segment: " + path);
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Unsupported leaderboard version " + data.getInt(4) + ": " + path);
+        }
+        return data.get(8);
+    }
+
+    /**
+     * Receives the records of a segment.
+     */
+    private interface Sink {
+        /**
+         * Take one record.
+         * @param name the player
+         * @param wins wins to add
+         * @param draws draws to add
+         * @param losses losses to add
+         */
+        void add(String name, int wins, int draws, int losses);
+    }
+
+    /**
+     * Read every complete record of a segment.
+     * @param path the segment
+     * @param sink where the records go
+     * @return the offset after the last complete record.
+     * @throws IOException if the segment can't be read or isn't a leaderboard segment
+     */
+    private static long read(Path path, Sink sink) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocate(1 << 16);
+            boolean more = fill(in, data);
+            checkHeader(data, path);
+            data.position(HEADER);
+            long end = HEADER;
+            while (true) {
+                // keep at least one whole record in the buffer
+                if (more && data.remaining() < 14 + MAX_NAME) more = fill(in, data.compact());
+                int start = data.position();
+                if (data.remaining() < 2) return end;
+                int kind = data.get(start), length = data.get(start + 1) & 0xFF;
+                int size = (kind == TOTAL ? 14 : 2) + length;
+                if (kind < WIN || kind > TOTAL) {
+                    throw new IOException("Damaged leaderboard segment at offset " + end + ": " + path);
+                }
+                if (data.remaining() < size) return end;
+                String player = new String(data.array(), start + 2, length, StandardCharsets.UTF_8);
+                if (kind == TOTAL) {
+                    int counts = start + 2 + length;
+                    sink.add(player, data.getInt(counts), data.getInt(counts + 4), data.getInt(counts + 8));
+                } else {
+                    sink.add(player, kind == WIN ? 1 : 0, kind == DRAW ? 1 : 0, kind == LOSS ? 1 : 0);
+                }
+                data.position(start + size);
+                end += size;
+            }
+        }
+    }
+
+    /**
+     * Open a segment for appending.
+     * @param segment the segment number
+     * @param create true to create it with an empty header
+     * @return the open file, positioned at its end.
+     * @throws IOException if the file can't be written
+     */
+    private FileChannel open(int segment, boolean create) throws IOException {
+        FileChannel file = FileChannel.open(path(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (create) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+                header.clear();
+                while (header.hasRemaining()) file.write(header);
+            }
+            file.position(file.size());
+            return file;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Add results to a player in memory.
+     * @param name the player
+     * @param wins wins to add
+     * @param draws draws to add
+     * @param losses losses to add
+     */
+    private void apply(String name, int wins, int draws, int losses) {
+        Player p = players.get(name);
+        if (p == null) {
+            p = new Player(name);
+            players.put(name, p);
+        } else if (p.bucket.remove(p)) {
+            ranking.remove(p.points());
+        }
+        p.wins += wins;
+        p.draws += draws;
+        p.losses += losses;
+        ranking.computeIfAbsent(p.points(), points -> new Bucket()).add(p);
+    }
+
+    /**
+     * Record a game won by one player.
+     * @param winner the player who won
+     * @param loser the player who lost
+     * @throws IOException if the result can't be written, or the last compaction failed
+     * @throws IllegalArgumentException if a name is longer than MAX_NAME bytes
+     */
+    public void recordWin(String winner, String loser) throws IOException {
+        record(winner, WIN, loser, LOSS);
+    }
+
+    /**
+     * Record a drawn game.
+     * @param a one player
+     * @param b the other player
+     * @throws IOException if the result can't be written, or the last compaction failed
+     * @throws IllegalArgumentException if a name is longer than MAX_NAME bytes
+     */
+    public void recordDraw(String a, String b) throws IOException {
+        record(a, DRAW, b, DRAW);
+    }
+
+    /**
+     * Append the results of both players of a game in one write, then count them.
+     * @param a one player
+     * @param kindA its result
+     * @param b the other player
+     * @param kindB its result
+     * @throws IOException if the results can't be written, or the last compaction failed
+     */
+    private synchronized void record(String a, int kindA, String b, int kindB) throws IOException {
+        if (compactionError != null) throw compactionError;
+        byte[] nameA = a.getBytes(StandardCharsets.UTF_8), nameB = b.getBytes(StandardCharsets.UTF_8);
+        if (nameA.length > MAX_NAME || nameB.length > MAX_NAME) {
+            throw new IllegalArgumentException("Names are at most " + MAX_NAME + " bytes");
+        }
+        buffer.clear();
+        buffer.put((byte) kindA).put((byte) nameA.length).put(nameA);
+        buffer.put((byte) kindB).put((byte) nameB.length).put(nameB);
+        buffer.flip();
+        logBytes += buffer.remaining();
+        while (buffer.hasRemaining()) channel.write(buffer);
+
+        apply(a, kindA == WIN ? 1 : 0, kindA == DRAW ? 1 : 0, kindA == LOSS ? 1 : 0);
+        apply(b, kindB == WIN ? 1 : 0, kindB == DRAW ? 1 : 0, kindB == LOSS ? 1 : 0);
+        if (compactor == null && logBytes > Math.max(compactedBytes, MIN_COMPACTION)) startCompaction();
+    }
+
+    /**
+     * Close the newest segment, start a new one and compact the closed ones in the background.
+     * @throws IOException if the new segment can't be created
+     */
+    private void startCompaction() throws IOException {
+        int closed = segment;
+        FileChannel next = open(closed + 1, true);
+        channel.close();
+        channel = next;
+        segment = closed + 1;
+        long folded = logBytes;
+        compactor = new Thread(() -> runCompaction(closed, folded), "leaderboard-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Fold the closed segments into one, then let the next compaction start.
+     * @param closed the newest closed segment
+     * @param folded log bytes in the closed segments
+     */
+    private void runCompaction(int closed, long folded) {
+        long size = 0;
+        IOException error = null;
+        try {
+            size = fold(closed);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            if (error == null) {
+                compactedBytes = size;
+                logBytes -= folded;
+            } else {
+                compactionError = error;
+            }
+            compactor = null;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Write the totals of every segment up to closed into a compacted segment replacing it,
+     * and delete the older ones.
+     * @param closed the newest segment to fold, no longer written to
+     * @return the size of the compacted segment.
+     * @throws IOException if a segment can't be read or written
+     */
+    private long fold(int closed) throws IOException {
+        HashMap<String, int[]> totals = new HashMap<>();
+        int[] segments = segments();
+        int first = 0;
+        for (int i = 0; i < segments.length && segments[i] <= closed; i++) {
+            if (isCompacted(segments[i])) first = i;
+        }
+        for (int i = first; i < segments.length && segments[i] <= closed; i++) {
+            read(path(segments[i]), (name, wins, draws, losses) -> {
+                int[] total = totals.computeIfAbsent(name, k -> new int[3]);
+                total[0] += wins;
+                total[1] += draws;
+                total[2] += losses;
+            });
+        }
+
+        Path temp = dir.resolve(PREFIX + "compacting" + SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(COMPACTED);
+            out.write(new byte[3]);
+            for (HashMap.Entry<String, int[]> e : totals.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(TOTAL);
+                out.writeByte(name.length);
+                out.write(name);
+                for (int count : e.getValue()) out.writeInt(count);
+            }
+        }
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+        Files.move(temp, path(closed), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (int i = 0; i < segments.length && segments[i] < closed; i++) Files.deleteIfExists(path(segments[i]));
+        return Files.size(path(closed));
+    }
+
+    /**
+     * Compact every segment now and wait until it is done.
+     * @throws IOException if the compaction fails
+     */
+    public synchronized void compact() throws IOException {
+        awaitCompaction();
+        startCompaction();
+        awaitCompaction();
+    }
+
+    /**
+     * Wait for the compaction in progress, if there is one.
+     * @throws IOException if the compaction failed
+     */
+    private synchronized void awaitCompaction() throws IOException {
+        boolean interrupted = false;
+        while (compactor != null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (compactionError != null) throw compactionError;
+    }
+
+    /**
+     * Return the results of a player.
+     * @param name the player
+     * @return the standing, null if the player has no result.
+     */
+    public synchronized Standing get(String name) {
+        Player p = players.get(name);
+        return p == null ? null : new Standing(p);
+    }
+
+    /**
+     * Return the best players.
+     * @param k the most players to return
+     * @return up to k standings, best first.
+     */
+    public synchronized List<Standing> top(int k) {
+        ArrayList<Standing> top = new ArrayList<>(Math.min(k, players.size()));
+        for (Bucket bucket : ranking.descendingMap().values()) {
+            int left = k - top.size();
+            if (left <= 0) break;
+            Player[] tied;
+            if (bucket.size <= left) {
+                tied = Arrays.copyOf(bucket.players, bucket.size);
+            } else {
+                // only the best left players of a large tie, kept with the worst on top
+                PriorityQueue<Player> best = new PriorityQueue<>(left + 1, (a, b) -> compare(b, a));
+                for (int i = 0; i < bucket.size; i++) {
+                    best.add(bucket.players[i]);
+                    if (best.size() > left) best.poll();
+                }
+                tied = best.toArray(new Player[0]);
+            }
+            Arrays.sort(tied, Leaderboard::compare);
+            for (Player p : tied) top.add(new Standing(p));
+        }
+        return top;
+    }
+
+    /**
+     * Return the number of players with a result.
+     * @return number of players.
+     */
+    public synchronized int getPlayerCount() {
+        return players.size();
+    }
+
+    /**
+     * Wait for the compaction in progress, close the newest segment and release the directory.
+     * @throws IOException if the segment can't be closed, or the last compaction failed
+     */
+    public synchronized void close() throws IOException {
+        try {
+            awaitCompaction();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                lockChannel.close();
+            }
+        }
+    }
+
+    /**
+     * Order players from best to worst.
+     * @param a a player
+     * @param b another player
+     * @return negative if a ranks above b.
+     */
+    private static int compare(Player a, Player b) {
+        if (a.points() != b.points()) return Long.compare(b.points(), a.points());
+        if (a.wins != b.wins) return Integer.compare(b.wins, a.wins);
+        return a.name.compareTo(b.name);
+    }
+
+    /**
+     * Results of a player as counted in memory.
+     */
+    private static final class Player {
+        final String name;
+        int wins, draws, losses;
+        Bucket bucket;
+        int slot;
+
+        /**
+         * Create a player without results.
+         * @param name the name
+         */
+        Player(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Return the ranking points.
+         * @return 2 per win plus 1 per draw.
+         */
+        long points() {
+            return 2L * wins + draws;
+        }
+    }
+
+    /**
+     * The players with the same points, in no order.
+     */
+    private static final class Bucket {
+        Player[] players = new Player[4];
+        int size;
+
+        /**
+         * Add a player.
+         * @param p the player, in no bucket
+         */
+        void add(Player p) {
+            if (size == players.length) players = Arrays.copyOf(players, 2 * size);
+            p.bucket = this;
+            p.slot = size;
+            players[size++] = p;
+        }
+
+        /**
+         * Remove a player, moving the last one into its slot.
+         * @param p the player, in this bucket
+         * @return true if the bucket is now empty.
+         */
+        boolean remove(Player p) {
+            Player last = players[--size];
+            players[p.slot] = last;
+            last.slot = p.slot;
+            players[size] = null;
+            p.bucket = null;
+            return size == 0;
+        }
+    }
+
+    /**
+     * The results of a player at the time they were asked for.
+     */
+    public static final class Standing {
+        private final String name;
+        private final int wins, draws, losses;
+
+        /**
+         * Copy the results of a player.
+         * @param p the player
+         */
+        private Standing(Player p) {
+            name = p.name;
+            wins = p.wins;
+            draws = p.draws;
+            losses = p.losses;
+        }
+
+        /**
+         * Return the name of the player.
+         * @return the name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Return the number of games won.
+         * @return wins.
+         */
+        public int getWins() {
+            return wins;
+        }
+
+        /**
+         * Return the number of games drawn.
+         * @return draws.
+         */
+        public int getDraws() {
+            return draws;
+        }
+
+        /**
+         * Return the number of games lost.
+         * @return losses.
+         */
+        public int getLosses() {
+            return losses;
+        }
+
+        /**
+         * Return the ranking points.
+         * @return 2 per win plus 1 per draw.
+         */
+        public long getPoints() {
+            return 2L * wins + draws;
+        }
+
+        /**
+         * Return the standing as "name: wins/draws/losses".
+         * @return string form of the standing.
+         */
+        @Override
+        public String toString() {
+            return name + ": " + wins + "/" + draws + "/" + losses;
+        }
+    }
+}
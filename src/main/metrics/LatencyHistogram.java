@@ -0,0 +1,113 @@
+package main.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds, recorded without locks from any number of threads.
+ *
+ * Like HdrHistogram, values are counted in log-linear buckets: every value below
+ * 2 * SUB_BUCKETS has its own bucket, and each power of two above is split into SUB_BUCKETS
+ * buckets of equal width, so a value is reported within 1 / SUB_BUCKETS (about 3%) of what
+ * was recorded, whatever its magnitude. The buckets of the whole long range take 15KB.
+ */
+public class LatencyHistogram {
+    /** Buckets per power of two. */
+    public static final int SUB_BUCKETS = 32;
+
+    private static final int SUB_BITS = 5;
+    private static final int BUCKETS = 2 * SUB_BUCKETS + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder(), total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Count one value.
+     * @param nanos the latency, negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(index(nanos));
+        count.increment();
+        total.add(nanos);
+        if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Return the bucket of a value.
+     * @param value the value, at least 0
+     * @return the bucket index.
+     */
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) return (int) value;
+        int shift = 64 - Long.numberOfLeadingZeros(value) - (SUB_BITS + 1);
+        return 2 * SUB_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Return the largest value counted in a bucket.
+     * @param index the bucket index
+     * @return the highest value of the bucket.
+     */
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) return index;
+        int shift = (index - 2 * SUB_BUCKETS) / SUB_BUCKETS + 1;
+        long mantissa = (index - 2 * SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Return the number of values recorded.
+     * @return the count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Return the sum of the values recorded.
+     * @return the total in nanoseconds.
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Return the largest value recorded.
+     * @return the maximum in nanoseconds, 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Return the value below which a share of the recorded values fall, to the precision of
+     * the buckets. Values recorded meanwhile may or may not be included.
+     * @param percentile the share, from 0 to 100
+     * @return the value in nanoseconds, 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) recorded += counts.get(i);
+        if (recorded == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Forget every value. Values recorded meanwhile may or may not be kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+}
@@ -0,0 +1,213 @@
+package main.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.function.ToLongFunction;
+
+/**
+ * Call counts and latency histograms of the hot operations of a game, exposed as a text
+ * report and through JMX, with a JFR event for every operation slower than a threshold.
+ *
+ * Instrumentation is off unless the JVM is started with -Dchess.metrics=true. ENABLED is a
+ * constant, so the JIT compiler removes the timing code from the instrumented methods when
+ * it is off; the slow threshold defaults to 1000 microseconds, or -Dchess.metrics.slowMicros.
+ *
+ * An instrumented method times itself like this:
+ *   if (!Metrics.ENABLED) return doWork();
+ *   long start = System.nanoTime();
+ *   boolean result = doWork();
+ *   Metrics.record(Metrics.MOVE, start);
+ */
+public final class Metrics {
+    /** True if the operations are timed. */
+    public static final boolean ENABLED = Boolean.getBoolean("chess.metrics");
+    /** Instrumented operations. */
+    public static final int MOVE = 0, VALIDATE = 1, CHECKMATE = 2, UNDO = 3, RENDER = 4;
+    /** Name the MXBean is registered under. */
+    public static final String OBJECT_NAME = "main:type=Metrics";
+
+    private static final String[] NAMES = {"movePieceTo", "isValidMove", "checkCheckmate", "undo", "render"};
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[NAMES.length];
+    private static volatile long slowNanos = Long.getLong("chess.metrics.slowMicros", 1000) * 1000;
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) HISTOGRAMS[i] = new LatencyHistogram();
+    }
+
+    private Metrics() {}
+
+    /**
+     * Record the latency of an operation, and a JFR event if it was slow.
+     * @param operation one of the operations, e.g. MOVE
+     * @param start System.nanoTime() when the operation started
+     */
+    public static void record(int operation, long start) {
+        long latency = System.nanoTime() - start;
+        HISTOGRAMS[operation].record(latency);
+        if (latency >= slowNanos) {
+            SlowOperationEvent event = new SlowOperationEvent();
+            if (event.shouldCommit()) {
+                event.operation = NAMES[operation];
+                event.latency = latency;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Return the histogram of an operation.
+     * @param operation one of the operations, e.g. MOVE
+     * @return the histogram.
+     */
+    public static LatencyHistogram get(int operation) {
+        return HISTOGRAMS[operation];
+    }
+
+    /**
+     * Return the name of an operation.
+     * @param operation one of the operations, e.g. MOVE
+     * @return the name, e.g. "movePieceTo".
+     */
+    public static String getName(int operation) {
+        return NAMES[operation];
+    }
+
+    /**
+     * Return the latency from which an operation is recorded as a JFR event.
+     * @return the threshold in nanoseconds.
+     */
+    public static long getSlowNanos() {
+        return slowNanos;
+    }
+
+    /**
+     * Set the latency from which an operation is recorded as a JFR event.
+     * @param nanos the threshold in nanoseconds
+     */
+    public static void setSlowNanos(long nanos) {
+        slowNanos = nanos;
+    }
+
+    /**
+     * Forget every recorded latency.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) histogram.reset();
+    }
+
+    /**
+     * Return a table of the count and latencies, in microseconds, of every operation.
+     * @return the report, one line per operation after a header.
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder(String.format("%-15s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "mean us", "p50 us", "p99 us", "max us"));
+        for (int i = 0; i < NAMES.length; i++) {
+            LatencyHistogram h = HISTOGRAMS[i];
+            long count = h.getCount();
+            report.append(String.format("%-15s %10d %10.2f %10.2f %10.2f %10.2f%n", NAMES[i], count,
+                    count == 0 ? 0 : h.getTotal() / 1e3 / count, h.getValueAtPercentile(50) / 1e3,
+                    h.getValueAtPercentile(99) / 1e3, h.getMax() / 1e3));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Register the MXBean with the platform MBean server, if it isn't registered yet.
+     * @throws JMException if it can't be registered
+     */
+    public static void registerMBean() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new View(), name);
+        }
+    }
+
+    /**
+     * The MXBean, reading the static histograms.
+     */
+    private static final class View implements MetricsMXBean {
+        /**
+         * Return one value per operation.
+         * @param value the value of a histogram
+         * @return the values.
+         */
+        private static long[] each(ToLongFunction<LatencyHistogram> value) {
+            long[] values = new long[HISTOGRAMS.length];
+            for (int i = 0; i < values.length; i++) values[i] = value.applyAsLong(HISTOGRAMS[i]);
+            return values;
+        }
+
+        /**
+         * Return the names of the instrumented operations.
+         * @return the names.
+         */
+        public String[] getOperations() {
+            return NAMES.clone();
+        }
+
+        /**
+         * Return the number of calls of each operation.
+         * @return the counts.
+         */
+        public long[] getCounts() {
+            return each(LatencyHistogram::getCount);
+        }
+
+        /**
+         * Return the median latency of each operation.
+         * @return the medians.
+         */
+        public long[] getMedianNanos() {
+            return each(h -> h.getValueAtPercentile(50));
+        }
+
+        /**
+         * Return the 99th percentile latency of each operation.
+         * @return the 99th percentiles.
+         */
+        public long[] getP99Nanos() {
+            return each(h -> h.getValueAtPercentile(99));
+        }
+
+        /**
+         * Return the largest latency of each operation.
+         * @return the maxima.
+         */
+        public long[] getMaxNanos() {
+            return each(LatencyHistogram::getMax);
+        }
+
+        /**
+         * Return the latency from which an operation is recorded as a JFR event.
+         * @return the threshold.
+         */
+        public long getSlowNanos() {
+            return Metrics.getSlowNanos();
+        }
+
+        /**
+         * Set the latency from which an operation is recorded as a JFR event.
+         * @param nanos the threshold
+         */
+        public void setSlowNanos(long nanos) {
+            Metrics.setSlowNanos(nanos);
+        }
+
+        /**
+         * Return the text dump of every operation.
+         * @return the report.
+         */
+        public String getReport() {
+            return report();
+        }
+
+        /**
+         * Forget every recorded latency.
+         */
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package main.metrics;
+
+/**
+ * JMX view of Metrics, registered as Metrics.OBJECT_NAME by Metrics.registerMBean.
+ * Latencies are in nanoseconds; arrays are indexed like getOperations().
+ */
+public interface MetricsMXBean {
+    /**
+     * Return the names of the instrumented operations.
+     * @return the names.
+     */
+    String[] getOperations();
+
+    /**
+     * Return the number of calls of each operation.
+     * @return the counts.
+     */
+    long[] getCounts();
+
+    /**
+     * Return the median latency of each operation.
+     * @return the medians.
+     */
+    long[] getMedianNanos();
+
+    /**
+     * Return the 99th percentile latency of each operation.
+     * @return the 99th percentiles.
+     */
+    long[] getP99Nanos();
+
+    /**
+     * Return the largest latency of each operation.
+     * @return the maxima.
+     */
+    long[] getMaxNanos();
+
+    /**
+     * Return the latency from which an operation is recorded as a JFR event.
+     * @return the threshold.
+     */
+    long getSlowNanos();
+
+    /**
+     * Set the latency from which an operation is recorded as a JFR event.
+     * @param nanos the threshold
+     */
+    void setSlowNanos(long nanos);
+
+    /**
+     * Return the text dump of every operation, see Metrics.report.
+     * @return the report.
+     */
+    String getReport();
+
+    /**
+     * Forget every recorded latency.
+     */
+    void reset();
+}
@@ -0,0 +1,25 @@
+package main.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of an instrumented operation that took at least Metrics.getSlowNanos(), with
+ * the stack trace of the thread. Recorded only while a flight recording is running, e.g.
+ * java -XX:StartFlightRecording=filename=chess.jfr -Dchess.metrics=true main.Chess
+ */
+@Name("main.SlowOperation")
+@Label("Slow Chess Operation")
+@Category("Chess")
+@Description("A move, validation, checkmate test, undo or board drawing above the slow threshold")
+class SlowOperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
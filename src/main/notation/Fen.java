@@ -0,0 +1,162 @@
+package main.notation;
+
+import main.Board;
+import main.Chess;
+import main.pieces.*;
+
+/**
+ * Forsyth-Edwards Notation (FEN) of positions, extended for this game:
+ *   - Tanks and Soldiers are written T and S (t and s for 'B'), next to K Q R B N P.
+ *   - Boards other than 8x8 have as many ranks (separated by '/') and files as they need.
+ *   - There is no castling or en passant: those fields are written "-" and ignored when
+ *     read, so FEN from standard chess loads as well.
+ *   - An optional seventh field, "w" or "b", names the lower player, whose pawns move up.
+ *     Without it 'W' is the lower player, as in standard FEN.
+ * A pawn still on the row it started on may make its double step.
+ *
+ * The setup of the default game is "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1",
+ * and that of the custom pieces "rnbqkbnr/ptppppsp/8/8/8/8/PTPPPPSP/RNBQKBNR w - - 0 1".
+ */
+public final class Fen {
+    /** FEN of the default setup. */
+    public static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1";
+
+    private Fen() {}
+
+    /**
+     * Return the FEN of the current position of game.
+     * @param game the game
+     * @return the FEN of the position.
+     */
+    public static String write(Chess game) {
+        Board board = game.getBoard();
+        StringBuilder fen = new StringBuilder(96);
+        for (int r = 0; r < board.getNumRows(); r++) {
+            if (r > 0) fen.append('/');
+            int empty = 0;
+            for (int c = 0; c < board.getNumCols(); c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p == null) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) fen.append(empty);
+                empty = 0;
+                char letter = San.PIECE_LETTERS.charAt(p.getTypeId());
+                fen.append(p.getPlayer() == 'W' ? letter : Character.toLowerCase(letter));
+            }
+            if (empty > 0) fen.append(empty);
+        }
+        fen.append(game.getCurPlayer() == 'W' ? " w" : " b").append(" - - 0 ").append(1 + board.getUndoSize() / 2);
+        if (!game.isWLowerPlayer()) fen.append(" b");
+        return fen.toString();
+    }
+
+    /**
+     * Create a game from a FEN position. If the position is the setup of a Chess
+     * constructor, the game is the same as one created by that constructor.
+     * @param fen the FEN
+     * @return a new game in that position.
+     * @throws IllegalArgumentException if fen isn't a valid position
+     */
+    public static Chess read(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 2 || fields.length > 7) throw new IllegalArgumentException("Not a FEN: " + fen);
+        char curPlayer = side(fields[1], fen);
+        boolean WIsLower = fields.length < 7 || side(fields[6], fen) == 'W';
+
+        String[] ranks = fields[0].split("/");
+        int rows = ranks.length, cols = width(ranks[0], fen);
+        if (cols == 0 || cols > 26) throw new IllegalArgumentException("Bad board width in FEN: " + fen);
+        Board board = new Board(rows, cols);
+        int kings = 0; // 1 per 'W' King, 16 per 'B' King
+        boolean custom = false;
+        for (int r = 0; r < rows; r++) {
+            if (width(ranks[r], fen) != cols) throw new IllegalArgumentException("Ranks of different widths in FEN: " + fen);
+            int c = 0;
+            for (int i = 0; i < ranks[r].length(); i++) {
+                char ch = ranks[r].charAt(i);
+                if (Character.isDigit(ch)) {
+                    int empty = 0;
+                    while (i < ranks[r].length() && Character.isDigit(ranks[r].charAt(i))) {
+                        empty = empty * 10 + ranks[r].charAt(i++) - '0';
+                    }
+                    i--;
+                    c += empty;
+                    continue;
+                }
+                char player = Character.isUpperCase(ch) ? 'W' : 'B';
+                boolean down = (player == 'W') != WIsLower;
+                Piece p = newPiece(Character.toUpperCase(ch), player, down);
+                if (p == null) throw new IllegalArgumentException("Unknown piece '" + ch + "' in FEN: " + fen);
+                board.setPieceAt(p, r, c);
+                if (p.getTypeId() == Piece.KING) kings += player == 'W' ? 1 : 16;
+                if (p.getTypeId() >= Piece.TANK) custom = true;
+                if (p.getTypeId() == Piece.PAWN && r != (down ? 1 : rows - 2)) board.setFirstMoveFalse(p);
+                c++;
+            }
+        }
+        if (kings != 17) throw new IllegalArgumentException("Each player needs exactly one King in FEN: " + fen);
+
+        Chess game = new Chess(board, curPlayer, WIsLower);
+        if (rows == 8 && cols == 8) {
+            Chess setup = new Chess(curPlayer == 'W', WIsLower, rows, cols, "White", "Black", custom);
+            if (setup.getBoard().hash() == board.hash() && write(setup).equals(write(game))) return setup;
+        }
+        return game;
+    }
+
+    /**
+     * Return the player named by a side field.
+     * @param field "w" or "b"
+     * @param fen the whole FEN, for the error message
+     * @return 'W' or 'B'.
+     */
+    private static char side(String field, String fen) {
+        if (field.equals("w")) return 'W';
+        if (field.equals("b")) return 'B';
+        throw new IllegalArgumentException("Bad side '" + field + "' in FEN: " + fen);
+    }
+
+    /**
+     * Return the number of squares a rank of the placement field covers.
+     * @param rank the rank
+     * @param fen the whole FEN, for the error message
+     * @return number of columns.
+     */
+    private static int width(String rank, String fen) {
+        int width = 0, empty = 0;
+        for (int i = 0; i < rank.length(); i++) {
+            char ch = rank.charAt(i);
+            if (Character.isDigit(ch)) {
+                empty = empty * 10 + ch - '0';
+                if (empty > 26) throw new IllegalArgumentException("Bad board width in FEN: " + fen);
+                continue;
+            }
+            width += empty + 1;
+            empty = 0;
+        }
+        return width + empty;
+    }
+
+    /**
+     * Create a piece from its upper case letter.
+     * @param letter one of San.PIECE_LETTERS
+     * @param player 'W' or 'B'
+     * @param down true if the pawns of player move down
+     * @return the piece, null if letter names none.
+     */
+    private static Piece newPiece(char letter, char player, boolean down) {
+        switch (letter) {
+            case 'P': return new Pawn(player, down);
+            case 'N': return new Knight(player);
+            case 'B': return new Bishop(player);
+            case 'R': return new Rook(player);
+            case 'Q': return new Queen(player);
+            case 'K': return new King(player);
+            case 'T': return new Tank(player);
+            case 'S': return new Soldier(player);
+            default: return null;
+        }
+    }
+}
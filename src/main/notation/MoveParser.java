@@ -0,0 +1,134 @@
+package main.notation;
+
+import main.Board;
+import main.Move;
+
+/**
+ * Reads a move as typed by a player or sent over the network, in any of the forms the
+ * game accepts: four integers "r1 c1 r2 c2" (see Move.parse), long algebraic "e2e4" or
+ * SAN "Nf3" (see San.parse). Text is read in place, from a CharSequence or from ASCII
+ * bytes, and surrounding spaces, tabs and line ends are skipped.
+ *
+ * Parsing allocates nothing: the legal moves are generated into a buffer of the parser
+ * and the text is read through a view it reuses. Not safe for use by several threads,
+ * create one parser per thread instead.
+ */
+public final class MoveParser {
+    private int[] moves = new int[Move.MAX_MOVES];
+    private final Text text = new Text();
+
+    /**
+     * Parse a move of board.getSideToMove().
+     * @param board the position
+     * @param chars the move
+     * @return the packed move, -1 if chars isn't a move. Moves in algebraic notation are
+     *         matched against the legal moves, so only legal ones parse; four integers are
+     *         returned as typed, legal or not.
+     */
+    public int parse(Board board, CharSequence chars) {
+        text.wrap(chars, null, 0, chars.length());
+        return parse(board);
+    }
+
+    /**
+     * Parse a move of board.getSideToMove() from ASCII bytes.
+     * @param board the position
+     * @param bytes the buffer
+     * @param offset index of the first byte of the move
+     * @param length number of bytes of the move
+     * @return the packed move, -1 if the bytes aren't a move, see parse(Board, CharSequence).
+     */
+    public int parse(Board board, byte[] bytes, int offset, int length) {
+        text.wrap(null, bytes, offset, length);
+        return parse(board);
+    }
+
+    /**
+     * Parse the wrapped text and drop it.
+     * @param board the position
+     * @return the packed move, -1 if the text isn't a move.
+     */
+    private int parse(Board board) {
+        text.trim();
+        int move = Move.parse(text);
+        if (move < 0 && text.length() > 0 && text.charAt(0) > '9') {
+            if (moves.length < board.getMoveBufferSize()) moves = new int[board.getMoveBufferSize()];
+            move = San.parse(board, text, moves);
+            if (move == 0) move = -1;
+        }
+        text.wrap(null, null, 0, 0);
+        return move;
+    }
+
+    /**
+     * A reusable view of characters or ASCII bytes.
+     */
+    private static final class Text implements CharSequence {
+        private CharSequence chars;
+        private byte[] bytes;
+        private int offset, length;
+
+        /**
+         * View part of chars or bytes.
+         * @param chars the characters, null to view bytes
+         * @param bytes the bytes, used if chars is null
+         * @param offset index of the first character
+         * @param length number of characters
+         */
+        void wrap(CharSequence chars, byte[] bytes, int offset, int length) {
+            this.chars = chars;
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Drop the white space at both ends of the view.
+         */
+        void trim() {
+            while (length > 0 && charAt(length - 1) <= ' ') length--;
+            while (length > 0 && charAt(0) <= ' ') {
+                offset++;
+                length--;
+            }
+        }
+
+        /**
+         * Return the number of characters.
+         * @return the length.
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Return a character.
+         * @param index the index, from 0 to length() - 1
+         * @return the character.
+         */
+        public char charAt(int index) {
+            return chars != null ? chars.charAt(offset + index) : (char) (bytes[offset + index] & 0xFF);
+        }
+
+        /**
+         * Return a copy of part of the view; the parsers never need one.
+         * @param start index of the first character
+         * @param end index after the last character
+         * @return the characters.
+         */
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        /**
+         * Return a copy of the view.
+         * @return the characters.
+         */
+        @Override
+        public String toString() {
+            StringBuilder copy = new StringBuilder(length);
+            for (int i = 0; i < length; i++) copy.append(charAt(i));
+            return copy.toString();
+        }
+    }
+}
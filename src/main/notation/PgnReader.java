@@ -0,0 +1,327 @@
+package main.notation;
+
+import main.Board;
+import main.Chess;
+import main.Move;
+import main.archive.GameArchive;
+import main.archive.GameArchiveWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads games from Portable Game Notation (PGN) one at a time, so files of any size are
+ * read in constant memory. The reader is a cursor: next reads the following game, whose
+ * tags, result and Chess, with its moves played, are then available.
+ *
+ * Moves are parsed with San against the legal moves of the game. A game with a [FEN] tag
+ * starts from that position, in the notation of Fen; one without starts from the default
+ * setup. Comments, variations, numeric annotation glyphs and escape lines are skipped.
+ * The first move that doesn't parse, e.g. a diagonal pawn capture of standard chess,
+ * stops the game there; getError tells which move it was. A game whose [FEN] tag can't be
+ * read has no Chess and all its moves are skipped, with the reason in getError.
+ *
+ * Usage: java main.notation.PgnReader games.pgn [archive] reads every game, prints how
+ * many were read and how fast, and appends the complete ones to a game archive.
+ */
+public class PgnReader implements Closeable {
+    private final Reader in;
+    private final char[] buffer = new char[1 << 16];
+    private int pos, len;
+    private boolean lineStart = true;
+    private final StringBuilder token = new StringBuilder(32);
+    private int[] moves = new int[Move.MAX_MOVES];
+    private final LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+    private Chess game;
+    private String result, error;
+    private int plies;
+
+    /**
+     * Create a reader.
+     * @param in the PGN text, read through an internal buffer
+     */
+    public PgnReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the next game.
+     * @return false if there are no more games.
+     * @throws IOException if the text can't be read
+     * @throws IllegalArgumentException if the [FEN] tag of the game isn't valid
+     */
+    public boolean next() throws IOException {
+        tags.clear();
+        game = null;
+        result = "*";
+        error = null;
+        plies = 0;
+
+        int ch = skipSpace();
+        while (ch == '[') {
+            readTag();
+            ch = skipSpace();
+        }
+        if (ch < 0 && tags.isEmpty()) return false;
+
+        String fen = tags.get("FEN");
+        Board board = null;
+        try {
+            game = fen != null ? Fen.read(fen) : new Chess();
+            board = game.getBoard();
+            if (moves.length < board.getMoveBufferSize()) moves = new int[board.getMoveBufferSize()];
+        } catch (IllegalArgumentException e) {
+            // like a move that doesn't parse: the moves are skipped, the next game is read
+            error = e.getMessage();
+        }
+        String tagResult = tags.get("Result");
+        if (tagResult != null) result = tagResult;
+
+        while ((ch = skipSpace()) >= 0 && ch != '[') {
+            if (ch == '{') {
+                skipTo('}');
+            } else if (ch == ';' || ch == '%' && lineStart) {
+                skipTo('\n');
+            } else if (ch == '(') {
+                skipVariation();
+            } else if (ch == '$') {
+                readToken();
+            } else {
+                readToken();
+                if (isResult()) {
+                    result = token.toString();
+                    break;
+                }
+                int start = 0;
+                while (start < token.length() && Character.isDigit(token.charAt(start))) start++;
+                if (start < token.length() && token.charAt(start) == '.') {
+                    while (start < token.length() && token.charAt(start) == '.') start++;
+                    token.delete(0, start);
+                }
+                if (token.length() == 0 || error != null) continue;
+                int move = San.parse(board, token, moves);
+                if (move == 0) {
+                    error = "Illegal or ambiguous move " + token + " at ply " + (plies + 1);
+                    continue;
+                }
+                board.makeMove(move);
+                game.setCurPlayer(board.getSideToMove());
+                plies++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the value of a tag of the current game.
+     * @param name the tag name, e.g. "White"
+     * @return the value, null if the game has no such tag.
+     */
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+
+    /**
+     * Return every tag of the current game, in the order read.
+     * @return the tags.
+     */
+    public Map<String, String> getTags() {
+        return Collections.unmodifiableMap(tags);
+    }
+
+    /**
+     * Return the current game, with every move read played.
+     * @return the game, null if its [FEN] tag isn't a position (see getError).
+     */
+    public Chess getGame() {
+        return game;
+    }
+
+    /**
+     * Return the result of the current game.
+     * @return "1-0", "0-1", "1/2-1/2" or "*".
+     */
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Return why the moves of the current game stopped early.
+     * @return the error, null if every move was played.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Return the number of moves of the current game played.
+     * @return number of moves.
+     */
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * Close the text.
+     * @throws IOException if it can't be closed
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Return true if the token is a game termination marker.
+     * @return true if the token is a result.
+     */
+    private boolean isResult() {
+        int n = token.length();
+        if (n == 1) return token.charAt(0) == '*';
+        return n == 3 && (token.charAt(0) == '1' || token.charAt(0) == '0') && token.charAt(1) == '-'
+                || n == 7 && token.charAt(0) == '1' && token.charAt(1) == '/' && token.charAt(3) == '-';
+    }
+
+    /**
+     * Return the next character without consuming it.
+     * @return the character, -1 at the end of the text.
+     * @throws IOException if the text can't be read
+     */
+    private int peek() throws IOException {
+        if (pos == len) {
+            len = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (len <= 0) {
+                len = 0;
+                return -1;
+            }
+        }
+        return buffer[pos];
+    }
+
+    /**
+     * Consume the next character.
+     * @return the character, -1 at the end of the text.
+     * @throws IOException if the text can't be read
+     */
+    private int read() throws IOException {
+        int ch = peek();
+        if (ch >= 0) {
+            pos++;
+            lineStart = ch == '\n';
+        }
+        return ch;
+    }
+
+    /**
+     * Skip white space.
+     * @return the next character, not consumed, -1 at the end of the text.
+     * @throws IOException if the text can't be read
+     */
+    private int skipSpace() throws IOException {
+        int ch;
+        while ((ch = peek()) >= 0 && Character.isWhitespace(ch)) read();
+        return ch;
+    }
+
+    /**
+     * Consume characters up to and including end.
+     * @param end the last character to consume
+     * @throws IOException if the text can't be read
+     */
+    private void skipTo(char end) throws IOException {
+        int ch;
+        while ((ch = read()) >= 0 && ch != end) {
+            // skipped
+        }
+    }
+
+    /**
+     * Consume a variation, with the variations and comments inside it.
+     * @throws IOException if the text can't be read
+     */
+    private void skipVariation() throws IOException {
+        int depth = 0, ch;
+        while ((ch = read()) >= 0) {
+            if (ch == '{') skipTo('}');
+            else if (ch == ';') skipTo('\n');
+            else if (ch == '(') depth++;
+            else if (ch == ')' && --depth == 0) return;
+        }
+    }
+
+    /**
+     * Read the characters up to white space or a delimiter into token.
+     * @throws IOException if the text can't be read
+     */
+    private void readToken() throws IOException {
+        token.setLength(0);
+        int ch;
+        while ((ch = peek()) >= 0 && !Character.isWhitespace(ch) && "{}()[];".indexOf(ch) < 0) {
+            token.append((char) read());
+        }
+        if (token.length() == 0) read(); // a stray ')' or '}'
+    }
+
+    /**
+     * Read a tag pair: [Name "Value"].
+     * @throws IOException if the text can't be read
+     */
+    private void readTag() throws IOException {
+        read();
+        skipSpace();
+        readToken();
+        String name = token.toString();
+        int ch = skipSpace();
+        token.setLength(0);
+        if (ch == '"') {
+            read();
+            while ((ch = read()) >= 0 && ch != '"') {
+                if (ch == '\\') ch = read();
+                if (ch >= 0) token.append((char) ch);
+            }
+        }
+        skipTo(']');
+        if (!name.isEmpty()) tags.put(name, token.toString());
+    }
+
+    /**
+     * Read a PGN file and optionally append its games to a game archive.
+     * @param args the PGN file, then the archive
+     * @throws IOException if a file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java main.notation.PgnReader games.pgn [archive]");
+            return;
+        }
+        long games = 0, plies = 0, broken = 0, archived = 0;
+        long start = System.nanoTime();
+        try (PgnReader reader = new PgnReader(Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.ISO_8859_1));
+             GameArchiveWriter archive = args.length > 1 ? new GameArchiveWriter(Paths.get(args[1])) : null) {
+            while (reader.next()) {
+                games++;
+                plies += reader.getPlies();
+                if (reader.getError() != null) {
+                    broken++;
+                    continue;
+                }
+                if (archive == null || !reader.getGame().isFromSetup()) continue;
+                String result = reader.getResult();
+                archive.append(reader.getGame(), result.equals("1-0") ? GameArchive.WHITE_WINS
+                        : result.equals("0-1") ? GameArchive.BLACK_WINS
+                        : result.equals("1/2-1/2") ? GameArchive.DRAW : GameArchive.UNFINISHED);
+                archived++;
+            }
+        }
+        double seconds = Math.max(1, System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games, %d moves, %d with a bad position or a move that isn't legal here, %d archived%n",
+                games, plies, broken, archived);
+        System.out.printf("Read in %.3f s: %.0f games/s, %.0f moves/s%n", seconds, games / seconds, plies / seconds);
+    }
+}
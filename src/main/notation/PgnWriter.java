@@ -0,0 +1,150 @@
+package main.notation;
+
+import main.Board;
+import main.Chess;
+import main.Move;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes games as Portable Game Notation (PGN), one game at a time, so any number of games
+ * can be written in constant memory. Each game gets the seven tag roster (Event, Site,
+ * Date, Round, White, Black, Result), then the other given tags, then [SetUp "1"] and
+ * [FEN] when it didn't start from the default setup, e.g. with custom pieces (see Fen).
+ * Moves are written with San and lines are kept within 80 characters.
+ */
+public class PgnWriter implements Closeable {
+    /** Tags every game gets, in this order. */
+    public static final String[] ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+    private static final String[] DEFAULTS = {"?", "?", "????.??.??", "?", "?", "?", "*"};
+    private static final int LINE = 80;
+
+    private final Writer out;
+    private int[] moves = new int[Move.MAX_MOVES];
+
+    /**
+     * Create a writer.
+     * @param out where the PGN is written, through an internal buffer
+     */
+    public PgnWriter(Writer out) {
+        this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+    }
+
+    /**
+     * Write the moves game has made so far. The moves are taken back to find the position
+     * the game started from and made again, so the game is left as it was.
+     * @param game the game
+     * @param tags tags of the game, may be null; missing roster tags are written as unknown
+     * @param result "1-0", "0-1", "1/2-1/2" or "*"
+     * @throws IOException if the PGN can't be written
+     */
+    public void write(Chess game, Map<String, String> tags, String result) throws IOException {
+        Board board = game.getBoard();
+        int plies = board.getUndoSize();
+        int[] line = new int[plies];
+        for (int i = 0; i < plies; i++) line[i] = board.getMoveAt(i);
+        char curPlayer = game.getCurPlayer();
+        while (board.unmakeMove() != 0) {
+            // back to the start
+        }
+        game.setCurPlayer(board.getSideToMove());
+        String start = Fen.write(game);
+        if (moves.length < board.getMoveBufferSize()) moves = new int[board.getMoveBufferSize()];
+
+        try {
+            for (int i = 0; i < ROSTER.length; i++) {
+                String value = i == ROSTER.length - 1 ? result : tags != null ? tags.get(ROSTER[i]) : null;
+                writeTag(ROSTER[i], value != null ? value : DEFAULTS[i]);
+            }
+            if (tags != null) {
+                for (Map.Entry<String, String> tag : tags.entrySet()) {
+                    if (!isRosterOrSetup(tag.getKey())) writeTag(tag.getKey(), tag.getValue());
+                }
+            }
+            if (!start.equals(Fen.START)) {
+                writeTag("SetUp", "1");
+                writeTag("FEN", start);
+            }
+            out.write('\n');
+
+            int column = 0, number = 1;
+            for (int i = 0; i < plies; i++) {
+                String text = "";
+                if (board.getSideToMove() == 'W') text = number + ". ";
+                else if (i == 0) text = number + "... ";
+                text += San.toSan(board, line[i], moves);
+                if (board.getSideToMove() == 'B') number++;
+                column = append(text, column);
+                board.makeMove(line[i]);
+            }
+            append(result, column);
+            out.write("\n\n");
+        } finally {
+            for (int i = board.getUndoSize(); i < plies; i++) board.makeMove(line[i]);
+            game.setCurPlayer(curPlayer);
+        }
+    }
+
+    /**
+     * Flush the buffered PGN.
+     * @throws IOException if it can't be written
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flush and close the PGN.
+     * @throws IOException if it can't be written
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Write text to the movetext, starting a new line if it wouldn't fit.
+     * @param text the text
+     * @param column length of the current line
+     * @return length of the current line afterwards.
+     * @throws IOException if it can't be written
+     */
+    private int append(String text, int column) throws IOException {
+        if (column > 0 && column + 1 + text.length() > LINE) {
+            out.write('\n');
+            column = 0;
+        } else if (column > 0) {
+            out.write(' ');
+            column++;
+        }
+        out.write(text);
+        return column + text.length();
+    }
+
+    /**
+     * Write a tag pair.
+     * @param name the tag name
+     * @param value the value, escaped as needed
+     * @throws IOException if it can't be written
+     */
+    private void writeTag(String name, String value) throws IOException {
+        out.write('[');
+        out.write(name);
+        out.write(" \"");
+        out.write(value.replace("\\", "\\\\").replace("\"", "\\\""));
+        out.write("\"]\n");
+    }
+
+    /**
+     * Return true if the tag is written by the writer itself.
+     * @param name the tag name
+     * @return true for the roster tags, SetUp and FEN.
+     */
+    private static boolean isRosterOrSetup(String name) {
+        for (String tag : ROSTER) if (tag.equals(name)) return true;
+        return name.equals("SetUp") || name.equals("FEN");
+    }
+}
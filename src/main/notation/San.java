@@ -0,0 +1,197 @@
+package main.notation;
+
+import main.Board;
+import main.Move;
+import main.pieces.Piece;
+
+/**
+ * Standard algebraic notation (SAN) of moves, as used in PGN: "e4", "Nf3", "Rxe8+",
+ * "Nbd7", "Qh4#". Files are letters from 'a' at column 0 and ranks are numbers from 1 at
+ * the last row, so on the default board 'W' starts on ranks 1 and 2 when it is the lower
+ * player. Pieces are written K, Q, R, B, N, and T and S for the custom Tank and Soldier.
+ *
+ * Moves are parsed by matching the text against the legal moves of the player, so a move
+ * that parses is legal. Pawns capture straight ahead in this game; like every pawn capture
+ * in SAN, the file the pawn leaves is written first ("exe5"). There is no castling,
+ * promotion or en passant, so "O-O" and "e8=Q" never parse. Long algebraic forms such as
+ * "e2e4", "e2-e4" and "Ng1-f3" are accepted as well.
+ */
+public final class San {
+    /** Letters of the piece types, indexed by Piece.getTypeId(). */
+    public static final String PIECE_LETTERS = "PNBRQKTS";
+
+    private San() {}
+
+    /**
+     * Return the name of a square, e.g. "e4".
+     * @param board the board
+     * @param r the row number
+     * @param c the column number
+     * @return the square name.
+     */
+    public static String square(Board board, int r, int c) {
+        return (char) ('a' + c) + Integer.toString(board.getNumRows() - r);
+    }
+
+    /**
+     * Return the SAN of a legal move of board.getSideToMove(), with "+" for check and "#"
+     * for checkmate.
+     * @param board the position, left as it was
+     * @param move the packed move
+     * @return the SAN of the move.
+     */
+    public static String toSan(Board board, int move) {
+        return toSan(board, move, new int[board.getMoveBufferSize()]);
+    }
+
+    /**
+     * Return the SAN of a legal move of board.getSideToMove(), with "+" for check and "#"
+     * for checkmate.
+     * @param board the position, left as it was
+     * @param move the packed move
+     * @param moves buffer for the legal moves, board.getMoveBufferSize() is always enough
+     * @return the SAN of the move.
+     */
+    public static String toSan(Board board, int move, int[] moves) {
+        int r1 = Move.getFromRow(move), c1 = Move.getFromCol(move);
+        int r2 = Move.getToRow(move), c2 = Move.getToCol(move);
+        Piece p = board.getPieceAt(r1, c1);
+        char player = board.getSideToMove();
+        boolean capture = board.getPieceAt(r2, c2) != null;
+        StringBuilder san = new StringBuilder(8);
+
+        if (p.getTypeId() == Piece.PAWN) {
+            if (capture) san.append((char) ('a' + c1)).append('x');
+        } else {
+            san.append(PIECE_LETTERS.charAt(p.getTypeId()));
+            boolean ambiguous = false, sameFile = false, sameRank = false;
+            int n = board.generateLegalMoves(player, moves);
+            for (int i = 0; i < n; i++) {
+                int other = moves[i];
+                if (other == move || (other & 0xFFFF) != (move & 0xFFFF)) continue;
+                Piece q = board.getPieceAt(Move.getFromRow(other), Move.getFromCol(other));
+                if (q.getTypeId() != p.getTypeId()) continue;
+                ambiguous = true;
+                sameFile |= Move.getFromCol(other) == c1;
+                sameRank |= Move.getFromRow(other) == r1;
+            }
+            if (ambiguous) {
+                if (!sameFile) san.append((char) ('a' + c1));
+                else if (!sameRank) san.append(board.getNumRows() - r1);
+                else san.append(square(board, r1, c1));
+            }
+            if (capture) san.append('x');
+        }
+        san.append(square(board, r2, c2));
+
+        char other = player == 'W' ? 'B' : 'W';
+        board.makeMove(move);
+        Piece king = board.getKing(other);
+        if (king != null && board.isSquareAttacked(king.getRow(), king.getCol(), player)) {
+            san.append(board.hasLegalMove(other) ? '+' : '#');
+        }
+        board.unmakeMove();
+        return san.toString();
+    }
+
+    /**
+     * Find the legal move of board.getSideToMove() written as san.
+     * @param board the position
+     * @param san the move in SAN or long algebraic notation
+     * @return the packed move, 0 if no legal move or more than one matches.
+     */
+    public static int parse(Board board, CharSequence san) {
+        return parse(board, san, new int[board.getMoveBufferSize()]);
+    }
+
+    /**
+     * Find the legal move of board.getSideToMove() written as san, without allocating.
+     * @param board the position
+     * @param san the move in SAN or long algebraic notation
+     * @param moves buffer for the legal moves, board.getMoveBufferSize() is always enough
+     * @return the packed move, 0 if no legal move or more than one matches.
+     */
+    public static int parse(Board board, CharSequence san, int[] moves) {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0) end--;
+
+        int start = 0, type = Piece.PAWN;
+        if (end > 0 && san.charAt(0) != 'P' && PIECE_LETTERS.indexOf(san.charAt(0)) > 0) {
+            type = PIECE_LETTERS.indexOf(san.charAt(0));
+            start = 1;
+        } else if (end > 0 && san.charAt(0) == 'P') {
+            start = 1;
+        }
+
+        // destination: a file letter followed by the rank digits, at the end
+        int rankStart = end;
+        while (rankStart > start && isDigit(san.charAt(rankStart - 1))) rankStart--;
+        if (rankStart == end || rankStart - 1 < start || !isFile(san.charAt(rankStart - 1))) return 0;
+        int toRank = number(san, rankStart, end);
+        int toR = board.getNumRows() - toRank, toC = san.charAt(rankStart - 1) - 'a';
+        if (!board.isValidLocation(toR, toC)) return 0;
+
+        // an optional capture or dash before the destination, then optional origin file and rank
+        int i = start, fromR = -1, fromC = -1;
+        int stop = rankStart - 1;
+        boolean capture = stop > start && (san.charAt(stop - 1) == 'x' || san.charAt(stop - 1) == ':');
+        if (capture || stop > start && san.charAt(stop - 1) == '-') stop--;
+        if (i < stop && isFile(san.charAt(i))) fromC = san.charAt(i++) - 'a';
+        int digits = i;
+        while (digits < stop && isDigit(san.charAt(digits))) digits++;
+        if (digits > i) {
+            fromR = board.getNumRows() - number(san, i, digits);
+            i = digits;
+        }
+        if (i != stop) return 0;
+        if (capture && board.getPieceAt(toR, toC) == null) return 0;
+        // "g1f3": a full origin square without a piece letter names the piece by its square
+        boolean anyType = start == 0 && fromR >= 0 && fromC >= 0;
+
+        int found = 0;
+        int n = board.generateLegalMoves(board.getSideToMove(), moves);
+        for (int k = 0; k < n; k++) {
+            int move = moves[k];
+            if (Move.getToRow(move) != toR || Move.getToCol(move) != toC) continue;
+            if (fromR >= 0 && Move.getFromRow(move) != fromR) continue;
+            if (fromC >= 0 && Move.getFromCol(move) != fromC) continue;
+            if (!anyType && board.getPieceAt(Move.getFromRow(move), Move.getFromCol(move)).getTypeId() != type) {
+                continue;
+            }
+            if (found != 0 && found != move) return 0;
+            found = move;
+        }
+        return found;
+    }
+
+    /**
+     * Return true if ch is a file letter.
+     * @param ch the character
+     * @return true if ch is from 'a' to 'z'.
+     */
+    private static boolean isFile(char ch) {
+        return ch >= 'a' && ch <= 'z';
+    }
+
+    /**
+     * Return true if ch is a decimal digit.
+     * @param ch the character
+     * @return true if ch is from '0' to '9'.
+     */
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    /**
+     * Return the decimal number in text from start (inclusive) to end (exclusive).
+     * @param text the text
+     * @param start index of the first digit
+     * @param end index after the last digit
+     * @return the number.
+     */
+    private static int number(CharSequence text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end && value < 1000; i++) value = value * 10 + text.charAt(i) - '0';
+        return value;
+    }
+}
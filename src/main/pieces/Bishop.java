@@ -25,6 +25,28 @@ public class Bishop extends Piece {
         return isDiagonalMove(r, c, board);
     }
 
+    /**
+     * Append all pseudo-legal moves of this piece to moves.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public int generateMoves(Board board, int[] moves, int count) {
+        if (!isOnBoard(board)) return count;
+        return generateDiagonalMoves(board, moves, count);
+    }
+
+    /**
+     * Set the bits of the squares this piece attacks.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public void addAttacks(Board board, long[] attacks, int offset) {
+        addDiagonalAttacks(board, attacks, offset);
+    }
+
     /**
      * Return the name of this piece.
      * @return the name of this piece.
@@ -33,19 +55,24 @@ public class Bishop extends Piece {
         return "Bishop";
     }
 
+    /**
+     * Return the type id of this piece.
+     * @return the type id of this piece.
+     */
+    public int getTypeId() {
+        return BISHOP;
+    }
+
     /**
      * Does nothing for this piece.
      */
     public void setFirstMoveFalse() {}
 
     /**
-     * Print the unicode of this piece.
+     * Return the unicode of this piece.
+     * @return the symbol of this piece.
      */
-    public void print() {
-        if (player == 'W') {
-            System.out.print("\u2657");
-        } else {
-            System.out.print("\u265D");
-        }
+    public char getSymbol() {
+        return player == 'W' ? '\u2657' : '\u265D';
     }
 }
@@ -22,15 +22,32 @@ public class Knight extends Piece {
      * @return true if it's a valid movement for this piece.
      */
     public boolean isValidMove(int r, int c, Board board) {
-        if (board != null && board.isValidLocation(r, c)) {
-            int rDiff = Math.abs(r - rowLoc);
-            int cDiff = Math.abs(c - colLoc);
-            if (rDiff == 1 && cDiff == 2) return true;
-            if (rDiff == 2 && cDiff == 1) return true;   
-        }
-        return false;
+        return isLeaperMove(r, c, board);
     }
-    
+
+    /**
+     * Append all pseudo-legal moves of this piece to moves.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public int generateMoves(Board board, int[] moves, int count) {
+        if (!isOnBoard(board)) return count;
+        return addLeaps(board, moves, count);
+    }
+
+    /**
+     * Set the bits of the squares this piece attacks.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public void addAttacks(Board board, long[] attacks, int offset) {
+        if (!isOnBoard(board)) return;
+        board.getAttackTables().addLeaperTargets(getTypeId(), rowLoc * board.getNumCols() + colLoc, attacks, offset);
+    }
+
     /**
      * Return the name of this piece.
      * @return the name of this piece.
@@ -39,6 +56,14 @@ public class Knight extends Piece {
         return "Knight";
     }
 
+    /**
+     * Return the type id of this piece.
+     * @return the type id of this piece.
+     */
+    public int getTypeId() {
+        return KNIGHT;
+    }
+
     /**
      * Does nothing for this piece.
      */
@@ -46,13 +71,10 @@ public class Knight extends Piece {
 
 
     /**
-     * Print the unicode of this piece.
+     * Return the unicode of this piece.
+     * @return the symbol of this piece.
      */
-    public void print() {
-        if (player == 'W') {
-            System.out.print("\u2658");
-        } else {
-            System.out.print("\u265E");
-        }
+    public char getSymbol() {
+        return player == 'W' ? '\u2658' : '\u265E';
     }
 }
@@ -41,6 +41,38 @@ public class Pawn extends Piece {
         return false;
     }
 
+    /**
+     * Append all pseudo-legal moves of this piece to moves.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public int generateMoves(Board board, int[] moves, int count) {
+        if (!isOnBoard(board)) return count;
+        int step = goDown ? 1 : -1;
+        count = addMove(rowLoc + step, colLoc, board, moves, count);
+        if (firstMove && board.isValidLocation(rowLoc + step, colLoc)
+                && board.getPieceAt(rowLoc + step, colLoc) == null) {
+            count = addMove(rowLoc + 2 * step, colLoc, board, moves, count);
+        }
+        return count;
+    }
+
+    /**
+     * Set the bits of the squares this piece attacks.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public void addAttacks(Board board, long[] attacks, int offset) {
+        int r = rowLoc + (goDown ? 1 : -1);
+        if (isOnBoard(board) && board.isValidLocation(r, colLoc)) {
+            int sq = r * board.getNumCols() + colLoc;
+            attacks[offset + (sq >>> 6)] |= 1L << sq;
+        }
+    }
+
     /**
      * Return the name of this piece.
      * @return the name of this piece.
@@ -49,18 +81,49 @@ public class Pawn extends Piece {
         return "Pawn";
     }
 
+    /**
+     * Return the type id of this piece.
+     * @return the type id of this piece.
+     */
+    public int getTypeId() {
+        return PAWN;
+    }
+
+    /**
+     * Return true if this pawn hasn't moved yet and may step two squares.
+     * @return true if this is the pawn's first move.
+     */
+    public boolean isFirstMove() {
+        return firstMove;
+    }
+
+    /**
+     * Return true if this pawn moves towards higher row numbers.
+     * @return true if this pawn goes down the board.
+     */
+    public boolean isGoingDown() {
+        return goDown;
+    }
+
+    /**
+     * Set firstMove attribute to false.
+     */
     public void setFirstMoveFalse() {
         firstMove = false;
     }
 
     /**
-     * Print the unicode of this piece.
+     * Set firstMove attribute back to true, when a first move is taken back.
      */
-    public void print() {
-        if (player == 'W') {
-            System.out.print("\u2659");
-        } else {
-            System.out.print("\u265F");
-        }
+    public void setFirstMoveTrue() {
+        firstMove = true;
+    }
+
+    /**
+     * Return the unicode of this piece.
+     * @return the symbol of this piece.
+     */
+    public char getSymbol() {
+        return player == 'W' ? '\u2659' : '\u265F';
     }
 }
@@ -1,11 +1,19 @@
 package main.pieces;
 
 import main.Board;
+import main.Move;
+import main.SlidingAttacks;
 
 /**
  * Abstract class for chess pieces.
  */
-public abstract class Piece {
+public abstract class Piece implements Cloneable {
+    /** Type ids returned by getTypeId(), used to index per-type tables. */
+    public static final int PAWN = 0, KNIGHT = 1, BISHOP = 2, ROOK = 3,
+            QUEEN = 4, KING = 5, TANK = 6, SOLDIER = 7;
+    /** Number of distinct piece types. */
+    public static final int NUM_TYPES = 8;
+
     protected int rowLoc = -1, colLoc = -1;
     protected char player = 'N';
 
@@ -43,6 +51,28 @@ public abstract class Piece {
         return player;
     }
 
+    /**
+     * Return a copy of this piece, same player and state, not placed on any board.
+     * @return the copy of this piece.
+     */
+    public Piece copy() {
+        try {
+            Piece p = (Piece) clone();
+            p.setLoc(-1, -1);
+            return p;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Return 0 for player 'W' and 1 for player 'B', used to index per-player tables.
+     * @return the index of the player of this piece.
+     */
+    public int getPlayerIndex() {
+        return player == 'W' ? 0 : 1;
+    }
+
     /**
      * Set the player of this piece.
      * @param c the player to be set.
@@ -53,6 +83,7 @@ public abstract class Piece {
 
     /**
      * Helper function for Rook and Queen's movement.
+     * On an 8x8 board the answer comes from the magic attack tables, otherwise the path is walked.
      * @param r the row number
      * @param c the column number
      * @param board current board
@@ -60,21 +91,12 @@ public abstract class Piece {
      */
     public boolean isStraightMove(int r, int c, Board board) {
         if (board != null && board.isValidLocation(r, c)) {
-            if (r == rowLoc && c != colLoc) {
-                int smaller = colLoc, bigger = c;
-                if (c < colLoc) { smaller = c; bigger = colLoc; }
-                for (int i = smaller + 1; i < bigger; i++) {
-                    if (board.getPieceAt(r, i) != null) return false;
+            if ((r == rowLoc) != (c == colLoc)) {
+                if (SlidingAttacks.supports(board) && isOnBoard(board)) {
+                    long attacks = SlidingAttacks.rookAttacks(rowLoc * 8 + colLoc, board.getOccupancy());
+                    return (attacks & 1L << (r * 8 + c)) != 0;
                 }
-                return true;
-            }
-            if (c == colLoc && r != rowLoc) {
-                int smaller = rowLoc, bigger = r;
-                if (c < colLoc) { smaller = r; bigger = rowLoc; }
-                for (int i = smaller + 1; i < bigger; i++) {
-                    if (board.getPieceAt(i, c) != null) return false;
-                }
-                return true;
+                return board.isPathClear(rowLoc, colLoc, r, c);
             }
         }
         return false;
@@ -82,6 +104,7 @@ public abstract class Piece {
 
     /**
      * Helper function for Bishop and Queen's movement.
+     * On an 8x8 board the answer comes from the magic attack tables, otherwise the path is walked.
      * @param r the row number
      * @param c the column number
      * @param board current board
@@ -91,22 +114,210 @@ public abstract class Piece {
         if (board != null && board.isValidLocation(r, c)) {
             int rDiff = r - rowLoc;
             int cDiff = c - colLoc;
-            if (rDiff == cDiff) {
-                for (int i = 1; i < rDiff; i++) {
-                    if (board.getPieceAt(rowLoc+i, colLoc+i) != null) return false;
+            if (rDiff == cDiff || rDiff == -cDiff) {
+                if (rDiff != 0 && SlidingAttacks.supports(board) && isOnBoard(board)) {
+                    long attacks = SlidingAttacks.bishopAttacks(rowLoc * 8 + colLoc, board.getOccupancy());
+                    return (attacks & 1L << (r * 8 + c)) != 0;
                 }
-                return true;
+                return board.isPathClear(rowLoc, colLoc, r, c);
             }
-            if (rDiff == -cDiff) {
-                for (int i = 1; i < rDiff; i++) {
-                    if (board.getPieceAt(rowLoc+i, colLoc-i) != null) return false;
-                }
-                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return true if this piece stands on a valid location of board.
+     * @param board current board
+     * @return true if this piece stands on board.
+     */
+    public boolean isOnBoard(Board board) {
+        return board != null && board.isValidLocation(rowLoc, colLoc);
+    }
+
+    /**
+     * Helper function for move generation. Append the move to (r, c) unless (r, c)
+     * is off the board or holds a piece of the same player.
+     * @param r the row number
+     * @param c the column number
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    protected int addMove(int r, int c, Board board, int[] moves, int count) {
+        if (board.isValidLocation(r, c)) {
+            Piece p = board.getPieceAt(r, c);
+            if (p == null || p.getPlayer() != player) moves[count++] = Move.encode(rowLoc, colLoc, r, c);
+        }
+        return count;
+    }
+
+    /**
+     * Helper function for move generation. Append the moves sliding from the current
+     * location in direction (dr, dc) up to and including the first piece met,
+     * which is only added if it belongs to the other player.
+     * @param dr row step
+     * @param dc column step
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    protected int addSlides(int dr, int dc, Board board, int[] moves, int count) {
+        for (int r = rowLoc + dr, c = colLoc + dc; board.isValidLocation(r, c); r += dr, c += dc) {
+            Piece p = board.getPieceAt(r, c);
+            if (p != null) {
+                if (p.getPlayer() != player) moves[count++] = Move.encode(rowLoc, colLoc, r, c);
+                break;
             }
+            moves[count++] = Move.encode(rowLoc, colLoc, r, c);
+        }
+        return count;
+    }
+
+    /**
+     * Helper function for Knight, King, Tank and Soldier's movement.
+     * Looks (r, c) up in the board's precomputed attack table of this piece type.
+     * @param r the row number
+     * @param c the column number
+     * @param board current board
+     * @return true if it's a valid leap for this piece.
+     */
+    protected boolean isLeaperMove(int r, int c, Board board) {
+        if (isOnBoard(board) && board.isValidLocation(r, c)) {
+            int cols = board.getNumCols();
+            return board.getAttackTables().canLeap(getTypeId(), rowLoc * cols + colLoc, r * cols + c);
         }
         return false;
     }
 
+    /**
+     * Helper function for Knight, King, Tank and Soldier's move generation.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    protected int addLeaps(Board board, int[] moves, int count) {
+        int[] targets = board.getAttackTables().getTargets(getTypeId(), rowLoc * board.getNumCols() + colLoc);
+        int from = Move.encode(rowLoc, colLoc, 0, 0);
+        for (int target : targets) {
+            Piece p = board.getPieceAt(target >>> 8, target & 0xFF);
+            if (p == null || p.getPlayer() != player) moves[count++] = from | target;
+        }
+        return count;
+    }
+
+    /**
+     * Helper function for attack sets. Set the bits of the squares sliding from the current
+     * location in direction (dr, dc) up to and including the first piece met.
+     * @param dr row step
+     * @param dc column step
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    protected void addRayAttacks(int dr, int dc, Board board, long[] attacks, int offset) {
+        int cols = board.getNumCols();
+        for (int r = rowLoc + dr, c = colLoc + dc; board.isValidLocation(r, c); r += dr, c += dc) {
+            int sq = r * cols + c;
+            attacks[offset + (sq >>> 6)] |= 1L << sq;
+            if (board.getPieceAt(r, c) != null) break;
+        }
+    }
+
+    /**
+     * Helper function for Rook and Queen's attack sets.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public void addStraightAttacks(Board board, long[] attacks, int offset) {
+        if (!isOnBoard(board)) return;
+        if (SlidingAttacks.supports(board)) {
+            attacks[offset] |= SlidingAttacks.rookAttacks(rowLoc * 8 + colLoc, board.getOccupancy());
+            return;
+        }
+        addRayAttacks(-1, 0, board, attacks, offset);
+        addRayAttacks(1, 0, board, attacks, offset);
+        addRayAttacks(0, -1, board, attacks, offset);
+        addRayAttacks(0, 1, board, attacks, offset);
+    }
+
+    /**
+     * Helper function for Bishop and Queen's attack sets.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public void addDiagonalAttacks(Board board, long[] attacks, int offset) {
+        if (!isOnBoard(board)) return;
+        if (SlidingAttacks.supports(board)) {
+            attacks[offset] |= SlidingAttacks.bishopAttacks(rowLoc * 8 + colLoc, board.getOccupancy());
+            return;
+        }
+        addRayAttacks(-1, -1, board, attacks, offset);
+        addRayAttacks(-1, 1, board, attacks, offset);
+        addRayAttacks(1, -1, board, attacks, offset);
+        addRayAttacks(1, 1, board, attacks, offset);
+    }
+
+    /**
+     * Helper function for move generation on an 8x8 board. Append a move to every square
+     * set in targets that doesn't hold a piece of the same player.
+     * @param targets mask of future squares
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    protected int addTargets(long targets, Board board, int[] moves, int count) {
+        int from = Move.encode(rowLoc, colLoc, 0, 0);
+        for (long bits = targets & ~board.getOccupancy(player); bits != 0; bits &= bits - 1) {
+            int sq = Long.numberOfTrailingZeros(bits);
+            moves[count++] = from | (sq >>> 3) << 8 | (sq & 7);
+        }
+        return count;
+    }
+
+    /**
+     * Helper function for Rook and Queen's move generation.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public int generateStraightMoves(Board board, int[] moves, int count) {
+        if (!isOnBoard(board)) return count;
+        if (SlidingAttacks.supports(board)) {
+            long attacks = SlidingAttacks.rookAttacks(rowLoc * 8 + colLoc, board.getOccupancy());
+            return addTargets(attacks, board, moves, count);
+        }
+        count = addSlides(-1, 0, board, moves, count);
+        count = addSlides(1, 0, board, moves, count);
+        count = addSlides(0, -1, board, moves, count);
+        return addSlides(0, 1, board, moves, count);
+    }
+
+    /**
+     * Helper function for Bishop and Queen's move generation.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public int generateDiagonalMoves(Board board, int[] moves, int count) {
+        if (!isOnBoard(board)) return count;
+        if (SlidingAttacks.supports(board)) {
+            long attacks = SlidingAttacks.bishopAttacks(rowLoc * 8 + colLoc, board.getOccupancy());
+            return addTargets(attacks, board, moves, count);
+        }
+        count = addSlides(-1, -1, board, moves, count);
+        count = addSlides(-1, 1, board, moves, count);
+        count = addSlides(1, -1, board, moves, count);
+        return addSlides(1, 1, board, moves, count);
+    }
+
     /**
      * Return true if (r, c) doesn't equal current location.
      * @param r the row number
@@ -126,19 +337,63 @@ public abstract class Piece {
      */
     public abstract boolean isValidMove(int r, int c, Board board);
 
+    /**
+     * Append all pseudo-legal moves of this piece, packed by Move.encode, to moves.
+     * A move is pseudo-legal if isValidMove accepts it and it doesn't land on a piece of the same player.
+     * @param board current board
+     * @param moves buffer of packed moves, must have room for every generated move
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public abstract int generateMoves(Board board, int[] moves, int count);
+
+    /**
+     * Set the bits of the squares this piece attacks: every square isValidMove accepts,
+     * whatever stands on it. The Pawn's double step depends on its first move and is
+     * left out; Board.isSquareAttacked checks it separately.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public abstract void addAttacks(Board board, long[] attacks, int offset);
+
+    /**
+     * Return true if this piece is a Rook, Bishop or Queen, whose attacks depend on the
+     * pieces standing in their way.
+     * @return true if this piece slides.
+     */
+    public boolean isSlider() {
+        int type = getTypeId();
+        return type == ROOK || type == BISHOP || type == QUEEN;
+    }
+
     /**
      * Return the name of this piece.
      * @return the name of this piece.
      */
     public abstract String getType();
 
+    /**
+     * Return the type id of this piece, one of the constants declared in Piece.
+     * @return the type id of this piece.
+     */
+    public abstract int getTypeId();
+
     /**
      * For pawn, set its firstMove attribute to false.
      */
     public abstract void setFirstMoveFalse();
 
+    /**
+     * Return the unicode of each chess piece.
+     * @return the symbol of this piece.
+     */
+    public abstract char getSymbol();
+
     /**
      * Print the unicode of each chess piece.
      */
-    public abstract void print();
+    public void print() {
+        System.out.print(getSymbol());
+    }
 }
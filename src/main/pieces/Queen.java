@@ -25,6 +25,30 @@ public class Queen extends Piece {
         return isStraightMove(r, c, board) || isDiagonalMove(r, c, board);
     }
 
+    /**
+     * Append all pseudo-legal moves of this piece to moves.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public int generateMoves(Board board, int[] moves, int count) {
+        if (!isOnBoard(board)) return count;
+        count = generateStraightMoves(board, moves, count);
+        return generateDiagonalMoves(board, moves, count);
+    }
+
+    /**
+     * Set the bits of the squares this piece attacks.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public void addAttacks(Board board, long[] attacks, int offset) {
+        addStraightAttacks(board, attacks, offset);
+        addDiagonalAttacks(board, attacks, offset);
+    }
+
     /**
      * Return the name of this piece.
      * @return the name of this piece.
@@ -33,19 +57,24 @@ public class Queen extends Piece {
         return "Queen";
     }
 
+    /**
+     * Return the type id of this piece.
+     * @return the type id of this piece.
+     */
+    public int getTypeId() {
+        return QUEEN;
+    }
+
     /**
      * Does nothing for this piece.
      */
     public void setFirstMoveFalse() {}
 
     /**
-     * Print the unicode of this piece.
+     * Return the unicode of this piece.
+     * @return the symbol of this piece.
      */
-    public void print() {
-        if (player == 'W') {
-            System.out.print("\u2655");
-        } else {
-            System.out.print("\u265B");
-        }
+    public char getSymbol() {
+        return player == 'W' ? '\u2655' : '\u265B';
     }
 }
@@ -22,8 +22,30 @@ public class Soldier extends Piece {
      * @return true if it's a valid movement for this piece.
      */
     public boolean isValidMove(int r, int c, Board board) {
-        return board != null && board.isValidLocation(r, c)
-                && Math.abs(r - rowLoc) <= 2 && Math.abs(c - colLoc) <= 2;
+        return isLeaperMove(r, c, board);
+    }
+
+    /**
+     * Append all pseudo-legal moves of this piece to moves.
+     * @param board current board
+     * @param moves buffer of packed moves
+     * @param count number of moves already in the buffer
+     * @return number of moves in the buffer afterwards.
+     */
+    public int generateMoves(Board board, int[] moves, int count) {
+        if (!isOnBoard(board)) return count;
+        return addLeaps(board, moves, count);
+    }
+
+    /**
+     * Set the bits of the squares this piece attacks.
+     * @param board current board
+     * @param attacks bit set with one bit per square r * numCols + c
+     * @param offset index of the first word of the bit set in attacks
+     */
+    public void addAttacks(Board board, long[] attacks, int offset) {
+        if (!isOnBoard(board)) return;
+        board.getAttackTables().addLeaperTargets(getTypeId(), rowLoc * board.getNumCols() + colLoc, attacks, offset);
     }
 
     /**
@@ -34,6 +56,14 @@ public class Soldier extends Piece {
         return "Soldier";
     }
 
+    /**
+     * Return the type id of this piece.
+     * @return the type id of this piece.
+     */
+    public int getTypeId() {
+        return SOLDIER;
+    }
+
     /**
      * Does nothing for this piece.
      */
@@ -41,14 +71,11 @@ public class Soldier extends Piece {
 
 
     /**
-     * Print the unicode of this piece.
+     * Return the unicode of this piece.
+     * @return the symbol of this piece.
      */
-    public void print() {
-        if (player == 'W') {
-            System.out.print("S");
-        } else {
-            System.out.print("s");
-        }
+    public char getSymbol() {
+        return player == 'W' ? 'S' : 's';
     }
 }
 
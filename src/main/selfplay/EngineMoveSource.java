@@ -0,0 +1,40 @@
+package main.selfplay;
+
+import main.Chess;
+import main.engine.Search;
+import main.engine.SearchLimits;
+
+/**
+ * Plays the best move found by a Search within fixed limits.
+ */
+public class EngineMoveSource implements MoveSource {
+    private final Search search;
+    private final SearchLimits limits;
+
+    /**
+     * Create an engine player with its own Search.
+     * @param limits how long to think per move
+     */
+    public EngineMoveSource(SearchLimits limits) {
+        this(new Search(), limits);
+    }
+
+    /**
+     * Create an engine player.
+     * @param search the search, not shared with another thread
+     * @param limits how long to think per move
+     */
+    public EngineMoveSource(Search search, SearchLimits limits) {
+        this.search = search;
+        this.limits = limits;
+    }
+
+    /**
+     * Return the best move found for the current player.
+     * @param game the game
+     * @return the packed move, 0 if there is none.
+     */
+    public int nextMove(Chess game) {
+        return search.bestMove(game.getBoard(), limits).getBestMove();
+    }
+}
@@ -0,0 +1,15 @@
+package main.selfplay;
+
+import main.Chess;
+
+/**
+ * Chooses the moves of one player in a headless game.
+ */
+public interface MoveSource {
+    /**
+     * Return the move the current player of game should play.
+     * @param game the game, game.getCurPlayer() to move; it must be left as it was
+     * @return the packed move, 0 to resign.
+     */
+    int nextMove(Chess game);
+}
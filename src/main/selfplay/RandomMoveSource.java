@@ -0,0 +1,33 @@
+package main.selfplay;
+
+import main.Chess;
+import main.Move;
+
+import java.util.Random;
+
+/**
+ * Plays a legal move chosen uniformly at random.
+ */
+public class RandomMoveSource implements MoveSource {
+    private final Random random;
+    private int[] moves = new int[Move.MAX_MOVES];
+
+    /**
+     * Create a random player.
+     * @param seed seed of the random moves, so games can be replayed
+     */
+    public RandomMoveSource(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Return a random legal move of the current player.
+     * @param game the game
+     * @return the packed move, 0 if there is none.
+     */
+    public int nextMove(Chess game) {
+        if (moves.length < game.getBoard().getMoveBufferSize()) moves = new int[game.getBoard().getMoveBufferSize()];
+        int n = game.getBoard().generateLegalMoves(game.getCurPlayer(), moves);
+        return n == 0 ? 0 : moves[random.nextInt(n)];
+    }
+}
@@ -0,0 +1,28 @@
+package main.selfplay;
+
+import main.Chess;
+
+/**
+ * Plays a fixed list of moves in order, then resigns.
+ */
+public class ScriptedMoveSource implements MoveSource {
+    private final int[] moves;
+    private int next;
+
+    /**
+     * Create a scripted player.
+     * @param moves the packed moves to play, in order
+     */
+    public ScriptedMoveSource(int... moves) {
+        this.moves = moves.clone();
+    }
+
+    /**
+     * Return the next move of the script.
+     * @param game the game
+     * @return the packed move, 0 once the script is over.
+     */
+    public int nextMove(Chess game) {
+        return next < moves.length ? moves[next++] : 0;
+    }
+}
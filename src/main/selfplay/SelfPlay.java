@@ -0,0 +1,171 @@
+package main.selfplay;
+
+import main.Chess;
+import main.archive.GameArchive;
+import main.archive.GameArchiveWriter;
+import main.engine.Search;
+import main.engine.SearchLimits;
+import main.engine.TranspositionTable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Plays many independent games without a terminal, each Chess driven by two MoveSources,
+ * on a fixed pool of threads. The project targets Java 13, which has no virtual threads;
+ * games are CPU bound, so a pool the size of the machine gives the same throughput.
+ *
+ * Usage: java main.selfplay.SelfPlay games [threads] [random|engine] [custom|standard] [archive]
+ */
+public class SelfPlay {
+    /** Outcomes of a game, indexes of OUTCOMES. */
+    public static final int WHITE_WINS = 0, BLACK_WINS = 1, STALEMATE = 2, MOVE_LIMIT = 3;
+    /** Names of the outcomes. */
+    public static final String[] OUTCOMES = {"White wins", "Black wins", "Stalemate", "Move limit"};
+
+    private final IntFunction<MoveSource> white, black;
+    private final boolean useCustomPieces;
+    private final int maxPlies;
+    private GameArchiveWriter archive;
+
+    /**
+     * Create a runner.
+     * @param white creates the white player of the game with the given index
+     * @param black creates the black player of the game with the given index
+     * @param useCustomPieces true to play the Tank and Soldier setup
+     * @param maxPlies moves after which a game is drawn
+     */
+    public SelfPlay(IntFunction<MoveSource> white, IntFunction<MoveSource> black,
+                    boolean useCustomPieces, int maxPlies) {
+        this.white = white;
+        this.black = black;
+        this.useCustomPieces = useCustomPieces;
+        this.maxPlies = maxPlies;
+    }
+
+    /**
+     * Set where the games played by run are saved.
+     * @param archive the archive, null to save nothing
+     */
+    public void setArchive(GameArchiveWriter archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Play games games on threads threads and wait for all of them.
+     * @param games number of games
+     * @param threads number of threads
+     * @return the statistics of the games.
+     * @throws InterruptedException if interrupted while waiting
+     * @throws UncheckedIOException if a game couldn't be saved to the archive
+     */
+    public SelfPlayStats run(int games, int threads) throws InterruptedException {
+        SelfPlayStats stats = new SelfPlayStats();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        long start = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            int index = i;
+            pool.execute(() -> {
+                Chess game = new Chess(true, true, 8, 8, "White", "Black", useCustomPieces, true);
+                int outcome = playGame(game, white.apply(index), black.apply(index), maxPlies, stats);
+                if (archive == null) return;
+                try {
+                    archive.append(game, outcome == WHITE_WINS ? GameArchive.WHITE_WINS
+                            : outcome == BLACK_WINS ? GameArchive.BLACK_WINS
+                            : outcome == STALEMATE ? GameArchive.DRAW : GameArchive.UNFINISHED);
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        stats.setNanos(System.nanoTime() - start);
+        if (failure.get() != null) throw new UncheckedIOException(failure.get());
+        return stats;
+    }
+
+    /**
+     * Play game to its end. A player whose source resigns or returns an illegal move loses.
+     * @param game the game, from any position
+     * @param white chooses the moves of 'W'
+     * @param black chooses the moves of 'B'
+     * @param maxPlies moves after which the game is drawn
+     * @param stats where the result is recorded, may be null
+     * @return the outcome of the game.
+     */
+    public static int playGame(Chess game, MoveSource white, MoveSource black, int maxPlies, SelfPlayStats stats) {
+        int plies = 0, outcome = MOVE_LIMIT;
+        boolean forfeit = false;
+        while (plies < maxPlies) {
+            char player = game.getCurPlayer();
+            int move = (player == 'W' ? white : black).nextMove(game);
+            int result = move == 0 ? Chess.ILLEGAL_MOVE : game.play(move);
+            if (result == Chess.ILLEGAL_MOVE) {
+                outcome = player == 'W' ? BLACK_WINS : WHITE_WINS;
+                forfeit = true;
+                break;
+            }
+            plies++;
+            if (result == Chess.CHECKMATE) {
+                outcome = player == 'W' ? WHITE_WINS : BLACK_WINS;
+                break;
+            }
+            if (result == Chess.STALEMATE) {
+                outcome = STALEMATE;
+                break;
+            }
+        }
+        if (stats != null) stats.record(outcome, plies, forfeit);
+        return outcome;
+    }
+
+    /**
+     * Play a batch of games and print the results and throughput.
+     * @param args number of games, then optionally the number of threads, "random" or
+     *             "engine" players (10 ms per move), "custom" for the Tank and Soldier setup,
+     *             and a game archive to append the games to
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException if the archive can't be opened
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java main.selfplay.SelfPlay games [threads] [random|engine] [custom|standard] [archive]");
+            return;
+        }
+        int games = Integer.parseInt(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        boolean engine = args.length > 2 && args[2].equals("engine");
+        boolean custom = args.length > 3 && args[3].equals("custom");
+
+        IntFunction<MoveSource> white, black;
+        if (engine) {
+            // a Search and its table per thread, reused by the games of that thread
+            ThreadLocal<Search> searches = ThreadLocal.withInitial(() ->
+                    new Search(new TranspositionTable(4, TranspositionTable.Replacement.TWO_BUCKET_AGING)));
+            SearchLimits limits = SearchLimits.time(10);
+            white = i -> new EngineMoveSource(searches.get(), limits);
+            black = white;
+        } else {
+            white = i -> new RandomMoveSource(2L * i);
+            black = i -> new RandomMoveSource(2L * i + 1);
+        }
+        SelfPlay selfPlay = new SelfPlay(white, black, custom, 400);
+        if (args.length > 4) {
+            try (GameArchiveWriter archive = new GameArchiveWriter(Paths.get(args[4]))) {
+                selfPlay.setArchive(archive);
+                System.out.println(selfPlay.run(games, threads));
+                System.out.println("Archive " + args[4] + " holds " + archive.getGameCount() + " games");
+            }
+            return;
+        }
+        System.out.println(selfPlay.run(games, threads));
+    }
+}
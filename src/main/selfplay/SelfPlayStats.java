@@ -0,0 +1,105 @@
+package main.selfplay;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results and throughput of a batch of headless games, updated by many threads at once.
+ */
+public class SelfPlayStats {
+    private final LongAdder[] outcomes = new LongAdder[SelfPlay.OUTCOMES.length];
+    private final LongAdder games = new LongAdder(), moves = new LongAdder(), forfeits = new LongAdder();
+    private volatile long nanos;
+
+    /**
+     * Create empty statistics.
+     */
+    public SelfPlayStats() {
+        for (int i = 0; i < outcomes.length; i++) outcomes[i] = new LongAdder();
+    }
+
+    /**
+     * Count one finished game.
+     * @param outcome one of the outcomes of SelfPlay
+     * @param plies number of moves played
+     * @param forfeit true if a player lost by resigning or by an illegal move
+     */
+    public void record(int outcome, int plies, boolean forfeit) {
+        outcomes[outcome].increment();
+        games.increment();
+        moves.add(plies);
+        if (forfeit) forfeits.increment();
+    }
+
+    /**
+     * Set the wall-clock time of the batch.
+     * @param nanos time in nanoseconds
+     */
+    public void setNanos(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * Return the number of games that ended with outcome.
+     * @param outcome one of the outcomes of SelfPlay
+     * @return the number of games.
+     */
+    public long getCount(int outcome) {
+        return outcomes[outcome].sum();
+    }
+
+    /**
+     * Return the number of finished games.
+     * @return the number of games.
+     */
+    public long getGames() {
+        return games.sum();
+    }
+
+    /**
+     * Return the number of moves played in all games.
+     * @return the number of moves.
+     */
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    /**
+     * Return the number of games lost by resigning or by an illegal move.
+     * @return the number of forfeits.
+     */
+    public long getForfeits() {
+        return forfeits.sum();
+    }
+
+    /**
+     * Return the finished games per second of wall-clock time.
+     * @return the games per second.
+     */
+    public double getGamesPerSecond() {
+        return getGames() * 1e9 / Math.max(1, nanos);
+    }
+
+    /**
+     * Return the moves per second of wall-clock time.
+     * @return the moves per second.
+     */
+    public double getMovesPerSecond() {
+        return getMoves() * 1e9 / Math.max(1, nanos);
+    }
+
+    /**
+     * Return a report of results and throughput.
+     * @return the report.
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Games: %d in %.2f s (%.1f games/s, %.0f moves/s)%n",
+                getGames(), nanos / 1e9, getGamesPerSecond(), getMovesPerSecond()));
+        for (int i = 0; i < outcomes.length; i++) {
+            sb.append(String.format("%-18s %d%n", SelfPlay.OUTCOMES[i] + ":", getCount(i)));
+        }
+        sb.append(String.format("%-18s %d%n", "Forfeits:", getForfeits()));
+        sb.append(String.format("%-18s %.1f", "Average moves:", getMoves() / (double) Math.max(1, getGames())));
+        return sb.toString();
+    }
+}
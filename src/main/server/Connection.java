@@ -0,0 +1,110 @@
+package main.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * State of one client connection: the bytes read but not yet split into lines, the
+ * replies not yet written, and the session and seat of the client.
+ */
+class Connection {
+    /** Longest accepted line, in bytes. */
+    static final int MAX_LINE = 128;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE);
+    private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+    private GameSession session;
+    private char seat = 'N';
+
+    /**
+     * Create the state of a connection registered with a selector.
+     * @param channel the client channel
+     * @param key its selection key
+     */
+    Connection(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * Return the buffer the next bytes from the client are read into.
+     * @return the input buffer, in write mode.
+     */
+    ByteBuffer getInput() {
+        return input;
+    }
+
+    /**
+     * Return the client channel.
+     * @return the channel.
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Return the session the client is seated in.
+     * @return the session, null if none.
+     */
+    GameSession getSession() {
+        return session;
+    }
+
+    /**
+     * Return the seat of the client in its session.
+     * @return 'W', 'B', or 'N' if not seated.
+     */
+    char getSeat() {
+        return seat;
+    }
+
+    /**
+     * Seat the client in a session.
+     * @param session the session, null to leave it
+     * @param seat 'W' or 'B', 'N' when leaving
+     */
+    void seat(GameSession session, char seat) {
+        this.session = session;
+        this.seat = seat;
+    }
+
+    /**
+     * Send one line to the client. Written at once if the socket takes it, otherwise
+     * queued and written when the socket becomes writable.
+     * @param line the line, without its end of line
+     */
+    void send(String line) {
+        ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII));
+        if (output.isEmpty()) {
+            try {
+                channel.write(bytes);
+            } catch (IOException e) {
+                // the read side will see the failure and close the connection
+                return;
+            }
+            if (!bytes.hasRemaining()) return;
+        }
+        output.add(bytes);
+        if (key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Write queued replies, and stop waiting for writability once they are all sent.
+     * @throws IOException if the socket fails
+     */
+    void flush() throws IOException {
+        while (!output.isEmpty()) {
+            ByteBuffer bytes = output.peek();
+            channel.write(bytes);
+            if (bytes.hasRemaining()) return;
+            output.poll();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+}
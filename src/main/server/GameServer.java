@@ -0,0 +1,377 @@
+package main.server;
+
+import main.Chess;
+import main.Move;
+import main.metrics.Metrics;
+import main.notation.MoveParser;
+
+import javax.management.JMException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Non-blocking TCP server hosting many two-player games from one thread and one selector.
+ * An idle client costs a registered channel and a small buffer, so tens of thousands of
+ * them can wait in one JVM (raise the open file limit of the process accordingly).
+ *
+ * The protocol is one ASCII line per message. Commands from the client, the same as the
+ * console game reads in Chess.readStr, plus two to find a game:
+ *   new [custom]   create a game and play 'W'      reply: game id W
+ *   join id        join game id and play 'B'       reply: game id B, opponent gets: joined
+ *   r1 c1 r2 c2    move, checked with movePieceTo  reply: ok, opponent gets: moved r1 c1 r2 c2
+ *                  (or a move like e2e4 or Nf3, relayed as four integers)
+ *   undo           take back your last move        reply: ok, opponent gets: undone
+ *   forfeit        give up the game                reply: ok, opponent gets: forfeit W|B
+ *   restart        ask for, or agree to, a new game reply: ok, opponent gets: restart? or restarted
+ *   exit           leave                           reply: bye, opponent gets: left
+ * A client whose opponent leaves gets "left" and is out of the game, free to create or
+ * join another one.
+ * A move that ends the game is followed by "checkmate W|B" (the winner) or "stalemate"
+ * to both players. A refused command gets "error" and the reason.
+ *
+ * Usage: java main.server.GameServer [port]
+ */
+public class GameServer implements Runnable {
+    /** Port used when none is given. */
+    public static final int DEFAULT_PORT = 7777;
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final HashMap<Integer, GameSession> sessions = new HashMap<>();
+    private final MoveParser parser = new MoveParser();
+    private int nextId = 1;
+    private volatile boolean running = true;
+    private volatile int sessionCount, connectionCount;
+
+    /**
+     * Open the server socket.
+     * @param port the port to listen on, 0 for any free port
+     * @throws IOException if the port can't be opened
+     */
+    public GameServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Return the port the server listens on.
+     * @return the local port.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Return the number of games hosted.
+     * @return the number of sessions.
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * Return the number of connected clients.
+     * @return the number of connections.
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Make run return and close every connection. May be called from any thread.
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Serve clients until close is called.
+     */
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) read(c);
+                        if (key.isValid() && key.isWritable()) c.flush();
+                    } catch (IOException e) {
+                        close(c);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Game server stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Accept every pending connection.
+     * @throws IOException if the server socket fails
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+            connectionCount++;
+        }
+    }
+
+    /**
+     * Read what the client sent and handle every complete line.
+     * @param c the connection
+     * @throws IOException if the socket fails
+     */
+    private void read(Connection c) throws IOException {
+        ByteBuffer input = c.getInput();
+        if (c.getChannel().read(input) < 0) {
+            close(c);
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < input.position(); i++) {
+            if (input.get(i) != '\n') continue;
+            int end = i > start && input.get(i - 1) == '\r' ? i - 1 : i;
+            handle(c, input.array(), start, end - start);
+            if (!c.getChannel().isOpen()) return;
+            start = i + 1;
+        }
+        input.limit(input.position()).position(start);
+        input.compact();
+        if (!input.hasRemaining()) {
+            c.send("error line too long");
+            close(c);
+        }
+    }
+
+    /**
+     * Return true if a line is a given command, or starts with it if it ends with a space.
+     * @param line the buffer holding the line, in ASCII
+     * @param offset index of the first byte of the line
+     * @param length number of bytes of the line
+     * @param command the command
+     * @return true if the line matches.
+     */
+    private static boolean is(byte[] line, int offset, int length, String command) {
+        int n = command.length();
+        if (length < n || (length > n && command.charAt(n - 1) != ' ')) return false;
+        for (int i = 0; i < n; i++) {
+            if (line[offset + i] != command.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Carry out one command of a client, read in place from its input buffer: only joining
+     * a game makes a String, moves are parsed from the bytes.
+     * @param c the connection
+     * @param line the buffer holding the command, in ASCII
+     * @param offset index of the first byte of the command
+     * @param length number of bytes of the command
+     */
+    private void handle(Connection c, byte[] line, int offset, int length) {
+        GameSession session = c.getSession();
+        char seat = c.getSeat();
+        if (is(line, offset, length, "exit")) {
+            c.send("bye");
+            close(c);
+        } else if (is(line, offset, length, "new") || is(line, offset, length, "new custom")) {
+            if (session != null) {
+                c.send("error already in a game");
+                return;
+            }
+            session = new GameSession(nextId++, length > 3);
+            sessions.put(session.getId(), session);
+            sessionCount = sessions.size();
+            session.setPlayer('W', c);
+            c.seat(session, 'W');
+            c.send("game " + session.getId() + " W");
+        } else if (is(line, offset, length, "join ")) {
+            join(c, new String(line, offset + 5, length - 5, StandardCharsets.US_ASCII));
+        } else if (session == null) {
+            c.send("error not in a game");
+        } else if (session.getOpponent(seat) == null) {
+            c.send("error waiting for opponent");
+        } else if (is(line, offset, length, "restart")) {
+            restart(c, session, seat);
+        } else if (session.isOver()) {
+            c.send("error game over");
+        } else if (is(line, offset, length, "undo")) {
+            if (session.getGame().getCurPlayer() == seat || !session.getGame().undo()) {
+                c.send("error no move to undo");
+                return;
+            }
+            c.send("ok");
+            session.getOpponent(seat).send("undone");
+        } else if (is(line, offset, length, "forfeit")) {
+            session.setOver();
+            c.send("ok");
+            session.getOpponent(seat).send("forfeit " + seat);
+        } else {
+            move(c, session, seat, line, offset, length);
+        }
+    }
+
+    /**
+     * Seat a client as 'B' in the session with the given id.
+     * @param c the connection
+     * @param id the session id, as typed
+     */
+    private void join(Connection c, String id) {
+        GameSession session = null;
+        try {
+            session = sessions.get(Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        if (c.getSession() != null) {
+            c.send("error already in a game");
+        } else if (session == null) {
+            c.send("error no such game");
+        } else if (session.getPlayer('B') != null || session.getPlayer('W') == null) {
+            c.send("error game is full");
+        } else {
+            session.setPlayer('B', c);
+            c.seat(session, 'B');
+            c.send("game " + session.getId() + " B");
+            session.getOpponent('B').send("joined");
+        }
+    }
+
+    /**
+     * Ask for a new game, or agree to the opponent's request.
+     * @param c the connection
+     * @param session its session
+     * @param seat its seat
+     */
+    private void restart(Connection c, GameSession session, char seat) {
+        Connection opponent = session.getOpponent(seat);
+        c.send("ok");
+        if (session.getRestartAsked() == (seat == 'W' ? 'B' : 'W')) {
+            session.restart();
+            opponent.send("restarted");
+        } else {
+            session.setRestartAsked(seat);
+            opponent.send("restart?");
+        }
+    }
+
+    /**
+     * Play a move typed as four integers or in algebraic notation.
+     * @param c the connection
+     * @param session its session
+     * @param seat its seat
+     * @param line the buffer holding the move, in ASCII
+     * @param offset index of the first byte of the move
+     * @param length number of bytes of the move
+     */
+    private void move(Connection c, GameSession session, char seat, byte[] line, int offset, int length) {
+        Chess game = session.getGame();
+        if (game.getCurPlayer() != seat) {
+            c.send("error not your turn");
+            return;
+        }
+        int move = parser.parse(game.getBoard(), line, offset, length);
+        if (move < 0) {
+            c.send("error unknown command");
+            return;
+        }
+        int result = game.getBoard().isValidLocation(Move.getFromRow(move), Move.getFromCol(move))
+                && game.getBoard().isValidLocation(Move.getToRow(move), Move.getToCol(move))
+                ? game.play(move) : Chess.ILLEGAL_MOVE;
+        if (result == Chess.ILLEGAL_MOVE) {
+            c.send("error illegal move");
+            return;
+        }
+        Connection opponent = session.getOpponent(seat);
+        c.send("ok");
+        opponent.send("moved " + Move.toString(move));
+        if (result == Chess.CHECKMATE || result == Chess.STALEMATE) {
+            String end = result == Chess.CHECKMATE ? "checkmate " + seat : "stalemate";
+            session.setOver();
+            c.send(end);
+            opponent.send(end);
+        }
+    }
+
+    /**
+     * Close a connection and end its session, telling the opponent.
+     * @param c the connection
+     */
+    private void close(Connection c) {
+        try {
+            c.getChannel().close();
+        } catch (IOException e) {
+            // closed anyway
+        }
+        connectionCount--;
+        GameSession session = c.getSession();
+        if (session == null) return;
+        // the session can't fill again: end it and unseat the opponent too
+        sessions.remove(session.getId());
+        sessionCount = sessions.size();
+        Connection opponent = session.getOpponent(c.getSeat());
+        session.setPlayer('W', null);
+        session.setPlayer('B', null);
+        c.seat(null, 'N');
+        if (opponent != null) {
+            opponent.seat(null, 'N');
+            opponent.send("left");
+        }
+    }
+
+    /**
+     * Run a server until the process is stopped.
+     * @param args optional port, DEFAULT_PORT if none
+     * @throws IOException if the port can't be opened
+     */
+    public static void main(String[] args) throws IOException {
+        GameServer server = new GameServer(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        System.out.println("Chess server listening on port " + server.getPort());
+        if (Metrics.ENABLED) {
+            try {
+                Metrics.registerMBean();
+            } catch (JMException e) {
+                System.out.println("Metrics can't be shown over JMX: " + e.getMessage());
+            }
+        }
+        server.run();
+    }
+}
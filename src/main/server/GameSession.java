@@ -0,0 +1,111 @@
+package main.server;
+
+import main.Chess;
+
+/**
+ * One game hosted by the GameServer: the Chess being played and the connections seated
+ * as 'W' (who created the session) and 'B' (who joined it).
+ */
+class GameSession {
+    private final int id;
+    private final boolean useCustomPieces;
+    private Chess game;
+    private Connection white, black;
+    private boolean over;
+    private char restartAsked = 'N';
+
+    /**
+     * Create a session with a new game, 'W' to move first and placed at the lower side.
+     * @param id the session id
+     * @param useCustomPieces will replace pawns by custom pieces if true
+     */
+    GameSession(int id, boolean useCustomPieces) {
+        this.id = id;
+        this.useCustomPieces = useCustomPieces;
+        restart();
+    }
+
+    /**
+     * Return the session id.
+     * @return the session id.
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Return the game being played.
+     * @return the game.
+     */
+    Chess getGame() {
+        return game;
+    }
+
+    /**
+     * Start a new game with the same players.
+     */
+    void restart() {
+        game = new Chess(true, true, 8, 8, "White", "Black", useCustomPieces);
+        over = false;
+        restartAsked = 'N';
+    }
+
+    /**
+     * Return true if the game has ended and only a restart can continue it.
+     * @return true if the game is over.
+     */
+    boolean isOver() {
+        return over;
+    }
+
+    /**
+     * Mark the game as ended.
+     */
+    void setOver() {
+        over = true;
+    }
+
+    /**
+     * Return the player who asked for a restart the other player hasn't agreed to yet.
+     * @return 'W', 'B', or 'N' if nobody asked.
+     */
+    char getRestartAsked() {
+        return restartAsked;
+    }
+
+    /**
+     * Remember that player asked for a restart.
+     * @param player 'W', 'B', or 'N' to forget the request
+     */
+    void setRestartAsked(char player) {
+        restartAsked = player;
+    }
+
+    /**
+     * Return the connection seated as player.
+     * @param player 'W' or 'B'
+     * @return the connection, null if the seat is empty.
+     */
+    Connection getPlayer(char player) {
+        return player == 'W' ? white : black;
+    }
+
+    /**
+     * Seat connection as player, or empty the seat.
+     * @param player 'W' or 'B'
+     * @param connection the connection, null to empty the seat
+     */
+    void setPlayer(char player, Connection connection) {
+        if (player == 'W') white = connection;
+        else black = connection;
+    }
+
+    /**
+     * Return the connection playing against player.
+     * @param player 'W' or 'B'
+     * @return the opponent's connection, null if there is none.
+     */
+    Connection getOpponent(char player) {
+        return getPlayer(player == 'W' ? 'B' : 'W');
+    }
+}
@@ -0,0 +1,364 @@
+package main.tablebase;
+
+import main.engine.Search;
+import main.notation.San;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Endgame tablebase of one set of pieces on one board size, made by TablebaseGenerator,
+ * giving the distance to mate of every position with perfect play.
+ *
+ * The set of pieces is named like "KQvK" or "KSTvK": the pieces of 'W', a 'v', then the
+ * pieces of 'B', each side with its King first. Pawns aren't allowed, so a table doesn't
+ * depend on which player is the lower one, and a set and its colour swap ("KvKQ") share
+ * one table: canonical names the one that is stored.
+ *
+ * Positions are numbered by the side to move (0 for 'W', 1 for 'B') followed by the square,
+ * r * numCols + c, of every piece in the order of the name:
+ *   index = ((side * squares + sq0) * squares + sq1) * squares + ...
+ * The value of a position is a code: 0 for a draw (or a position that can't happen),
+ * otherwise plies to mate plus one, so an odd code means the side to move is mated and an
+ * even code means it mates.
+ *
+ * All numbers are big-endian. The file starts with a HEADER-byte header:
+ *   int   MAGIC, int VERSION
+ *   byte  rows, columns, bits per value, pieces of 'W', number of pieces, three zero bytes
+ *   byte  the type id of each piece, see Piece.getTypeId(), padded with zeros to 8
+ * followed by the values, each taking bits bits, packed from the lowest bit of each long up.
+ *
+ * Probes read the file through a read-only memory mapping and allocate nothing.
+ */
+public class Tablebase implements Closeable {
+    /** "CHTB", the first four bytes of a tablebase. */
+    public static final int MAGIC = 0x43485442;
+    /** Version of the layout. */
+    public static final int VERSION = 1;
+    /** Bytes of the file header. */
+    public static final int HEADER = 24;
+    /** Most pieces of a set, kings included. */
+    public static final int MAX_PIECES = 8;
+    /** Extension of tablebase files. */
+    public static final String EXTENSION = ".ctb";
+
+    // order of the pieces of a side after the King, strongest first
+    private static final String ORDER = "KSTQRBN";
+
+    private final FileChannel channel;
+    private final ByteBuffer data;
+    private final int rows, cols, bits, whiteCount;
+    private final int[] types;
+    private final long size;
+    private final String material;
+
+    /**
+     * Map a tablebase file.
+     * @param path the file
+     * @throws IOException if the file can't be read or isn't a tablebase
+     */
+    public Tablebase(Path path) throws IOException {
+        this(path, FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Map a tablebase file that has been opened.
+     * @param path the file
+     * @param channel the open file, closed if it isn't a tablebase
+     * @throws IOException if the file can't be read or isn't a tablebase
+     */
+    private Tablebase(Path path, FileChannel channel) throws IOException {
+        this(channel, map(path, channel));
+        if (bits < 1 || bits > 8 || data.limit() < HEADER + (size * bits + 63) / 64 * 8) {
+            channel.close();
+            throw new IOException("Truncated tablebase: " + path);
+        }
+    }
+
+    /**
+     * Wrap a tablebase held in memory, laid out like the file.
+     * @param data the header and values
+     */
+    Tablebase(ByteBuffer data) {
+        this(null, data);
+    }
+
+    /**
+     * Read the header of a tablebase.
+     * @param channel the file the data is mapped from, null if it is held in memory
+     * @param data the header and values
+     */
+    private Tablebase(FileChannel channel, ByteBuffer data) {
+        this.channel = channel;
+        this.data = data;
+        rows = data.get(8);
+        cols = data.get(9);
+        bits = data.get(10);
+        whiteCount = data.get(11);
+        types = new int[data.get(12)];
+        for (int k = 0; k < types.length; k++) types[k] = data.get(16 + k);
+        size = size(rows * cols, types.length);
+        material = name(types, whiteCount);
+    }
+
+    /**
+     * Map a file and check that it starts like a tablebase.
+     * @param path the file
+     * @param channel the open file, closed if it isn't a tablebase
+     * @return the mapping.
+     * @throws IOException if the file can't be read or isn't a tablebase
+     */
+    private static ByteBuffer map(Path path, FileChannel channel) throws IOException {
+        try {
+            long bytes = channel.size();
+            if (bytes > Integer.MAX_VALUE) throw new IOException("Tablebase larger than 2GB: " + path);
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes);
+            if (bytes < HEADER || data.getInt(0) != MAGIC) throw new IOException("Not a tablebase: " + path);
+            if (data.getInt(4) != VERSION) {
+                throw new IOException("Unsupported tablebase version " + data.getInt(4) + ": " + path);
+            }
+            if (data.get(12) < 2 || data.get(12) > MAX_PIECES) throw new IOException("Not a tablebase: " + path);
+            return data;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the number of positions of a table.
+     * @param squares squares of the board
+     * @param pieces number of pieces
+     * @return 2 * squares ^ pieces.
+     */
+    static long size(int squares, int pieces) {
+        long size = 2;
+        for (int k = 0; k < pieces; k++) size *= squares;
+        return size;
+    }
+
+    /**
+     * Return the value code of a position.
+     * @param index the position, from 0 to size() - 1
+     * @return 0 for a draw, otherwise plies to mate plus one, odd if the side to move is mated.
+     */
+    public int get(long index) {
+        long pos = index * bits;
+        int word = HEADER + (int) (pos >>> 6) * 8, shift = (int) (pos & 63);
+        long value = data.getLong(word) >>> shift;
+        if (shift + bits > 64) value |= data.getLong(word + 8) << (64 - shift);
+        return (int) (value & ((1L << bits) - 1));
+    }
+
+    /**
+     * Return the search score of a value code for the side to move.
+     * @param code the value code
+     * @return Search.MATE minus the plies to mate if the side to move mates, minus that if it
+     *         is mated, 0 for a draw.
+     */
+    public static int toScore(int code) {
+        if (code == 0) return 0;
+        return (code & 1) == 0 ? Search.MATE - (code - 1) : -(Search.MATE - (code - 1));
+    }
+
+    /**
+     * Return the name of the set of pieces, e.g. "KQvK".
+     * @return the material.
+     */
+    public String getMaterial() {
+        return material;
+    }
+
+    /**
+     * Return the number of rows of the board.
+     * @return number of rows.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Return the number of columns of the board.
+     * @return number of columns.
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Return the number of bits of each value.
+     * @return bits per position.
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Return the number of pieces, kings included.
+     * @return number of pieces.
+     */
+    public int getPieceCount() {
+        return types.length;
+    }
+
+    /**
+     * Return the number of pieces of 'W', which come first in the index.
+     * @return number of white pieces.
+     */
+    public int getWhiteCount() {
+        return whiteCount;
+    }
+
+    /**
+     * Return the type of a piece.
+     * @param k the piece, in the order of the name
+     * @return its Piece.getTypeId().
+     */
+    public int getType(int k) {
+        return types[k];
+    }
+
+    /**
+     * Return the number of positions.
+     * @return 2 * squares ^ pieces.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Write the tablebase to a file.
+     * @param path the file, replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path path) throws IOException {
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer all = data.duplicate();
+            all.clear();
+            while (all.hasRemaining()) out.write(all);
+        }
+    }
+
+    /**
+     * Close the file, if the tablebase was mapped from one. The mapping itself is released
+     * when the tablebase is garbage collected.
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    /**
+     * Return the file name of a tablebase, e.g. "KQvK-8x8.ctb".
+     * @param material the set of pieces, in canonical form
+     * @param rows number of rows of the board
+     * @param cols number of columns of the board
+     * @return the file name.
+     */
+    public static String fileName(String material, int rows, int cols) {
+        return material + "-" + rows + "x" + cols + EXTENSION;
+    }
+
+    /**
+     * Return the name of a set of pieces.
+     * @param types the type of each piece
+     * @param whiteCount number of pieces of 'W', which come first
+     * @return the name, e.g. "KQvK".
+     */
+    static String name(int[] types, int whiteCount) {
+        StringBuilder name = new StringBuilder(types.length + 1);
+        for (int k = 0; k < types.length; k++) {
+            if (k == whiteCount) name.append('v');
+            name.append(San.PIECE_LETTERS.charAt(types[k]));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Return the type of each piece of a set, in the order of its name.
+     * @param material the name
+     * @return the type ids.
+     */
+    static int[] types(String material) {
+        int[] types = new int[material.length() - 1];
+        for (int i = 0, k = 0; i < material.length(); i++) {
+            if (material.charAt(i) != 'v') types[k++] = San.PIECE_LETTERS.indexOf(material.charAt(i));
+        }
+        return types;
+    }
+
+    /**
+     * Return a set of pieces with each side sorted, the King first and the strongest pieces next.
+     * @param material the name, e.g. "KSvK" or "kvkq"
+     * @return the sorted name.
+     * @throws IllegalArgumentException if the name isn't a pawnless set with one King per side
+     */
+    public static String sorted(String material) {
+        material = material.toUpperCase().replace('V', 'v');
+        int split = material.indexOf('v');
+        if (split < 0 || material.indexOf('v', split + 1) >= 0) {
+            throw new IllegalArgumentException("Expected pieces like KQvK: " + material);
+        }
+        if (material.length() - 1 > MAX_PIECES) {
+            throw new IllegalArgumentException("More than " + MAX_PIECES + " pieces: " + material);
+        }
+        return sortSide(material.substring(0, split)) + "v" + sortSide(material.substring(split + 1));
+    }
+
+    /**
+     * Sort the pieces of a side.
+     * @param side the letters of the side
+     * @return the sorted letters.
+     * @throws IllegalArgumentException if the side doesn't have exactly one King or has a Pawn
+     */
+    private static String sortSide(String side) {
+        char[] letters = side.toCharArray();
+        for (char ch : letters) {
+            if (ORDER.indexOf(ch) < 0) throw new IllegalArgumentException("Not a pawnless piece letter: " + ch);
+        }
+        for (int i = 1; i < letters.length; i++) {
+            for (int j = i; j > 0 && ORDER.indexOf(letters[j]) < ORDER.indexOf(letters[j - 1]); j--) {
+                char t = letters[j];
+                letters[j] = letters[j - 1];
+                letters[j - 1] = t;
+            }
+        }
+        if (letters.length == 0 || letters[0] != 'K' || letters.length > 1 && letters[1] == 'K') {
+            throw new IllegalArgumentException("Each side needs exactly one King: " + side);
+        }
+        return new String(letters);
+    }
+
+    /**
+     * Return the set of pieces with the sides swapped.
+     * @param material a name
+     * @return the name with the pieces of 'B' first.
+     */
+    static String flip(String material) {
+        int split = material.indexOf('v');
+        return material.substring(split + 1) + "v" + material.substring(0, split);
+    }
+
+    /**
+     * Return the name a set of pieces is stored under: sorted, with the stronger side as 'W'.
+     * @param material the name
+     * @return the canonical name.
+     * @throws IllegalArgumentException if the name isn't a pawnless set with one King per side
+     */
+    public static String canonical(String material) {
+        String sorted = sorted(material);
+        int split = sorted.indexOf('v');
+        String white = sorted.substring(0, split), black = sorted.substring(split + 1);
+        if (white.length() != black.length()) return white.length() > black.length() ? sorted : flip(sorted);
+        for (int i = 0; i < white.length(); i++) {
+            int w = ORDER.indexOf(white.charAt(i)), b = ORDER.indexOf(black.charAt(i));
+            if (w != b) return w < b ? sorted : flip(sorted);
+        }
+        return sorted;
+    }
+}
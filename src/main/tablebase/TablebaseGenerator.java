@@ -0,0 +1,615 @@
+package main.tablebase;
+
+import main.AttackTables;
+import main.pieces.Piece;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates Tablebases by retrograde analysis, for pawnless sets of pieces on boards of
+ * at most 64 squares, the custom Tank and Soldier included.
+ *
+ * A first pass marks the positions that can't happen, the checkmates, and what the
+ * captures of every position lead to, looked up in the tables of the smaller sets, which
+ * are generated first. Then passes alternate: pass n, odd, marks "mates in n plies" by
+ * taking back a move from every position mated in n - 1 plies; pass n, even, takes back a
+ * move from every position that mates in n - 1 plies and marks it "mated in n plies" if
+ * every one of its moves leads to a mate already found. Captures and pieces of the side
+ * that just moved never change, so taking a move back is the same movement as making it.
+ * Positions left unmarked when two passes in a row find nothing are draws.
+ *
+ * Each pass is split into blocks of positions spread over the threads. A pass only
+ * writes values no thread reads in that pass, and all threads write the same value to a
+ * position, so the values need no locking.
+ *
+ * Usage: java main.tablebase.TablebaseGenerator material [rows] [cols] [threads] [dir]
+ */
+public class TablebaseGenerator {
+    // codes used while generating: impossible positions, and captures that draw at best
+    private static final int ILLEGAL = 255, DRAWN = 254;
+    // positions each thread takes at a time
+    private static final int BLOCK = 4096;
+    // the rays of a Rook then a Bishop, and whether each goes to higher squares
+    private static final int[][] DIRS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}, {-1, -1}, {-1, 1}, {1, -1}, {1, 1}};
+    private static final boolean[] UP = {false, true, false, true, false, false, true, true};
+
+    private final int rows, cols, squares, threads;
+    private final AttackTables attacks;
+    private final long[][] rays;
+    private final LinkedHashMap<String, Tablebase> generated = new LinkedHashMap<>();
+
+    /**
+     * Create a generator for one board size.
+     * @param rows number of rows of the board
+     * @param cols number of columns of the board
+     * @param threads number of threads
+     * @throws IllegalArgumentException if the board has more than 64 squares
+     */
+    public TablebaseGenerator(int rows, int cols, int threads) {
+        if (rows < 1 || cols < 1 || rows * cols > 64) {
+            throw new IllegalArgumentException("Tablebases need a board of at most 64 squares");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.squares = rows * cols;
+        this.threads = Math.max(1, threads);
+        attacks = AttackTables.get(rows, cols);
+        rays = new long[DIRS.length][squares];
+        for (int d = 0; d < DIRS.length; d++) {
+            for (int sq = 0; sq < squares; sq++) {
+                int r = sq / cols + DIRS[d][0], c = sq % cols + DIRS[d][1];
+                for (; r >= 0 && r < rows && c >= 0 && c < cols; r += DIRS[d][0], c += DIRS[d][1]) {
+                    rays[d][sq] |= 1L << (r * cols + c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the tablebase of a set of pieces, generating it and the tables of every set it
+     * can turn into by captures if they haven't been already.
+     * @param material the set of pieces, e.g. "KSvK"
+     * @return the table of the canonical set, null for two bare Kings, which always draw.
+     * @throws IllegalArgumentException if the set isn't pawnless or has too many positions
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public Tablebase generate(String material) throws InterruptedException {
+        String name = Tablebase.canonical(material);
+        if (name.equals("KvK")) return null;
+        Tablebase table = generated.get(name);
+        if (table == null) {
+            table = new Job(name).run();
+            generated.put(name, table);
+        }
+        return table;
+    }
+
+    /**
+     * Return every table generated so far, the smaller sets first.
+     * @return the tables.
+     */
+    public Collection<Tablebase> getGenerated() {
+        return generated.values();
+    }
+
+    /**
+     * Return the squares a piece attacks.
+     * @param type its Piece.getTypeId()
+     * @param sq its square
+     * @param occupied mask of occupied squares
+     * @return the attacked squares, the first blocker of each ray included.
+     */
+    private long attacks(int type, int sq, long occupied) {
+        switch (type) {
+            case Piece.ROOK:
+                return slide(sq, occupied, 0, 4);
+            case Piece.BISHOP:
+                return slide(sq, occupied, 4, 8);
+            case Piece.QUEEN:
+                return slide(sq, occupied, 0, 8);
+            default:
+                return attacks.getLeaperMask(type, sq);
+        }
+    }
+
+    /**
+     * Return the squares along some rays up to and including the first blocker of each.
+     * @param sq the square of the slider
+     * @param occupied mask of occupied squares
+     * @param first the first ray, an index of DIRS
+     * @param last the ray after the last
+     * @return the attacked squares.
+     */
+    private long slide(int sq, long occupied, int first, int last) {
+        long result = 0;
+        for (int d = first; d < last; d++) {
+            long ray = rays[d][sq], blockers = ray & occupied;
+            if (blockers != 0) {
+                int b = UP[d] ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+                ray ^= rays[d][b];
+            }
+            result |= ray;
+        }
+        return result;
+    }
+
+    /**
+     * Run a pass over every position of a job, split into blocks spread over the threads.
+     * @param job the table being generated
+     * @param pass what to do with a range of positions
+     * @return the sum of what the pass returned for every range.
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    private long parallel(Job job, Pass pass) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                results.add(pool.submit((Callable<Long>) () -> {
+                    Job.Worker worker = job.new Worker();
+                    long sum = 0;
+                    for (long from = (long) first * BLOCK; from < job.size; from += (long) threads * BLOCK) {
+                        sum += pass.run(worker, (int) from, (int) Math.min(job.size, from + BLOCK));
+                    }
+                    return sum;
+                }));
+            }
+            long sum = 0;
+            for (Future<Long> result : results) {
+                try {
+                    sum += result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return sum;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A pass over a range of positions.
+     */
+    private interface Pass {
+        /**
+         * Process the positions from (inclusive) to (exclusive).
+         * @param worker the thread's scratch space
+         * @param from the first position
+         * @param to the position after the last
+         * @return the number of positions marked.
+         */
+        long run(Job.Worker worker, int from, int to);
+    }
+
+    /**
+     * The generation of one table: its values while they are worked out, and where its
+     * captures lead.
+     */
+    private final class Job {
+        final String material;
+        final int n, whiteCount;
+        final int[] types;
+        final int size, sideSize;
+        final int[] weights;
+        final byte[] values, captures;
+        // per captured piece: the table, whether its sides are swapped, and which piece is which
+        final Tablebase[] subTables;
+        final boolean[] subSwapped;
+        final int[][] subPieces;
+
+        /**
+         * Prepare the generation of a table, generating the tables after a capture first.
+         * @param material the canonical set of pieces
+         * @throws InterruptedException if interrupted while waiting for the threads
+         */
+        Job(String material) throws InterruptedException {
+            this.material = material;
+            types = Tablebase.types(material);
+            n = types.length;
+            whiteCount = material.indexOf('v');
+            long positions = Tablebase.size(squares, n);
+            if (positions > 1 << 30) {
+                throw new IllegalArgumentException(material + " has too many positions on a "
+                        + rows + "x" + cols + " board: " + positions);
+            }
+            size = (int) positions;
+            sideSize = size / 2;
+            weights = new int[n];
+            for (int k = n - 1, w = 1; k >= 0; k--, w *= squares) weights[k] = w;
+
+            subTables = new Tablebase[n];
+            subSwapped = new boolean[n];
+            subPieces = new int[n][];
+            for (int victim = 0; victim < n; victim++) {
+                if (types[victim] == Piece.KING) continue;
+                int[] rest = new int[n - 1];
+                for (int k = 0, j = 0; k < n; k++) if (k != victim) rest[j++] = k;
+                int restWhite = victim < whiteCount ? whiteCount - 1 : whiteCount;
+                String natural = Tablebase.sorted(Tablebase.name(pick(types, rest), restWhite));
+                subTables[victim] = generate(natural);
+                subSwapped[victim] = !Tablebase.canonical(natural).equals(natural);
+                subPieces[victim] = rest;
+                if (subSwapped[victim]) {
+                    // the black pieces come first in the swapped table
+                    int[] swapped = new int[n - 1];
+                    System.arraycopy(rest, restWhite, swapped, 0, n - 1 - restWhite);
+                    System.arraycopy(rest, 0, swapped, n - 1 - restWhite, restWhite);
+                    subPieces[victim] = swapped;
+                }
+            }
+            values = new byte[size];
+            captures = new byte[size];
+        }
+
+        /**
+         * Work out every value and pack them into a table.
+         * @return the table.
+         * @throws InterruptedException if interrupted while waiting for the threads
+         */
+        Tablebase run() throws InterruptedException {
+            parallel(this, (worker, from, to) -> {
+                long mated = 0;
+                for (int i = from; i < to; i++) mated += worker.classify(i);
+                return mated;
+            });
+            int longestCapture = 0;
+            for (byte capture : captures) {
+                if ((capture & 0xFF) != DRAWN) longestCapture = Math.max(longestCapture, capture & 0xFF);
+            }
+            // pass n can only mark code n + 1; stop once two passes in a row have marked nothing
+            long last = 1;
+            for (int pass = 1; ; pass++) {
+                if (pass + 1 >= DRAWN) throw new IllegalStateException(material + " has mates longer than "
+                        + (DRAWN - 3) + " plies");
+                int code = pass + 1;
+                long marked = parallel(this, (pass & 1) == 1
+                        ? (worker, from, to) -> worker.markWins(code, from, to)
+                        : (worker, from, to) -> worker.markLosses(code, from, to));
+                if (marked == 0 && last == 0 && code > longestCapture) break;
+                last = marked;
+            }
+            return pack();
+        }
+
+        /**
+         * Pack the values into a table, bits bits each.
+         * @return the table.
+         */
+        private Tablebase pack() {
+            int max = 0;
+            for (byte v : values) {
+                int code = v & 0xFF;
+                if (code != ILLEGAL && code > max) max = code;
+            }
+            int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(max));
+            long[] words = new long[(int) (((long) size * bits + 63) / 64)];
+            for (int i = 0; i < size; i++) {
+                long code = values[i] & 0xFF;
+                if (code == 0 || code == ILLEGAL) continue;
+                long pos = (long) i * bits;
+                int word = (int) (pos >>> 6), shift = (int) (pos & 63);
+                words[word] |= code << shift;
+                if (shift + bits > 64) words[word + 1] |= code >>> (64 - shift);
+            }
+            ByteBuffer data = ByteBuffer.allocate(Tablebase.HEADER + words.length * 8);
+            data.putInt(Tablebase.MAGIC).putInt(Tablebase.VERSION);
+            data.put((byte) rows).put((byte) cols).put((byte) bits).put((byte) whiteCount).put((byte) n);
+            data.position(16);
+            for (int type : types) data.put((byte) type);
+            data.position(Tablebase.HEADER);
+            for (long word : words) data.putLong(word);
+            return new Tablebase(data);
+        }
+
+        /**
+         * The scratch space of one thread.
+         */
+        final class Worker {
+            private final int[] sq = new int[n], other = new int[n];
+
+            /**
+             * Decode a position into the square of every piece.
+             * @param index the position
+             * @param into filled with the squares
+             * @return the side to move, 0 for 'W'.
+             */
+            private int decode(int index, int[] into) {
+                for (int k = n - 1; k >= 0; k--) {
+                    into[k] = index % squares;
+                    index /= squares;
+                }
+                return index;
+            }
+
+            /**
+             * Return true if a square is attacked by the pieces of a side still on the board.
+             * @param target the square
+             * @param side 0 for 'W', 1 for 'B'
+             * @param pieces the square of every piece, -1 if captured
+             * @param occupied mask of occupied squares
+             * @return true if the square is attacked.
+             */
+            private boolean attacked(int target, int side, int[] pieces, long occupied) {
+                for (int k = side == 0 ? 0 : whiteCount, end = side == 0 ? whiteCount : n; k < end; k++) {
+                    if (pieces[k] >= 0 && (attacks(types[k], pieces[k], occupied) & 1L << target) != 0) return true;
+                }
+                return false;
+            }
+
+            /**
+             * Return the mask of squares of the pieces of a side, or of both.
+             * @param pieces the square of every piece
+             * @param from the first piece
+             * @param end the piece after the last
+             * @return the occupied squares.
+             */
+            private long occupancy(int[] pieces, int from, int end) {
+                long occupied = 0;
+                for (int k = from; k < end; k++) occupied |= 1L << pieces[k];
+                return occupied;
+            }
+
+            /**
+             * First pass: mark a position impossible, mated or drawn by stalemate, and sum up
+             * what its captures lead to.
+             * @param index the position
+             * @return 1 if the side to move is mated, otherwise 0.
+             */
+            int classify(int index) {
+                int side = decode(index, sq), enemy = 1 - side;
+                long occupied = 0;
+                for (int k = 0; k < n; k++) {
+                    if ((occupied & 1L << sq[k]) != 0) {
+                        values[index] = (byte) ILLEGAL;
+                        return 0;
+                    }
+                    occupied |= 1L << sq[k];
+                }
+                int king = side == 0 ? 0 : whiteCount, enemyKing = side == 0 ? whiteCount : 0;
+                if (attacked(sq[enemyKing], side, sq, occupied)) {
+                    values[index] = (byte) ILLEGAL;
+                    return 0;
+                }
+
+                int first = side == 0 ? 0 : whiteCount, end = side == 0 ? whiteCount : n;
+                long own = occupancy(sq, first, end);
+                boolean moves = false, drawn = false;
+                int win = 0, loss = 0;
+                for (int k = first; k < end; k++) {
+                    int from = sq[k];
+                    long targets = attacks(types[k], from, occupied) & ~own;
+                    while (targets != 0) {
+                        int to = Long.numberOfTrailingZeros(targets);
+                        targets &= targets - 1;
+                        int victim = -1;
+                        for (int j = enemyKing; j < enemyKing + (side == 0 ? n - whiteCount : whiteCount); j++) {
+                            if (sq[j] == to) victim = j;
+                        }
+                        sq[k] = to;
+                        if (victim >= 0) sq[victim] = -1;
+                        if (!attacked(sq[king], enemy, sq, occupied & ~(1L << from) | 1L << to)) {
+                            moves = true;
+                            if (victim >= 0) {
+                                int code = capture(victim, enemy);
+                                // the capturer mates one ply later than the captured side is mated
+                                if (code == 0) drawn = true;
+                                else if ((code & 1) == 1) win = win == 0 ? code + 1 : Math.min(win, code + 1);
+                                else loss = Math.max(loss, code + 1);
+                            }
+                        }
+                        sq[k] = from;
+                        if (victim >= 0) sq[victim] = to;
+                    }
+                }
+                if (!moves) {
+                    if (!attacked(sq[king], enemy, sq, occupied)) return 0;
+                    values[index] = 1;
+                    return 1;
+                }
+                int code = win != 0 ? win : drawn ? DRAWN : loss;
+                if (code >= DRAWN - 1 && code != DRAWN) {
+                    throw new IllegalStateException(material + " has mates longer than " + (DRAWN - 3) + " plies");
+                }
+                captures[index] = (byte) code;
+                return 0;
+            }
+
+            /**
+             * Return the value code after a capture, in the table of the pieces left.
+             * @param victim the piece captured, its square already set to -1 in sq
+             * @param side the side to move after the capture
+             * @return the value code for that side.
+             */
+            private int capture(int victim, int side) {
+                Tablebase table = subTables[victim];
+                if (table == null) return 0;
+                long index = subSwapped[victim] ? 1 - side : side;
+                for (int k : subPieces[victim]) index = index * squares + sq[k];
+                return table.get(index);
+            }
+
+            /**
+             * Odd pass: mark "mates in code - 1 plies" every unmarked position with a move to
+             * one mated in code - 2 plies, or a capture that mates in code - 1 plies.
+             * @param code the code to mark
+             * @param from the first position
+             * @param to the position after the last
+             * @return the number of positions marked.
+             */
+            long markWins(int code, int from, int to) {
+                long marked = 0;
+                for (int i = from; i < to; i++) {
+                    int value = values[i] & 0xFF;
+                    if (value == code - 1) {
+                        int side = decode(i, sq);
+                        long occupied = occupancy(sq, 0, n);
+                        int mover = 1 - side;
+                        int first = mover == 0 ? 0 : whiteCount, end = mover == 0 ? whiteCount : n;
+                        int turn = (mover - side) * sideSize;
+                        for (int k = first; k < end; k++) {
+                            long origins = attacks(types[k], sq[k], occupied) & ~occupied;
+                            while (origins != 0) {
+                                int origin = Long.numberOfTrailingZeros(origins);
+                                origins &= origins - 1;
+                                int before = i + turn + (origin - sq[k]) * weights[k];
+                                if (values[before] == 0) {
+                                    values[before] = (byte) code;
+                                    marked++;
+                                }
+                            }
+                        }
+                    } else if (value == 0 && (captures[i] & 0xFF) == code) {
+                        values[i] = (byte) code;
+                        marked++;
+                    }
+                }
+                return marked;
+            }
+
+            /**
+             * Even pass: mark "mated in code - 1 plies" every unmarked position with a move
+             * to one that mates in code - 2 plies, or a capture mated in code - 2 plies,
+             * and all of whose moves lead to mates already found.
+             * @param code the code to mark
+             * @param from the first position
+             * @param to the position after the last
+             * @return the number of positions marked.
+             */
+            long markLosses(int code, int from, int to) {
+                long marked = 0;
+                for (int i = from; i < to; i++) {
+                    int value = values[i] & 0xFF;
+                    if (value == code - 1) {
+                        int side = decode(i, sq);
+                        long occupied = occupancy(sq, 0, n);
+                        int mover = 1 - side;
+                        int first = mover == 0 ? 0 : whiteCount, end = mover == 0 ? whiteCount : n;
+                        int turn = (mover - side) * sideSize;
+                        for (int k = first; k < end; k++) {
+                            long origins = attacks(types[k], sq[k], occupied) & ~occupied;
+                            while (origins != 0) {
+                                int origin = Long.numberOfTrailingZeros(origins);
+                                origins &= origins - 1;
+                                int before = i + turn + (origin - sq[k]) * weights[k];
+                                if (values[before] == 0 && isLost(before, code)) {
+                                    values[before] = (byte) code;
+                                    marked++;
+                                }
+                            }
+                        }
+                    } else if (value == 0 && (captures[i] & 0xFF) == code && isLost(i, code)) {
+                        values[i] = (byte) code;
+                        marked++;
+                    }
+                }
+                return marked;
+            }
+
+            /**
+             * Return true if every move of a position leads to a mate already found, the
+             * captures to one no longer than code - 2 plies.
+             * @param index the position
+             * @param code the code about to be marked
+             * @return true if the side to move is mated in code - 1 plies at most.
+             */
+            private boolean isLost(int index, int code) {
+                int capture = captures[index] & 0xFF;
+                if (capture != 0 && ((capture & 1) == 0 || capture > code)) return false;
+                int side = decode(index, other), enemy = 1 - side;
+                long occupied = occupancy(other, 0, n);
+                int king = side == 0 ? 0 : whiteCount;
+                int first = side == 0 ? 0 : whiteCount, end = side == 0 ? whiteCount : n;
+                int turn = (enemy - side) * sideSize;
+                boolean moves = capture != 0;
+                for (int k = first; k < end; k++) {
+                    int from = other[k];
+                    long targets = attacks(types[k], from, occupied) & ~occupied;
+                    while (targets != 0) {
+                        int to = Long.numberOfTrailingZeros(targets);
+                        targets &= targets - 1;
+                        other[k] = to;
+                        boolean legal = !attacked(other[king], enemy, other, occupied & ~(1L << from) | 1L << to);
+                        other[k] = from;
+                        if (!legal) continue;
+                        int after = values[index + turn + (to - from) * weights[k]] & 0xFF;
+                        if (after == 0 || (after & 1) == 1) return false;
+                        moves = true;
+                    }
+                }
+                return moves;
+            }
+        }
+    }
+
+    /**
+     * Return some elements of an array.
+     * @param array the array
+     * @param indexes the indexes of the elements
+     * @return the elements, in the order of indexes.
+     */
+    private static int[] pick(int[] array, int[] indexes) {
+        int[] picked = new int[indexes.length];
+        for (int i = 0; i < indexes.length; i++) picked[i] = array[indexes[i]];
+        return picked;
+    }
+
+    /**
+     * Generate a tablebase and the tables it needs, write them to a directory and print
+     * what they hold.
+     * @param args the set of pieces, then optionally the rows and columns of the board
+     *             (default 8), the number of threads (default the number of cores) and the
+     *             directory (default the current one)
+     * @throws IOException if a table can't be written
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: java main.tablebase.TablebaseGenerator material [rows] [cols] [threads] [dir]");
+            return;
+        }
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int cols = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        Path dir = Paths.get(args.length > 4 ? args[4] : ".");
+        Files.createDirectories(dir);
+
+        long start = System.nanoTime();
+        TablebaseGenerator generator = new TablebaseGenerator(rows, cols, threads);
+        generator.generate(args[0]);
+        System.out.printf("Generated in %.3f s on %d threads%n", (System.nanoTime() - start) / 1e9, threads);
+        for (Tablebase table : generator.getGenerated()) {
+            Path file = dir.resolve(Tablebase.fileName(table.getMaterial(), rows, cols));
+            table.write(file);
+            long wins = 0, losses = 0, longest = 0, longestIndex = 0;
+            for (long i = 0; i < table.size(); i++) {
+                int code = table.get(i);
+                if (code == 0) continue;
+                if ((code & 1) == 0) wins++;
+                else losses++;
+                if (code > longest) {
+                    longest = code;
+                    longestIndex = i;
+                }
+            }
+            System.out.printf("%s: %d positions, %d bits each, %d bytes; %d won, %d lost, longest mate %d plies"
+                            + " (position %d)%n", file, table.size(), table.getBits(), Files.size(file),
+                    wins, losses, Math.max(0, longest - 1), longestIndex);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package main.tablebase;
+
+import main.Board;
+import main.Move;
+import main.pieces.Piece;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The tablebases available to a game or a search, probed with a Board. A position is
+ * looked up in the table of its set of pieces and board size, with the colours swapped if
+ * the table is stored the other way round; two bare Kings are always a draw.
+ *
+ * Probes allocate nothing, but share scratch space: not safe for use by several threads,
+ * give each thread its own share() instead.
+ */
+public class Tablebases implements Closeable {
+    /** Result of probe for a position no table covers. */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final ArrayList<Tablebase> tables = new ArrayList<>();
+    private long[] keys = new long[0];
+    private int maxPieces;
+
+    private int[] moves = new int[Move.MAX_MOVES];
+    private final int[] pieceTypes = new int[Tablebase.MAX_PIECES], pieceSides = new int[Tablebase.MAX_PIECES];
+    private final int[] pieceSquares = new int[Tablebase.MAX_PIECES];
+
+    /**
+     * Add a table.
+     * @param table the table
+     */
+    public void add(Tablebase table) {
+        tables.add(table);
+        keys = Arrays.copyOf(keys, tables.size());
+        long key = (long) table.getRows() << 56 | (long) table.getCols() << 48;
+        for (int k = 0; k < table.getPieceCount(); k++) {
+            key += 1L << shift(k < table.getWhiteCount() ? 0 : 1, table.getType(k));
+        }
+        keys[tables.size() - 1] = key;
+        maxPieces = Math.max(maxPieces, table.getPieceCount());
+    }
+
+    /**
+     * Map every tablebase file of a directory.
+     * @param dir the directory
+     * @return number of tables added.
+     * @throws IOException if the directory or a table can't be read
+     */
+    public int load(Path dir) throws IOException {
+        int added = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + Tablebase.EXTENSION)) {
+            for (Path file : files) {
+                add(new Tablebase(file));
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Return tablebases probing the same tables with their own scratch space, for another
+     * thread. The tables are only read, so both may be probed at the same time; closing
+     * either closes the tables of both.
+     * @return the new tablebases.
+     */
+    public Tablebases share() {
+        Tablebases shared = new Tablebases();
+        for (Tablebase table : tables) shared.add(table);
+        return shared;
+    }
+
+    /**
+     * Return the largest number of pieces of a table, kings included.
+     * @return the most pieces, 0 if there is no table.
+     */
+    public int getMaxPieces() {
+        return maxPieces;
+    }
+
+    /**
+     * Return the position of a count in a material key: 3 bits per side and piece type.
+     * @param side 0 for 'W', 1 for 'B'
+     * @param type the piece type
+     * @return the shift.
+     */
+    private static int shift(int side, int type) {
+        return 3 * (side * Piece.NUM_TYPES + type);
+    }
+
+    /**
+     * Return the score of a position for board.getSideToMove() with perfect play.
+     * @param board the position
+     * @return Search.MATE minus the plies to mate if the side to move mates, minus that if it
+     *         is mated, 0 for a draw, UNKNOWN if no table covers the position.
+     */
+    public int probe(Board board) {
+        int rows = board.getNumRows(), cols = board.getNumCols();
+        if (maxPieces == 0 || !board.hasOccupancyMasks() || Long.bitCount(board.getOccupancy()) > maxPieces) {
+            return UNKNOWN;
+        }
+        long key = (long) rows << 56 | (long) cols << 48;
+        int count = 0;
+        for (long occupied = board.getOccupancy(); occupied != 0; occupied &= occupied - 1) {
+            int sq = Long.numberOfTrailingZeros(occupied);
+            Piece p = board.getPieceAt(sq / cols, sq % cols);
+            if (p.getTypeId() == Piece.PAWN) return UNKNOWN;
+            pieceTypes[count] = p.getTypeId();
+            pieceSides[count] = p.getPlayerIndex();
+            pieceSquares[count++] = sq;
+            key += 1L << shift(p.getPlayerIndex(), p.getTypeId());
+        }
+        if ((key >>> shift(0, Piece.KING) & 7) != 1 || (key >>> shift(1, Piece.KING) & 7) != 1) return UNKNOWN;
+        if (count == 2) return 0;
+
+        int side = board.getSideToMove() == 'W' ? 0 : 1;
+        long swappedKey = key & ~((1L << 48) - 1);
+        for (int type = 0; type < Piece.NUM_TYPES; type++) {
+            swappedKey |= (key >>> shift(0, type) & 7) << shift(1, type) | (key >>> shift(1, type) & 7) << shift(0, type);
+        }
+        for (int t = 0; t < keys.length; t++) {
+            if (keys[t] == key) return Tablebase.toScore(tables.get(t).get(index(tables.get(t), side, count, 0)));
+            if (keys[t] == swappedKey) return Tablebase.toScore(tables.get(t).get(index(tables.get(t), side, count, 1)));
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Return the index of the position read by probe in a table.
+     * @param table the table of its pieces
+     * @param side the side to move, 0 for 'W'
+     * @param count number of pieces
+     * @param swap 1 if the table has the colours swapped, otherwise 0
+     * @return the index.
+     */
+    private long index(Tablebase table, int side, int count, int swap) {
+        long index = side ^ swap;
+        int used = 0;
+        for (int k = 0; k < table.getPieceCount(); k++) {
+            int tableSide = (k < table.getWhiteCount() ? 0 : 1) ^ swap;
+            for (int i = 0; i < count; i++) {
+                if ((used & 1 << i) == 0 && pieceSides[i] == tableSide && pieceTypes[i] == table.getType(k)) {
+                    used |= 1 << i;
+                    index = index * (table.getRows() * table.getCols()) + pieceSquares[i];
+                    break;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Return the legal move of board.getSideToMove() with the best score: the quickest mate,
+     * else a draw, else the slowest loss.
+     * @param board the position, left as it was
+     * @return the packed move, 0 if no table covers the position or it has no legal move.
+     */
+    public int bestMove(Board board) {
+        if (probe(board) == UNKNOWN) return 0;
+        if (moves.length < board.getMoveBufferSize()) moves = new int[board.getMoveBufferSize()];
+        int n = board.generateLegalMoves(board.getSideToMove(), moves);
+        int best = 0, bestScore = 0;
+        for (int i = 0; i < n; i++) {
+            board.makeMove(moves[i]);
+            int score = probe(board);
+            board.unmakeMove();
+            if (score == UNKNOWN) continue;
+            if (best == 0 || -score > bestScore) {
+                best = moves[i];
+                bestScore = -score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Close the files of every table.
+     * @throws IOException if a file can't be closed
+     */
+    public void close() throws IOException {
+        for (Tablebase table : tables) table.close();
+    }
+}
@@ -1,11 +1,39 @@
 package test;
 
 import main.*;
+import main.archive.*;
+import main.batch.BatchRunner;
+import main.book.*;
+import main.engine.*;
+import main.leaderboard.Leaderboard;
+import main.metrics.LatencyHistogram;
+import main.metrics.Metrics;
+import main.notation.*;
+import main.selfplay.*;
+import main.server.GameServer;
+import main.tablebase.*;
 import main.pieces.*;
 import org.junit.jupiter.api.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
 
 import static main.Chess.*;
@@ -165,7 +193,50 @@ public class ChessTest {
         board.setPieceAt(kingB, 4, 4);
         Piece kingA = board.getPieceAt(7, 4);
         board.setPieceAt(kingA,5,4);
+        assertTrue(game.checkCheck('W'));
+        // black king can still step back to row 3
+        assertFalse(game.checkCheckmate('W'));
+    }
+
+    /**
+     * Test real checkmate and stalemate positions, and that moves into check are refused.
+     */
+    @Test
+    public void canVerifyMateAndStalemate() {
+        Chess game = new Chess();
+        Board board = game.getBoard();
+        Piece kingW = board.getPieceAt(7, 4), kingB = board.getPieceAt(0, 4), queen = board.getPieceAt(7, 3);
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                Piece p = board.getPieceAt(r, c);
+                if (p != kingW && p != kingB && p != queen) board.removePieceAt(r, c);
+            }
+        }
+        board.setPieceAt(kingB, 0, 0);
+        board.setPieceAt(kingW, 2, 1);
+        board.setPieceAt(queen, 4, 4);
+        assertFalse(game.checkCheckmate('W'));
+        assertFalse(game.checkStalemate('W'));
+
+        board.setPieceAt(queen, 1, 1);
+        assertTrue(game.checkCheck('W'));
         assertTrue(game.checkCheckmate('W'));
+        assertEquals(board.generateLegalMoves('B', new int[Move.MAX_MOVES]), 0);
+
+        board.setPieceAt(kingW, 2, 2);
+        board.setPieceAt(queen, 2, 1);
+        assertFalse(game.checkCheckmate('W'));
+        assertTrue(game.checkStalemate('W'));
+
+        // a pinned bishop may only move along the pin
+        Piece bishop = new Bishop('B');
+        board.setPieceAt(kingW, 7, 7);
+        board.setPieceAt(queen, 4, 4);
+        board.setPieceAt(bishop, 1, 1);
+        assertFalse(game.movePieceTo('B', bishop, 2, 0));
+        assertTrue(game.movePieceTo('B', bishop, 2, 2));
+        assertTrue(game.movePieceTo('B', bishop, 4, 4));
+        assertFalse(game.checkCheck('W'));
     }
 
     /**
@@ -294,4 +365,1190 @@ public class ChessTest {
         System.setIn(inp);
         System.out.println("here6");
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that BitBoard keeps its masks in sync with the pieces and answers like Board.
+     */
+    @Test
+    public void bitBoardMatchesBoard() {
+        Chess game = new Chess(true, true, 8, 8, "abc", "xyz", true);
+        Chess bitGame = new Chess(true, true, 8, 8, "abc", "xyz", true, true);
+        BitBoard bb = (BitBoard) bitGame.getBoard();
+        assertEquals(bb.getOccupancy('W') & bb.getOccupancy('B'), 0L);
+        assertEquals(Long.bitCount(bb.getOccupancy()), 32);
+        assertEquals(bb.getPieces(Piece.TANK, 'W'), bb.bitOf(6, 1));
+        assertEquals(bb.getPieces(Piece.KING, 'B'), bb.bitOf(0, 4));
+
+        assertTrue(bitGame.movePieceTo('W', bitGame.getPieceAt(6, 4), 4, 4));
+        assertTrue(game.movePieceTo('W', game.getPieceAt(6, 4), 4, 4));
+        assertFalse(bb.hasPieceAt(6, 4));
+        assertEquals(bb.getPieces(Piece.PAWN, 'W') & bb.bitOf(4, 4), bb.bitOf(4, 4));
+
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                assertEquals(game.getBoard().hasPieceAt(r, c), bb.hasPieceAt(r, c));
+                Piece p = game.getPieceAt(r, c), q = bitGame.getPieceAt(r, c);
+                if (p == null) continue;
+                for (int i = 0; i < 8; i++) {
+                    for (int j = 0; j < 8; j++) {
+                        assertEquals(p.isValidMove(i, j, game.getBoard()), q.isValidMove(i, j, bb));
+                    }
+                }
+            }
+        }
+
+        // rooks and bishops cannot jump over pieces towards row 0 either
+        Piece rook = bitGame.getPieceAt(7, 0);
+        assertFalse(rook.isStraightMove(3, 0, bb));
+        Piece bishop = bitGame.getPieceAt(7, 2);
+        assertFalse(bishop.isDiagonalMove(5, 0, bb));
+        assertFalse(game.getPieceAt(7, 2).isDiagonalMove(5, 4, game.getBoard()));
+    }
+
+    /**
+     * Test that generated moves are exactly the valid moves not landing on own pieces.
+     */
+    @Test
+    public void canGenerateMoves() {
+        Chess game = new Chess(true, true, 8, 8, "abc", "xyz", true);
+        Chess bitGame = new Chess(true, true, 8, 8, "abc", "xyz", true, true);
+        int[] moves = new int[Move.MAX_MOVES];
+        assertEquals(game.getBoard().generateMoves('W', moves), 4 + 2 * 6 + 8 + 8);
+
+        int[][] script = {{6, 4, 4, 4}, {1, 3, 3, 3}, {7, 3, 5, 5}, {0, 2, 2, 4}, {6, 1, 5, 3}, {1, 6, 3, 4}, {5, 5, 1, 5}};
+        for (int[] m : script) {
+            for (Chess g : new Chess[]{game, bitGame}) {
+                Board b = g.getBoard();
+                Piece moving = g.getPieceAt(m[0], m[1]);
+                assertTrue(g.movePieceTo((char) moving.getPlayer(), moving, m[2], m[3]));
+                for (char player : new char[]{'W', 'B'}) {
+                    boolean[] expected = new boolean[8 * 8 * 64];
+                    int total = 0;
+                    for (int r = 0; r < 8; r++) {
+                        for (int c = 0; c < 8; c++) {
+                            Piece p = b.getPieceAt(r, c);
+                            if (p == null || p.getPlayer() != player) continue;
+                            for (int i = 0; i < 8; i++) {
+                                for (int j = 0; j < 8; j++) {
+                                    Piece t = b.getPieceAt(i, j);
+                                    if (p.differentLocation(i, j) && p.isValidMove(i, j, b)
+                                            && (t == null || t.getPlayer() != player)) {
+                                        expected[(r * 8 + c) * 64 + i * 8 + j] = true;
+                                        total++;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    int n = b.generateMoves(player, moves);
+                    assertEquals(total, n);
+                    for (int k = 0; k < n; k++) {
+                        int mv = moves[k];
+                        assertTrue(expected[(Move.getFromRow(mv) * 8 + Move.getFromCol(mv)) * 64
+                                + Move.getToRow(mv) * 8 + Move.getToCol(mv)], Move.toString(mv));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that leaper tables are shared per board size and agree with the movement rules.
+     */
+    @Test
+    public void leaperTablesMatchRules() {
+        assertSame(new Board().getAttackTables(), new Chess().getBoard().getAttackTables());
+        assertNotSame(new Board().getAttackTables(), new Board(6, 9).getAttackTables());
+
+        for (Board b : new Board[]{new Board(), new Board(6, 9), new Board(10, 10)}) {
+            Piece[] leapers = {new Knight('W'), new King('W'), new Tank('W'), new Soldier('W')};
+            for (Piece p : leapers) {
+                for (int r = 0; r < b.getNumRows(); r++) {
+                    for (int c = 0; c < b.getNumCols(); c++) {
+                        p.setLoc(r, c);
+                        for (int i = -1; i <= b.getNumRows(); i++) {
+                            for (int j = -1; j <= b.getNumCols(); j++) {
+                                int dr = Math.abs(i - r), dc = Math.abs(j - c);
+                                boolean expected = b.isValidLocation(i, j) && (dr != 0 || dc != 0);
+                                if (p instanceof Knight) expected &= dr * dc == 2;
+                                if (p instanceof King) expected &= dr <= 1 && dc <= 1;
+                                if (p instanceof Tank) expected &= dr <= 1;
+                                if (p instanceof Soldier) expected &= dr <= 2 && dc <= 2;
+                                assertEquals(expected, p.isValidMove(i, j, b));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that the incremental attack maps agree with asking every piece after random edits.
+     */
+    @Test
+    public void attackMapsMatchFullScan() {
+        Random random = new Random(5);
+        for (Board b : new Board[]{new Board(), new BitBoard(), new Board(6, 9), new Board(10, 10)}) {
+            for (int step = 0; step < 300; step++) {
+                int r = random.nextInt(b.getNumRows()), c = random.nextInt(b.getNumCols());
+                if (random.nextInt(4) == 0) {
+                    b.removePieceAt(r, c);
+                } else {
+                    char player = random.nextBoolean() ? 'W' : 'B';
+                    Piece[] pieces = {new Pawn(player, random.nextBoolean()), new Knight(player), new Bishop(player),
+                            new Rook(player), new Queen(player), new King(player), new Tank(player), new Soldier(player)};
+                    Piece p = pieces[random.nextInt(pieces.length)];
+                    Piece old = b.getPieceAt(random.nextInt(b.getNumRows()), random.nextInt(b.getNumCols()));
+                    if (old != null && random.nextBoolean()) p = old;
+                    if (p instanceof Pawn && random.nextBoolean()) p.setFirstMoveFalse();
+                    b.setPieceAt(p, r, c);
+                }
+                for (int i = 0; i < b.getNumRows(); i++) {
+                    for (int j = 0; j < b.getNumCols(); j++) {
+                        boolean w = false, bl = false;
+                        for (int x = 0; x < b.getNumRows(); x++) {
+                            for (int y = 0; y < b.getNumCols(); y++) {
+                                Piece p = b.getPieceAt(x, y);
+                                if (p == null || !p.differentLocation(i, j) || !p.isValidMove(i, j, b)) continue;
+                                if (p.getPlayer() == 'W') w = true;
+                                else bl = true;
+                            }
+                        }
+                        assertEquals(w, b.isSquareAttacked(i, j, 'W'));
+                        assertEquals(bl, b.isSquareAttacked(i, j, 'B'));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test in random games that the pin and check masks accept exactly the moves
+     * that don't leave the king attacked when tried on the board.
+     */
+    @Test
+    public void legalMovesMatchTryingEachMove() {
+        Random random = new Random(6);
+        int[] moves = new int[Move.MAX_MOVES], legal = new int[Move.MAX_MOVES];
+        for (int g = 0; g < 40; g++) {
+            Chess game = new Chess(true, true, 8, 8, "abc", "xyz", g % 2 == 0);
+            Board b = game.getBoard();
+            char player = 'W';
+            for (int ply = 0; ply < 100; ply++) {
+                char enemy = player == 'W' ? 'B' : 'W';
+                int n = b.generateMoves(player, moves), expected = 0;
+                for (int i = 0; i < n; i++) {
+                    int m = moves[i];
+                    Piece p = b.getPieceAt(Move.getFromRow(m), Move.getFromCol(m));
+                    Piece captured = b.getPieceAt(Move.getToRow(m), Move.getToCol(m));
+                    b.setPieceAt(p, Move.getToRow(m), Move.getToCol(m));
+                    Piece king = b.getKing(player);
+                    if (!b.isSquareAttacked(king.getRow(), king.getCol(), enemy)) moves[expected++] = m;
+                    b.setPieceAt(p, Move.getFromRow(m), Move.getFromCol(m));
+                    if (captured != null) b.setPieceAt(captured, Move.getToRow(m), Move.getToCol(m));
+                }
+                int count = b.generateLegalMoves(player, legal);
+                assertEquals(expected, count);
+                for (int i = 0; i < count; i++) assertEquals(moves[i], legal[i]);
+                assertEquals(count > 0, b.hasLegalMove(player));
+                if (count == 0) break;
+
+                int m = legal[random.nextInt(count)];
+                Piece p = b.getPieceAt(Move.getFromRow(m), Move.getFromCol(m));
+                assertTrue(game.movePieceTo(player, p, Move.getToRow(m), Move.getToCol(m)));
+                player = enemy;
+            }
+        }
+    }
+
+    /**
+     * Test that the incremental Zobrist hash equals a full recomputation and identifies transpositions.
+     */
+    @Test
+    public void hashIsIncrementalAndConsistent() {
+        Random random = new Random(7);
+        int[] moves = new int[Move.MAX_MOVES];
+        for (int g = 0; g < 20; g++) {
+            Chess game = new Chess(true, g % 4 < 2, 8, 8, "abc", "xyz", g % 2 == 0);
+            Board b = game.getBoard();
+            assertEquals(b.computeHash(), b.hash());
+            for (int ply = 0; ply < 80; ply++) {
+                int n = b.generateLegalMoves(game.getCurPlayer(), moves);
+                if (n == 0) break;
+                int m = moves[random.nextInt(n)];
+                Piece p = b.getPieceAt(Move.getFromRow(m), Move.getFromCol(m));
+                assertTrue(game.movePieceTo(game.getCurPlayer(), p, Move.getToRow(m), Move.getToCol(m)));
+                game.setCurPlayer(game.getCurPlayer() == 'W' ? 'B' : 'W');
+                assertEquals(b.computeHash(), b.hash());
+            }
+        }
+
+        // the same position reached by two move orders
+        Chess a = new Chess(), c = new Chess();
+        assertEquals(a.getBoard().hash(), c.getBoard().hash());
+        a.movePieceTo('W', a.getPieceAt(7, 1), 5, 2);
+        a.movePieceTo('B', a.getPieceAt(0, 1), 2, 2);
+        a.movePieceTo('W', a.getPieceAt(7, 6), 5, 5);
+        c.movePieceTo('W', c.getPieceAt(7, 6), 5, 5);
+        c.movePieceTo('B', c.getPieceAt(0, 1), 2, 2);
+        c.movePieceTo('W', c.getPieceAt(7, 1), 5, 2);
+        assertEquals(a.getBoard().hash(), c.getBoard().hash());
+        c.setCurPlayer('B');
+        assertNotEquals(a.getBoard().hash(), c.getBoard().hash());
+
+        // a pawn that has moved hashes differently from one that hasn't
+        Chess d = new Chess(), e = new Chess();
+        d.movePieceTo('W', d.getPieceAt(6, 0), 5, 0);
+        d.getBoard().setPieceAt(d.getPieceAt(5, 0), 6, 0);
+        assertNotEquals(d.getBoard().hash(), e.getBoard().hash());
+    }
+
+    /**
+     * Test TranspositionTable round trips, replacement policies and concurrent use.
+     */
+    @Test
+    public void transpositionTableKeepsEntriesIntact() throws InterruptedException {
+        int move = Move.encode(6, 4, 4, 4);
+        // sizes past the largest table are refused rather than overflowing the array size
+        for (int sizeMb : new int[]{TranspositionTable.MAX_SIZE_MB + 1, 16384, Integer.MAX_VALUE}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> new TranspositionTable(sizeMb, TranspositionTable.Replacement.ALWAYS_REPLACE));
+        }
+        for (TranspositionTable.Replacement policy : TranspositionTable.Replacement.values()) {
+            TranspositionTable tt = new TranspositionTable(1, policy);
+            assertEquals(1 << 16, tt.size());
+            long key = new Chess().getBoard().hash();
+            assertEquals(0, tt.probe(key));
+            tt.store(key, move, -1234, 7, TranspositionTable.LOWER);
+            long data = tt.probe(key);
+            assertEquals(move, TranspositionTable.getMove(data));
+            assertEquals(-1234, TranspositionTable.getScore(data));
+            assertEquals(7, TranspositionTable.getDepth(data));
+            assertEquals(TranspositionTable.LOWER, TranspositionTable.getBound(data));
+
+            // same slot, different position
+            long other = key ^ (1L << 40);
+            tt.store(other, 0, 5, 3, TranspositionTable.EXACT);
+            boolean keptDeep = tt.probe(key) != 0, storedShallow = tt.probe(other) != 0;
+            if (policy == TranspositionTable.Replacement.DEPTH_PREFERRED) {
+                assertTrue(keptDeep && !storedShallow);
+                tt.newSearch();
+                tt.store(other, 0, 5, 3, TranspositionTable.EXACT);
+                assertTrue(tt.probe(other) != 0);
+            } else if (policy == TranspositionTable.Replacement.ALWAYS_REPLACE) {
+                assertTrue(!keptDeep && storedShallow);
+            } else {
+                assertTrue(keptDeep && storedShallow);
+            }
+            assertTrue(tt.getHits() > 0 && tt.getMisses() > 0);
+            assertTrue(policy == TranspositionTable.Replacement.TWO_BUCKET_AGING || tt.getCollisions() > 0);
+        }
+
+        // threads writing the same slots never let a reader see a mixed entry
+        TranspositionTable tt = new TranspositionTable(1, TranspositionTable.Replacement.ALWAYS_REPLACE);
+        Thread[] threads = new Thread[4];
+        boolean[] corrupt = new boolean[1];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(id);
+                for (int i = 0; i < 200000; i++) {
+                    long key = (random.nextInt(64) + 1) * 0x9E3779B97F4A7C15L;
+                    // every stored score is derived from its key
+                    int score = (short) (key >>> 20);
+                    if (random.nextBoolean()) {
+                        tt.store(key, id, score, i & 0xFF, TranspositionTable.EXACT);
+                    } else {
+                        long data = tt.probe(key);
+                        if (data != 0 && TranspositionTable.getScore(data) != score) corrupt[0] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertFalse(corrupt[0]);
+    }
+
+    /**
+     * Test Perft counts against the move generator, with and without threads and cache.
+     */
+    @Test
+    public void perftCountsMatch() {
+        Board board = new Chess().getBoard();
+        long hash = board.hash();
+        assertEquals(20, new Perft(1, 0).count(board, 1));
+        assertEquals(400, new Perft(1, 0).count(board, 2));
+        long expected = new Perft(1, 0).count(board, 4);
+        assertEquals(expected, new Perft(3, 0).count(board, 4));
+        assertEquals(expected, new Perft(3, 4).count(board, 4));
+        assertThrows(IllegalArgumentException.class, () -> new Perft(1, TranspositionTable.MAX_SIZE_MB + 1));
+        assertEquals(hash, board.hash());
+        assertEquals(board.computeHash(), board.hash());
+
+        // divide: each root move counts the moves of the reply
+        for (boolean custom : new boolean[]{false, true}) {
+            Board b = new Chess(true, true, 8, 8, "abc", "xyz", custom, true).getBoard();
+            int[] moves = new int[Move.MAX_MOVES], replies = new int[Move.MAX_MOVES];
+            long[] counts = new long[Move.MAX_MOVES];
+            long total = new Perft(2, 1).divide(b, 2, moves, counts), sum = 0;
+            int n = b.generateLegalMoves('W', new int[Move.MAX_MOVES]);
+            for (int i = 0; i < n; i++) {
+                Board copy = b.copy();
+                Piece p = copy.getPieceAt(Move.getFromRow(moves[i]), Move.getFromCol(moves[i]));
+                copy.setPieceAt(p, Move.getToRow(moves[i]), Move.getToCol(moves[i]));
+                assertEquals(copy.generateLegalMoves('B', replies), counts[i]);
+                sum += counts[i];
+            }
+            assertEquals(sum, total);
+        }
+    }
+
+    /**
+     * Test Board.makeMove and Board.unmakeMove restore positions exactly, and undo in Chess.
+     */
+    @Test
+    public void unmakeMoveRestoresPosition() {
+        Random random = new Random(11);
+        int[] moves = new int[Move.MAX_MOVES];
+        for (int g = 0; g < 10; g++) {
+            Board b = new Chess(g % 2 == 0, true, 8, 8, "abc", "xyz", g % 3 == 0, g % 4 == 0).getBoard();
+            String start = describe(b);
+            long hash = b.hash();
+            int plies = 0;
+            for (; plies < 100; plies++) {
+                int n = b.generateLegalMoves(b.getSideToMove(), moves);
+                if (n == 0) break;
+                b.makeMove(moves[random.nextInt(n)]);
+                assertEquals(b.computeHash(), b.hash());
+            }
+            assertEquals(plies, b.getUndoSize());
+            while (b.unmakeMove() != 0) assertEquals(b.computeHash(), b.hash());
+            assertEquals(start, describe(b));
+            assertEquals(hash, b.hash());
+        }
+
+        // undo gives back a captured piece and the Pawn's first move
+        Chess game = new Chess();
+        Piece pawn = game.getPieceAt(6, 4);
+        assertTrue(game.movePieceTo('W', pawn, 4, 4));
+        game.setCurPlayer('B');
+        Piece knight = game.getPieceAt(0, 6);
+        assertTrue(game.movePieceTo('B', knight, 2, 5));
+        game.setCurPlayer('W');
+        assertTrue(game.movePieceTo('W', game.getPieceAt(7, 3), 3, 7));
+        game.setCurPlayer('B');
+        assertTrue(game.movePieceTo('B', knight, 3, 7));
+        game.setCurPlayer('W');
+        assertEquals(knight, game.getPieceAt(3, 7));
+
+        Scanner in = new Scanner(System.in);
+        assertTrue(game.readStr("undo", in));
+        assertEquals('B', game.getCurPlayer());
+        assertEquals("Queen", game.getPieceAt(3, 7).getType());
+        assertEquals(knight, game.getPieceAt(2, 5));
+        for (int i = 0; i < 3; i++) assertTrue(game.readStr("undo", in));
+        assertEquals('W', game.getCurPlayer());
+        assertEquals(pawn, game.getPieceAt(6, 4));
+        assertTrue(((Pawn) pawn).isFirstMove());
+        assertEquals(new Chess().getBoard().hash(), game.getBoard().hash());
+    }
+
+    /**
+     * Return every piece of the board with its location and first move condition.
+     * @param b the board
+     * @return a string describing the position.
+     */
+    private static String describe(Board b) {
+        StringBuilder sb = new StringBuilder().append(b.getSideToMove());
+        for (int r = 0; r < b.getNumRows(); r++) {
+            for (int c = 0; c < b.getNumCols(); c++) {
+                Piece p = b.getPieceAt(r, c);
+                if (p == null) continue;
+                sb.append(' ').append(r).append(c).append((char) p.getPlayer()).append(p.getType());
+                assertEquals(r, p.getRow());
+                assertEquals(c, p.getCol());
+                if (p instanceof Pawn && ((Pawn) p).isFirstMove()) sb.append('*');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Test the Search finds a mate in one and a free Queen, and leaves the board as it was.
+     */
+    @Test
+    public void searchFindsBestMoves() {
+        Board b = new Board();
+        b.setPieceAt(new King('B'), 0, 7);
+        b.setPieceAt(new King('W'), 2, 6);
+        b.setPieceAt(new Rook('W'), 5, 0);
+        b.setPieceAt(new Pawn('B', true), 1, 3);
+        long hash = b.hash();
+        SearchResult result = new Search().bestMove(b, SearchLimits.depth(4));
+        assertEquals(Move.encode(5, 0, 0, 0), result.getBestMove());
+        assertEquals(Search.MATE - 1, result.getScore());
+        assertEquals(hash, b.hash());
+
+        // black to move is mated
+        b.makeMove(result.getBestMove());
+        result = new Search().bestMove(b, SearchLimits.depth(4));
+        assertEquals(0, result.getBestMove());
+        assertEquals(-Search.MATE, result.getScore());
+
+        // a Queen left hanging is taken, by the custom pieces too
+        Chess game = new Chess(true, true, 8, 8, "abc", "xyz", true);
+        game.getBoard().setPieceAt(new Queen('B'), 5, 2);
+        result = new Search().bestMove(game.getBoard(), new SearchLimits(3, 5000));
+        assertEquals(5, Move.getToRow(result.getBestMove()));
+        assertEquals(2, Move.getToCol(result.getBestMove()));
+        assertTrue(result.getDepth() == 3 && result.getNodes() > 0);
+    }
+
+    /**
+     * Test SmpSearch is reproducible with one thread and plays a legal move with several.
+     */
+    @Test
+    public void smpSearchMatchesSearch() {
+        Board board = new Chess().getBoard();
+        long hash = board.hash();
+        SearchResult single = new Search().bestMove(board, SearchLimits.depth(5));
+        for (int i = 0; i < 2; i++) {
+            SearchResult result = new SmpSearch(1, 16).bestMove(board, SearchLimits.depth(5));
+            assertEquals(single.getBestMove(), result.getBestMove());
+            assertEquals(single.getScore(), result.getScore());
+            assertEquals(single.getNodes(), result.getNodes());
+        }
+
+        SmpSearch smp = new SmpSearch(4, 16);
+        SearchResult result = smp.bestMove(board, SearchLimits.depth(5));
+        assertEquals(5, result.getDepth());
+        assertTrue(board.isLegalMove('W', result.getBestMove()));
+        assertTrue(smp.getTable().getHits() > 0);
+        assertEquals(hash, board.hash());
+        assertEquals(board.computeHash(), board.hash());
+    }
+
+    /**
+     * Test headless games: a scripted mate, a forfeit and a batch of random games.
+     */
+    @Test
+    public void selfPlayRecordsResults() throws InterruptedException {
+        // only the Kings and a white Rook are left
+        Chess game = new Chess();
+        Board b = game.getBoard();
+        for (int r = 0; r < 8; r++) {
+            for (int c = 0; c < 8; c++) {
+                if (b.getPieceAt(r, c) != null && !b.getPieceAt(r, c).getType().equals("King")) b.removePieceAt(r, c);
+            }
+        }
+        b.setPieceAt(b.getPieceAt(7, 4), 2, 4);
+        b.setPieceAt(new Rook('W'), 5, 0);
+        MoveSource white = new ScriptedMoveSource(Move.encode(5, 0, 0, 0));
+        MoveSource black = new ScriptedMoveSource();
+        SelfPlayStats stats = new SelfPlayStats();
+        assertEquals(SelfPlay.WHITE_WINS, SelfPlay.playGame(game, white, black, 100, stats));
+        assertEquals(1, stats.getMoves());
+        assertEquals(0, stats.getForfeits());
+        assertEquals(Chess.ILLEGAL_MOVE, game.play(Move.encode(0, 4, 0, 5)));
+
+        // the Rook can't jump over its Pawn
+        white = new ScriptedMoveSource(Move.encode(7, 0, 5, 0));
+        assertEquals(SelfPlay.BLACK_WINS, SelfPlay.playGame(new Chess(), white, black, 100, stats));
+        assertEquals(1, stats.getForfeits());
+
+        stats = new SelfPlay(i -> new RandomMoveSource(i), i -> new RandomMoveSource(-i), true, 200).run(50, 3);
+        assertEquals(50, stats.getGames());
+        long sum = 0;
+        for (int i = 0; i < SelfPlay.OUTCOMES.length; i++) sum += stats.getCount(i);
+        assertEquals(50, sum);
+        assertEquals(0, stats.getForfeits());
+        assertTrue(stats.getMoves() > 0 && stats.getMovesPerSecond() > 0);
+    }
+
+    /**
+     * Test GameServer with two loopback clients playing one game.
+     */
+    @Test
+    public void gameServerPlaysOverLoopback() throws IOException, InterruptedException {
+        GameServer server = new GameServer(0);
+        Thread thread = new Thread(server);
+        thread.start();
+        try (Socket w = new Socket("localhost", server.getPort());
+             Socket b = new Socket("localhost", server.getPort())) {
+            BufferedReader win = new BufferedReader(new InputStreamReader(w.getInputStream()));
+            BufferedReader bin = new BufferedReader(new InputStreamReader(b.getInputStream()));
+            PrintWriter wout = new PrintWriter(w.getOutputStream(), true);
+            PrintWriter bout = new PrintWriter(b.getOutputStream(), true);
+
+            wout.println("6 4 4 4");
+            assertEquals("error not in a game", win.readLine());
+            wout.println("new");
+            String game = win.readLine();
+            assertTrue(game.matches("game \\d+ W"));
+            wout.println("6 4 4 4");
+            assertEquals("error waiting for opponent", win.readLine());
+            bout.println("join " + game.split(" ")[1]);
+            assertEquals(game.replace('W', 'B'), bin.readLine());
+            assertEquals("joined", win.readLine());
+            assertEquals(1, server.getSessionCount());
+
+            bout.println("1 4 3 4");
+            assertEquals("error not your turn", bin.readLine());
+            wout.println("6 4 5 5");
+            assertEquals("error illegal move", win.readLine());
+            wout.println("6 4 4 4");
+            assertEquals("ok", win.readLine());
+            assertEquals("moved 6 4 4 4", bin.readLine());
+            wout.println("undo");
+            assertEquals("ok", win.readLine());
+            assertEquals("undone", bin.readLine());
+            wout.println("6 3 4 3\r");
+            assertEquals("ok", win.readLine());
+            assertEquals("moved 6 3 4 3", bin.readLine());
+            bout.println("hello");
+            assertEquals("error unknown command", bin.readLine());
+
+            bout.println("forfeit");
+            assertEquals("ok", bin.readLine());
+            assertEquals("forfeit B", win.readLine());
+            wout.println("1 4 3 4");
+            assertEquals("error game over", win.readLine());
+            wout.println("restart");
+            assertEquals("ok", win.readLine());
+            assertEquals("restart?", bin.readLine());
+            bout.println("restart");
+            assertEquals("ok", bin.readLine());
+            assertEquals("restarted", win.readLine());
+            wout.println("6 4 4 4");
+            assertEquals("ok", win.readLine());
+            assertEquals("moved 6 4 4 4", bin.readLine());
+
+            bout.println("exit");
+            assertEquals("bye", bin.readLine());
+            assertNull(bin.readLine());
+            assertEquals("left", win.readLine());
+            assertEquals(0, server.getSessionCount());
+            wout.println("6 4 4 4");
+            assertEquals("error not in a game", win.readLine());
+            wout.println("new");
+            assertTrue(win.readLine().matches("game \\d+ W"));
+            wout.println("x".repeat(200));
+            assertEquals("error line too long", win.readLine());
+            assertNull(win.readLine());
+        } finally {
+            server.close();
+            thread.join();
+        }
+        assertEquals(0, server.getSessionCount());
+    }
+
+    /**
+     * Test GameArchiveWriter and GameArchiveReader: games come back with their setup and
+     * moves, replay reaches the same position, and a game cut short is dropped.
+     */
+    @Test
+    public void gameArchiveReplaysGames() throws IOException {
+        Path path = Files.createTempFile("games", ".bin");
+        Files.delete(path);
+        long[] hashes = new long[3];
+        try (GameArchiveWriter writer = new GameArchiveWriter(path)) {
+            for (int i = 0; i < 3; i++) {
+                Chess game = new Chess(i != 1, i != 2, 8, 8, "White", "Black", i == 2);
+                SelfPlay.playGame(game, new RandomMoveSource(i), new RandomMoveSource(-i), 40 + i, null);
+                writer.append(game, i);
+                hashes[i] = game.getBoard().hash();
+            }
+            writer.append(new Chess(), GameArchive.UNFINISHED);
+            assertEquals(4, writer.getGameCount());
+        }
+        assertThrows(IllegalArgumentException.class, () -> {
+            try (GameArchiveWriter writer = new GameArchiveWriter(path)) {
+                writer.append(new Chess(true, true, 16, 17, "White", "Black", false), GameArchive.DRAW);
+            }
+        });
+        // half a game, as if the last append had crashed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 8, 8, 0, 0, 0, 0, 9, 1, 2}));
+        }
+
+        try (GameArchiveReader reader = new GameArchiveReader(path)) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(reader.next());
+                assertEquals(i != 1, reader.isWFirstPlayer());
+                assertEquals(i != 2, reader.isWLowerPlayer());
+                assertEquals(i == 2, reader.usesCustomPieces());
+                assertEquals(i, reader.getResult());
+                Chess game = reader.newGame();
+                assertEquals(reader.getMoveCount(), reader.replay(game));
+                assertEquals(hashes[i], game.getBoard().hash());
+                assertEquals(game.getBoard().getSideToMove(), game.getCurPlayer());
+
+                // the archived moves are the legal moves that were played
+                Chess check = reader.newGame();
+                for (int ply = 0; ply < reader.getMoveCount(); ply++) {
+                    assertNotEquals(Chess.ILLEGAL_MOVE, check.play(reader.getMove(ply)));
+                }
+                assertEquals(hashes[i], check.getBoard().hash());
+            }
+            assertTrue(reader.next());
+            assertEquals(0, reader.getMoveCount());
+            assertFalse(reader.next());
+            reader.rewind();
+            assertTrue(reader.next());
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.getMove(reader.getMoveCount()));
+        }
+
+        // reopening drops the broken game and appends after the last complete one
+        try (GameArchiveWriter writer = new GameArchiveWriter(path)) {
+            assertEquals(4, writer.getGameCount());
+            // a second writer would overwrite the games of the first
+            assertThrows(IOException.class, () -> new GameArchiveWriter(path));
+            writer.append(new Chess(), GameArchive.DRAW);
+        }
+        try (GameArchiveReader reader = new GameArchiveReader(path)) {
+            int games = 0;
+            while (reader.next()) games++;
+            assertEquals(5, games);
+            assertEquals(GameArchive.DRAW, reader.getResult());
+            assertEquals(Files.size(path), reader.getEnd());
+        } finally {
+            Files.delete(path);
+            Files.delete(path.resolveSibling(path.getFileName() + ".lock"));
+        }
+    }
+
+    /**
+     * Test Fen, San, PgnWriter and PgnReader, including the Tank and Soldier extension.
+     */
+    @Test
+    public void notationRoundTrips() throws IOException {
+        assertEquals(Fen.START, Fen.write(new Chess()));
+        assertTrue(Fen.read(Fen.START).isFromSetup());
+        Chess custom = new Chess(true, true, 8, 8, "White", "Black", true);
+        assertEquals("rnbqkbnr/ptppppsp/8/8/8/8/PTPPPPSP/RNBQKBNR w - - 0 1", Fen.write(custom));
+        Chess upper = new Chess(false, false, 8, 8, "White", "Black", false);
+        assertEquals("RNBQKBNR/PPPPPPPP/8/8/8/8/pppppppp/rnbqkbnr b - - 0 1 b", Fen.write(upper));
+        assertTrue(Fen.read(Fen.write(upper)).isFromSetup());
+        assertThrows(IllegalArgumentException.class, () -> Fen.read("8/8/8/8/8/8/8/K7 w - - 0 1"));
+        assertThrows(IllegalArgumentException.class, () -> Fen.read("rnbqkbnr/ppppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w"));
+
+        Board board = new Chess().getBoard();
+        assertEquals(Move.encode(6, 4, 4, 4), San.parse(board, "e4"));
+        assertEquals(Move.encode(7, 6, 5, 5), San.parse(board, "Nf3"));
+        assertEquals(Move.encode(7, 6, 5, 5), San.parse(board, "g1f3"));
+        assertEquals(Move.encode(6, 4, 4, 4), San.parse(board, "e2-e4"));
+        assertEquals(0, San.parse(board, "exd3"));
+        assertEquals(0, San.parse(board, "O-O"));
+        assertEquals(0, San.parse(board, "Ke2"));
+        assertEquals("e4", San.toSan(board, Move.encode(6, 4, 4, 4)));
+
+        Chess mate = Fen.read("7k/3p4/6K1/8/8/R7/8/8 w - - 0 1");
+        assertFalse(mate.isFromSetup());
+        assertEquals("Ra8#", San.toSan(mate.getBoard(), Move.encode(5, 0, 0, 0)));
+        assertEquals(Chess.CHECKMATE, mate.play(San.parse(mate.getBoard(), "Ra8#")));
+        assertEquals("7k/3p4/6K1/8/8/R7/8/8 w - - 0 1", Fen.write(Fen.read("7k/3p4/6K1/8/8/R7/8/8 w - - 0 1")));
+
+        // random games out to PGN and back
+        StringWriter text = new StringWriter();
+        Chess[] games = {new Chess(), custom, upper};
+        try (PgnWriter writer = new PgnWriter(text)) {
+            for (int i = 0; i < games.length; i++) {
+                SelfPlay.playGame(games[i], new RandomMoveSource(i), new RandomMoveSource(-i), 120, null);
+                java.util.Map<String, String> tags = new java.util.HashMap<>();
+                tags.put("White", "Alice \"A\"");
+                tags.put("Variant", "Tank-Soldier");
+                writer.write(games[i], tags, "*");
+            }
+        }
+        assertTrue(text.toString().contains("[FEN \"rnbqkbnr/ptppppsp/8/8/8/8/PTPPPPSP/RNBQKBNR w - - 0 1\"]"));
+        for (String line : text.toString().split("\n")) assertTrue(line.length() <= 80);
+        try (PgnReader reader = new PgnReader(new StringReader(text.toString()))) {
+            for (Chess game : games) {
+                assertTrue(reader.next());
+                assertNull(reader.getError());
+                assertEquals("Alice \"A\"", reader.getTag("White"));
+                assertEquals("Tank-Soldier", reader.getTag("Variant"));
+                assertEquals(game.getBoard().getUndoSize(), reader.getPlies());
+                assertEquals(game.getBoard().hash(), reader.getGame().getBoard().hash());
+                assertEquals(Fen.write(game), Fen.write(reader.getGame()));
+                assertTrue(reader.getGame().isFromSetup());
+            }
+            assertFalse(reader.next());
+        }
+
+        String pgn = "[Event \"Test\"]\n[Result \"1-0\"]\n\n1. e4 {a comment; with (parens)} e5 (1... d5 2. d4 (2. Nc3))"
+                + " 2.Nf3 $1 Nc6 ; rest of line\n3. exe5 1-0\n\n1. e4 d5 2. exd5 *\n";
+        try (PgnReader reader = new PgnReader(new StringReader(pgn))) {
+            assertTrue(reader.next());
+            assertEquals("Test", reader.getTag("Event"));
+            assertEquals("1-0", reader.getResult());
+            assertEquals(5, reader.getPlies());
+            assertNull(reader.getError());
+            assertTrue(reader.next());
+            assertEquals(2, reader.getPlies());
+            assertEquals("*", reader.getResult());
+            assertTrue(reader.getError().contains("exd5"));
+            assertFalse(reader.next());
+        }
+
+        // a game with a bad position is skipped, and reading goes on with the next one
+        String badFen = "[FEN \"k7/8/8/8/8/8/8/8 w - - 0 1\"]\n\n1. e4 e5 *\n\n1. e4 e5 *\n";
+        try (PgnReader reader = new PgnReader(new StringReader(badFen))) {
+            assertTrue(reader.next());
+            assertNotNull(reader.getError());
+            assertNull(reader.getGame());
+            assertEquals(0, reader.getPlies());
+            assertTrue(reader.next());
+            assertNull(reader.getError());
+            assertEquals(2, reader.getPlies());
+            assertFalse(reader.next());
+        }
+    }
+
+    /**
+     * Test a crowded custom-piece position from a FEN, with more moves than Move.MAX_MOVES.
+     */
+    @Test
+    public void crowdedFenFitsMoveBuffers() throws IOException {
+        Chess game = Fen.read("k7/8/TTTTTTTT/8/8/TTTTTTTT/8/6K1 w - - 0 1");
+        Board board = game.getBoard();
+        int[] moves = new int[board.getMoveBufferSize()];
+        int n = board.generateLegalMoves('W', moves);
+        assertEquals(261, n);
+        int last = moves[n - 1];
+        assertEquals(last, San.parse(board, San.toSan(board, last)));
+        assertEquals(n, new Perft(1, 0).count(board, 1));
+        assertEquals(new Perft(1, 0).count(board, 2), new Perft(2, 1).count(board, 2));
+        assertNotEquals(0, new Search().bestMove(board, SearchLimits.depth(2)).getBestMove());
+
+        SelfPlay.playGame(game, new RandomMoveSource(1), new RandomMoveSource(2), 20, null);
+        StringWriter text = new StringWriter();
+        try (PgnWriter writer = new PgnWriter(text)) {
+            writer.write(game, null, "*");
+        }
+        try (PgnReader reader = new PgnReader(new StringReader(text.toString()))) {
+            assertTrue(reader.next());
+            assertNull(reader.getError());
+            assertEquals(game.getBoard().hash(), reader.getGame().getBoard().hash());
+        }
+    }
+
+    /**
+     * Test BookBuilder and OpeningBook: the book is the same on any number of threads and
+     * holds every decided game of the archive under the start position.
+     */
+    @Test
+    public void openingBookCountsGames() throws IOException, InterruptedException {
+        Path archive = Files.createTempFile("games", ".bin");
+        Path book1 = Files.createTempFile("book1", ".bin"), book3 = Files.createTempFile("book3", ".bin");
+        Files.delete(archive);
+        try {
+            try (GameArchiveWriter writer = new GameArchiveWriter(archive)) {
+                SelfPlay selfPlay = new SelfPlay(i -> new RandomMoveSource(i), i -> new RandomMoveSource(-i), false, 300);
+                selfPlay.setArchive(writer);
+                selfPlay.run(200, 2);
+            }
+            int decided = 0;
+            try (GameArchiveReader reader = new GameArchiveReader(archive)) {
+                while (reader.next()) if (reader.getResult() != GameArchive.UNFINISHED) decided++;
+            }
+            assertTrue(decided > 0);
+
+            long entries = new BookBuilder(6, 1, 1).build(archive, book1);
+            assertEquals(entries, new BookBuilder(6, 1, 3).build(archive, book3));
+            assertArrayEquals(Files.readAllBytes(book1), Files.readAllBytes(book3));
+
+            try (OpeningBook book = new OpeningBook(book3)) {
+                assertEquals(entries, book.size());
+                for (int i = 1; i < book.size(); i++) {
+                    assertTrue(book.getKey(i - 1) < book.getKey(i)
+                            || book.getKey(i - 1) == book.getKey(i) && book.getMove(i - 1) < book.getMove(i));
+                }
+                Board start = new Chess().getBoard();
+                int first = book.find(start.hash()), games = 0;
+                assertTrue(first >= 0);
+                for (int i = first; i < book.size() && book.getKey(i) == start.hash(); i++) {
+                    games += book.getWins(i) + book.getDraws(i) + book.getLosses(i);
+                }
+                assertEquals(decided, games);
+                int best = book.best(start);
+                assertTrue(best != 0 && start.isLegalMove('W', best));
+                for (long r = 0; r < 20; r++) {
+                    int move = book.pick(start, r * 0x9E3779B97F4A7C15L);
+                    assertTrue(move != 0 && start.getPieceAt(Move.getFromRow(move), Move.getFromCol(move)).getPlayer() == 'W');
+                }
+                assertEquals(-1, book.find(start.hash() ^ 1));
+                assertEquals(0, book.pick(Fen.read("7k/3p4/6K1/8/8/R7/8/8 w - - 0 1").getBoard(), 0));
+            }
+        } finally {
+            Files.deleteIfExists(archive);
+            Files.deleteIfExists(archive.resolveSibling(archive.getFileName() + ".lock"));
+            Files.delete(book1);
+            Files.delete(book3);
+        }
+    }
+
+    @Test
+    public void tablebaseGivesPerfectPlay() throws IOException, InterruptedException {
+        assertEquals("KQvK", Tablebase.canonical("kvkq"));
+        assertEquals("KSTvKN", Tablebase.canonical("KNvKTS"));
+        assertThrows(IllegalArgumentException.class, () -> Tablebase.canonical("KPvK"));
+
+        Path one = Files.createTempFile("tb1", Tablebase.EXTENSION), two = Files.createTempFile("tb2", Tablebase.EXTENSION);
+        try {
+            new TablebaseGenerator(8, 8, 1).generate("KQvK").write(one);
+            new TablebaseGenerator(8, 8, 3).generate("KvKQ").write(two);
+            assertArrayEquals(Files.readAllBytes(one), Files.readAllBytes(two));
+
+            try (Tablebase table = new Tablebase(two)) {
+                assertEquals("KQvK", table.getMaterial());
+                int longest = 0;
+                for (long i = 0; i < table.size(); i++) longest = Math.max(longest, table.get(i));
+                assertEquals(21, longest); // mate in 10 moves, the known longest of KQvK
+
+                Tablebases tablebases = new Tablebases();
+                tablebases.add(table);
+                Board mateInOne = Fen.read("7k/8/6K1/8/8/8/8/1Q6 w - - 0 1").getBoard();
+                assertEquals(Search.MATE - 1, tablebases.probe(mateInOne));
+                int move = tablebases.bestMove(mateInOne);
+                mateInOne.makeMove(move);
+                assertEquals(-Search.MATE, tablebases.probe(mateInOne));
+                assertEquals(Search.MATE - 1, tablebases.probe(Fen.read("7K/8/6k1/8/8/8/8/1q6 b - - 0 1").getBoard()));
+                assertEquals(0, tablebases.probe(Fen.read("7k/8/6K1/8/8/8/8/8 w - - 0 1").getBoard()));
+                assertEquals(Tablebases.UNKNOWN, tablebases.probe(Fen.read("7k/8/6K1/8/8/8/P7/1Q6 w - - 0 1").getBoard()));
+
+                Search search = new Search();
+                search.setTablebases(tablebases);
+                Board board = Fen.read("7k/8/6K1/8/8/8/8/1Q6 w - - 0 1").getBoard();
+                assertEquals(Search.MATE - 1, search.bestMove(board, SearchLimits.depth(4)).getScore());
+
+                // every thread of a parallel search probes the tables
+                SmpSearch smp = new SmpSearch(4, 16);
+                smp.setTablebases(tablebases);
+                Board start = Fen.read("8/8/8/3k4/8/8/8/1Q2K3 w - - 0 1").getBoard();
+                SearchResult result = smp.bestMove(start, SearchLimits.depth(3));
+                assertTrue(result.getScore() > Search.MATE - 30);
+                assertTrue(start.isLegalMove('W', result.getBestMove()));
+                assertEquals(tablebases.probe(start), tablebases.share().probe(start));
+            }
+        } finally {
+            Files.delete(one);
+            Files.delete(two);
+        }
+
+        // every value agrees with the values after each legal move, found by Board
+        TablebaseGenerator generator = new TablebaseGenerator(5, 5, 2);
+        generator.generate("KTvKS");
+        Tablebases tablebases = new Tablebases();
+        for (Tablebase table : generator.getGenerated()) tablebases.add(table);
+        Random random = new Random(7);
+        int[] moves = new int[Move.MAX_MOVES];
+        Piece[] pieces = {new King('W'), new Tank('W'), new King('B'), new Soldier('B')};
+        for (int trial = 0; trial < 2000; trial++) {
+            Board board = new Board(5, 5);
+            for (Piece p : pieces) {
+                int sq;
+                do sq = random.nextInt(25); while (board.hasPieceAt(sq / 5, sq % 5));
+                board.setPieceAt(p.copy(), sq / 5, sq % 5);
+            }
+            char side = random.nextBoolean() ? 'W' : 'B', other = side == 'W' ? 'B' : 'W';
+            board.setSideToMove(side);
+            Piece king = board.getKing(other);
+            if (board.isSquareAttacked(king.getRow(), king.getCol(), side)) continue;
+            int n = board.generateLegalMoves(side, moves), best = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                board.makeMove(moves[i]);
+                best = Math.max(best, -tablebases.probe(board));
+                board.unmakeMove();
+            }
+            king = board.getKing(side);
+            int expected = n == 0 ? (board.isSquareAttacked(king.getRow(), king.getCol(), other) ? -Search.MATE : 0)
+                    : best > 0 ? best - 1 : best < 0 ? best + 1 : 0;
+            assertEquals(expected, tablebases.probe(board));
+        }
+    }
+
+    @Test
+    public void boardRendererDrawsChangedSquares() {
+        Chess game = new Chess();
+        Board board = game.getBoard();
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+        try {
+            // the board as printBoard used to print it, one piece at a time
+            for (int r = 0; r < 8; r++) {
+                System.out.print(r + 1);
+                for (int c = 0; c < 8; c++) {
+                    System.out.print("\t");
+                    if (board.getPieceAt(r, c) != null) board.getPieceAt(r, c).print();
+                    else System.out.print("\u2022");
+                }
+                System.out.println();
+            }
+            for (char a = 'a'; a < 'i'; a++) System.out.print("\t" + a);
+            System.out.println();
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals(printed.toString(StandardCharsets.UTF_8), new BoardRenderer(false).render(board).toString());
+
+        assertEquals("z", BoardRenderer.columnLabel(25));
+        assertEquals("aa", BoardRenderer.columnLabel(26));
+        assertEquals("zz", BoardRenderer.columnLabel(701));
+        assertEquals("aaa", BoardRenderer.columnLabel(702));
+        String wide = new BoardRenderer(false).render(new Board(3, 28)).toString();
+        assertTrue(wide.endsWith("\ty\tz\taa\tab" + System.lineSeparator()));
+
+        BoardRenderer ansi = new BoardRenderer(true);
+        String first = ansi.render(board).toString();
+        assertTrue(first.startsWith("\u001B[H\u001B[2J1\t"));
+        board.makeMove(Move.encode(6, 4, 4, 4));
+        assertEquals("\u001B[5;41H\u2659\u001B[7;41H\u2022\u001B[10;1H\u001B[J", ansi.render(board).toString());
+        assertEquals("\u001B[10;1H\u001B[J", ansi.render(board).toString());
+        ansi.invalidate();
+        assertTrue(ansi.render(board).toString().startsWith("\u001B[H\u001B[2J"));
+    }
+
+    @Test
+    public void batchRunnerPlaysScripts() throws IOException {
+        StringWriter out = new StringWriter();
+        BatchRunner runner = new BatchRunner(out);
+        String script = "# scholar's mate, with a move taken back\n" + "game a\n" + "e4\n" + "e5\n" + "undo\n"
+                + "6 4 4 4\n" + "1 4 3 4\n" + "Bc4\n" + "Nc6\n" + "zz\n" + "Qh5\n" + "Nf6\n" + "Qxf7\n" + "fen\n"
+                + "\n" + "game b fen 4k3/8/8/8/8/8/8/4K2R w\n" + "forfeit\n" + "undo\n" + "game c odd\n";
+        runner.run("s", new BufferedReader(new StringReader(script)));
+        runner.finish(0);
+        String[] lines = out.toString().split("\n");
+        assertEquals(18, lines.length);
+        assertEquals("{\"script\":\"s\",\"line\":2,\"game\":\"a\",\"command\":\"game a\",\"status\":\"ok\"}", lines[0]);
+        assertEquals("{\"script\":\"s\",\"line\":3,\"game\":\"a\",\"command\":\"e4\",\"status\":\"ok\",\"ply\":1}", lines[1]);
+        assertTrue(lines[3].contains("\"command\":\"undo\",\"status\":\"ok\",\"ply\":1"));
+        assertTrue(lines[4].endsWith("\"command\":\"6 4 4 4\",\"status\":\"error\",\"error\":\"illegal move\"}"));
+        assertTrue(lines[5].endsWith("\"command\":\"1 4 3 4\",\"status\":\"ok\",\"ply\":2}"));
+        assertTrue(lines[8].contains("\"command\":\"zz\",\"status\":\"error\""));
+        assertTrue(lines[11].endsWith("\"status\":\"checkmate\",\"ply\":7,\"winner\":\"W\"}"));
+        // the game starts again after it ends
+        assertTrue(lines[12].endsWith("\"fen\":\"" + Fen.write(new Chess()) + "\"}"));
+        assertTrue(lines[14].endsWith("\"status\":\"forfeit\",\"winner\":\"B\"}"));
+        assertTrue(lines[15].endsWith("\"error\":\"no move to take back\"}"));
+        assertTrue(lines[16].contains("\"game\":\"b\",\"command\":\"game c odd\",\"status\":\"error\""));
+        assertEquals("{\"summary\":true,\"commands\":17,\"errors\":4,\"games\":2,\"whiteWins\":1,\"blackWins\":1,"
+                + "\"draws\":0,\"seconds\":0.0}", lines[17]);
+    }
+
+    @Test
+    public void moveParserReadsEveryForm() {
+        MoveParser parser = new MoveParser();
+        Board board = new Chess().getBoard();
+        int e4 = Move.encode(6, 4, 4, 4);
+        assertEquals(e4, parser.parse(board, "6 4 4 4"));
+        assertEquals(e4, parser.parse(board, " 6  4\t4 4 \r\n"));
+        assertEquals(e4, parser.parse(board, "e2e4"));
+        assertEquals(e4, parser.parse(board, "e4"));
+        assertEquals(Move.encode(7, 6, 5, 5), parser.parse(board, new StringBuilder("Nf3+")));
+        byte[] line = "new\nNf3\r\n".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Move.encode(7, 6, 5, 5), parser.parse(board, line, 4, 5));
+        Board crowded = Fen.read("k7/8/TTTTTTTT/8/8/TTTTTTTT/8/6K1 w - - 0 1").getBoard();
+        int[] moves = new int[crowded.getMoveBufferSize()];
+        int last = moves[crowded.generateLegalMoves('W', moves) - 1];
+        assertEquals(last, parser.parse(crowded, San.toSan(crowded, last)));
+        // four integers are taken as typed, algebraic moves must be legal
+        assertEquals(Move.encode(6, 4, 5, 5), parser.parse(board, "6 4 5 5"));
+        assertEquals(-1, parser.parse(board, "e5"));
+        for (String bad : new String[]{"", "6 4 4", "6 4 4 4 4", "6 4 4 x", "128 0 0 0", "-1 0 0 0", "hello"}) {
+            assertEquals(-1, parser.parse(board, bad), bad);
+        }
+        assertEquals(Move.encode(99, 120, 98, 7), parser.parse(new Board(8, 8), "99 120 98 7"));
+
+        assertArrayEquals(new int[]{6, 4, 4, 4}, getIntsFromStr("6 4 4 4"));
+        assertNull(getIntsFromStr("6 4 4"));
+    }
+
+    @Test
+    public void leaderboardSurvivesRestartsAndCompaction() throws Exception {
+        Path dir = Files.createTempDirectory("leaderboard");
+        try {
+            Leaderboard board = new Leaderboard(dir);
+            board.recordWin("ann", "bob");
+            board.recordWin("ann", "cy");
+            board.recordDraw("bob", "cy");
+            assertEquals("[ann: 2/0/0, bob: 0/1/1, cy: 0/1/1]", board.top(5).toString());
+            // a second owner would append to the same segment
+            assertThrows(IOException.class, () -> new Leaderboard(dir));
+            board.close();
+
+            // a game cut short by a crash is dropped
+            Path log = dir.resolve("scores-00000001.log");
+            Files.write(log, new byte[]{Leaderboard.WIN, 3, 'a'}, StandardOpenOption.APPEND);
+            board = new Leaderboard(dir);
+            assertEquals("[ann: 2/0/0, bob: 0/1/1]", board.top(2).toString());
+
+            // games from several threads, compacted in the background along the way
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                Leaderboard shared = board;
+                int seed = t;
+                threads[t] = new Thread(() -> {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            String a = "player" + random.nextInt(5000), b = "player" + random.nextInt(5000);
+                            if (i % 2 == 0) shared.recordWin(a, b);
+                            else shared.recordDraw(a, b);
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) t.join();
+            board.recordWin("cy", "ann");
+            List<Leaderboard.Standing> before = board.top(Integer.MAX_VALUE);
+            long wins = 0, losses = 0;
+            for (Leaderboard.Standing standing : before) {
+                wins += standing.getWins();
+                losses += standing.getLosses();
+            }
+            assertEquals(40003, wins);
+            assertEquals(wins, losses);
+            board.close();
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                assertTrue(files.count() < 4);
+            }
+
+            board = new Leaderboard(dir);
+            assertEquals(before.toString(), board.top(Integer.MAX_VALUE).toString());
+            board.compact();
+            board.close();
+            board = new Leaderboard(dir);
+            assertEquals(before.toString(), board.top(Integer.MAX_VALUE).toString());
+            assertEquals("cy: 1/1/1", board.get("cy").toString());
+            assertNull(board.get("dan"));
+
+            // names too long to record are asked again, and never crash the game
+            String longName = "x".repeat(Leaderboard.MAX_NAME + 1);
+            assertEquals("ann", getNameInput(new Scanner(longName + "\nann\n"), "Name?"));
+            Chess game = new Chess(true, true, 8, 8, longName, "bob", false);
+            game.setLeaderboard(board);
+            String bob = board.get("bob").toString();
+            assertFalse(game.readStr("forfeit", new Scanner("n\n")));
+            assertEquals(bob, board.get("bob").toString());
+
+            // new players typed in after a game finish the next one
+            game = new Chess();
+            game.setLeaderboard(board);
+            assertTrue(game.readStr("forfeit", new Scanner("y\nn\nAnn\nBob\ny\ny\nn\n")));
+            assertFalse(game.readStr("forfeit", new Scanner("n\n")));
+            assertEquals("Ann: 0/0/1", board.get("Ann").toString());
+            assertEquals("Bob: 1/0/0", board.get("Bob").toString());
+            board.close();
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void latencyHistogramKeepsPercentiles() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (long v = 1 + first; v <= 100000; v += threads.length) histogram.record(v);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000L * 100001 / 2, histogram.getTotal());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(63, histogram.getValueAtPercentile(0.063));
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long expected = (long) (p * 1000), value = histogram.getValueAtPercentile(p);
+            assertTrue(value >= expected && value <= expected * 33 / 32, p + ": " + value);
+        }
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+
+        // off unless the JVM runs with -Dchess.metrics=true, and nothing is counted then
+        assertEquals(Boolean.getBoolean("chess.metrics"), Metrics.ENABLED);
+        if (!Metrics.ENABLED) {
+            new Chess().checkCheckmate('W');
+            assertEquals(0, Metrics.get(Metrics.CHECKMATE).getCount());
+        }
+        assertTrue(Metrics.report().startsWith("operation"));
+    }
+
+    @Test
+    public void positionSnapshotsAreImmutable() throws InterruptedException {
+        Chess game = new Chess();
+        assertEquals(IN_PROGRESS, game.play(Move.encode(6, 4, 4, 4)));
+        assertEquals(IN_PROGRESS, game.play(Move.encode(1, 3, 3, 3)));
+        Position position = game.snapshot();
+        String fen = Fen.write(game);
+        fen = fen.substring(0, fen.lastIndexOf(' ')); // the move number isn't part of a position
+        assertEquals(game.getBoard().hash(), position.hash());
+        assertEquals('W', position.getSideToMove());
+        assertEquals(Piece.PAWN, position.getTypeId(4, 4));
+        assertFalse(position.isFirstMove(4, 4));
+        assertTrue(position.isFirstMove(6, 3));
+        assertTrue(position.isGoingDown(1, 0));
+        assertEquals('N', position.getPlayer(6, 4));
+        assertEquals(-1, position.getTypeId(6, 4));
+
+        // the game going on doesn't change the snapshot
+        game.play(Move.encode(4, 4, 3, 4));
+        game.play(Move.encode(0, 6, 2, 5));
+        assertNotEquals(game.getBoard().hash(), position.hash());
+        Board board = position.toBoard();
+        assertEquals(position.hash(), board.hash());
+        assertEquals(position.hash(), board.computeHash());
+        assertTrue(Fen.write(new Chess(board, 'W', true)).startsWith(fen + " "));
+        assertEquals(position, Position.of(board));
+
+        // every child matches makeMove on a board
+        int[] moves = new int[Move.MAX_MOVES];
+        int n = board.generateLegalMoves('W', moves);
+        Position[] children = new Position[n];
+        for (int i = 0; i < n; i++) {
+            children[i] = position.after(moves[i]);
+            board.makeMove(moves[i]);
+            assertEquals(board.hash(), children[i].hash(), Move.toString(moves[i]));
+            assertEquals(Position.of(board), children[i]);
+            board.unmakeMove();
+        }
+        assertEquals(position, Position.of(board));
+
+        // threads share the snapshot, each searching its own board
+        long[] expected = new long[n], counts = new long[n];
+        for (int i = 0; i < n; i++) {
+            expected[i] = children[i].toBoard().generateLegalMoves('B', moves);
+        }
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                int[] buffer = new int[Move.MAX_MOVES];
+                for (int i = first; i < n; i += threads.length) {
+                    counts[i] = children[i].toBoard().generateLegalMoves('B', buffer);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertArrayEquals(expected, counts);
+    }
+}
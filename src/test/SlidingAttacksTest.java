@@ -0,0 +1,139 @@
+package test;
+
+import main.*;
+import main.pieces.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compare the magic-bitboard slider path against walking the rays square by square.
+ */
+public class SlidingAttacksTest {
+
+    /**
+     * Fill board with about density * squares random pieces.
+     * @param board board to fill
+     * @param random random source
+     * @param density fraction of squares to fill
+     */
+    private static void fillRandomly(Board board, Random random, double density) {
+        int n = (int) (board.getNumRows() * board.getNumCols() * density);
+        for (int i = 0; i < n; i++) {
+            char player = random.nextBoolean() ? 'W' : 'B';
+            Piece p;
+            switch (random.nextInt(4)) {
+                case 0: p = new Rook(player); break;
+                case 1: p = new Bishop(player); break;
+                case 2: p = new Queen(player); break;
+                default: p = new Pawn(player, random.nextBoolean());
+            }
+            board.setPieceAt(p, random.nextInt(board.getNumRows()), random.nextInt(board.getNumCols()));
+        }
+    }
+
+    /**
+     * Return true if (r1, c1) to (r2, c2) is a slide in the given style with nothing in between,
+     * using the loop in Board.isPathClear.
+     * @param board current board
+     * @param straight true for Rook lines, false for Bishop lines
+     * @return true if the slide is open.
+     */
+    private static boolean slideByLoop(Board board, boolean straight, int r1, int c1, int r2, int c2) {
+        int dr = r2 - r1, dc = c2 - c1;
+        if (dr == 0 && dc == 0) return false;
+        boolean aligned = straight ? (dr == 0 || dc == 0) : Math.abs(dr) == Math.abs(dc);
+        return aligned && board.isPathClear(r1, c1, r2, c2);
+    }
+
+    /**
+     * Test that the magic lookups equal the ray walk for every square and random occupancies.
+     */
+    @Test
+    public void magicAttacksMatchLoops() {
+        Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            Board board = new Board();
+            fillRandomly(board, random, random.nextDouble() * 0.6);
+            long occupied = board.getOccupancy();
+            for (int sq = 0; sq < 64; sq++) {
+                long rook = SlidingAttacks.rookAttacks(sq, occupied);
+                long bishop = SlidingAttacks.bishopAttacks(sq, occupied);
+                assertEquals(rook | bishop, SlidingAttacks.queenAttacks(sq, occupied));
+                for (int to = 0; to < 64; to++) {
+                    assertEquals(slideByLoop(board, true, sq / 8, sq % 8, to / 8, to % 8), (rook >>> to & 1) != 0);
+                    assertEquals(slideByLoop(board, false, sq / 8, sq % 8, to / 8, to % 8), (bishop >>> to & 1) != 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that isStraightMove and isDiagonalMove give the same answers through the
+     * magic tables (8x8 Board), the between masks (BitBoard) and the loop (other sizes).
+     */
+    @Test
+    public void sliderChecksMatchLoops() {
+        Random random = new Random(2);
+        for (int round = 0; round < 100; round++) {
+            Board[] boards = {new Board(), new BitBoard(), new Board(8, 9), new Board(10, 10)};
+            for (Board board : boards) {
+                fillRandomly(board, random, 0.3);
+                for (int r = 0; r < board.getNumRows(); r++) {
+                    for (int c = 0; c < board.getNumCols(); c++) {
+                        Piece p = board.getPieceAt(r, c);
+                        if (p == null) continue;
+                        for (int i = -1; i <= board.getNumRows(); i++) {
+                            for (int j = -1; j <= board.getNumCols(); j++) {
+                                boolean valid = board.isValidLocation(i, j);
+                                assertEquals(valid && slideByLoop(board, true, r, c, i, j),
+                                        p.isStraightMove(i, j, board));
+                                assertEquals(valid && slideByLoop(board, false, r, c, i, j),
+                                        p.isDiagonalMove(i, j, board) && p.differentLocation(i, j));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that slider move generation through the magic tables equals the ray walk on other sizes.
+     */
+    @Test
+    public void sliderGenerationMatchesLoops() {
+        Random random = new Random(3);
+        int[] moves = new int[Move.MAX_MOVES * 4];
+        for (int round = 0; round < 200; round++) {
+            Board board = round % 2 == 0 ? new Board() : new Board(7 + round % 5, 6 + round % 7);
+            fillRandomly(board, random, 0.35);
+            for (int r = 0; r < board.getNumRows(); r++) {
+                for (int c = 0; c < board.getNumCols(); c++) {
+                    Piece p = board.getPieceAt(r, c);
+                    if (p == null || p instanceof Pawn) continue;
+                    int n = p.generateMoves(board, moves, 0);
+                    int expected = 0;
+                    for (int i = 0; i < board.getNumRows(); i++) {
+                        for (int j = 0; j < board.getNumCols(); j++) {
+                            Piece t = board.getPieceAt(i, j);
+                            if (t != null && t.getPlayer() == p.getPlayer()) continue;
+                            boolean ok = (!(p instanceof Bishop) && slideByLoop(board, true, r, c, i, j))
+                                    || (!(p instanceof Rook) && slideByLoop(board, false, r, c, i, j));
+                            if (ok) expected++;
+                        }
+                    }
+                    assertEquals(expected, n);
+                    for (int k = 0; k < n; k++) {
+                        int m = moves[k];
+                        assertEquals(r, Move.getFromRow(m));
+                        assertEquals(c, Move.getFromCol(m));
+                        assertTrue(p.isValidMove(Move.getToRow(m), Move.getToCol(m), board));
+                    }
+                }
+            }
+        }
+    }
+}